@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import org.eztarget.micopi.engine.ContactPhotos;
+import org.eztarget.micopi.engine.ImageFactory;
+import org.eztarget.micopi.engine.Metrics;
+import org.eztarget.micopi.engine.ShadowCache;
+import org.eztarget.micopi.helper.PhotoBatchWriter;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates and assigns the pictures of many contacts in overlapping stages:
+ * one thread loads the contacts, render threads paint them,
+ * encoding threads compress them to PNG and the calling thread writes them to the provider
+ * in chunks.
+ * The loader streams the contacts and keeps a look-ahead window of the next few of them,
+ * from which it always hands out the one with the most expensive picture first,
+ * so that long renderings start early without holding up the first contacts of a batch.
+ * Only a limited number of contacts is in flight at any time,
+ * so all queues are bounded and a slow stage holds up the loader instead of filling the heap.
+ * Contacts are written and reported in the order in which the loader hands them out.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+class BatchPipeline {
+
+    private static final String TAG = BatchPipeline.class.getSimpleName();
+
+    private static final boolean SIMULATION = false;
+
+    /**
+     * In-flight pictures may use at most this share of the heap
+     */
+    private static final int HEAP_SHARE_DIVISOR = 4;
+
+    /**
+     * The loader orders this many times the number of contacts in flight by cost
+     */
+    private static final int LOOK_AHEAD_FACTOR = 4;
+
+    /**
+     * Supplies the contacts of a batch; only called on the loader thread
+     */
+    interface Loader {
+
+        /**
+         * @return Number of contacts that the loader will supply
+         */
+        int getCount();
+
+        /**
+         * @param index 0 to getCount() - 1, in ascending order
+         * @return Contact or null, if it could not be loaded
+         */
+        Contact load(int index);
+
+        /**
+         * Called after the last contact, also if the batch has been cancelled
+         */
+        void close();
+    }
+
+    /**
+     * Receives the progress of a batch on the thread that runs it
+     */
+    interface Listener {
+
+        /**
+         * @param contact       Contact that has just been written or has failed; may be null
+         * @param finishedCount Number of finished contacts, including this one
+         * @param totalCount    Number of contacts of the batch
+         */
+        void onContactFinished(Contact contact, int finishedCount, int totalCount);
+    }
+
+    private final Context mContext;
+
+    private final int mImageSize;
+
+    private final ShadowCache.Quality mShadowQuality;
+
+    private final int mNumberOfRenderThreads;
+
+    private final int mNumberOfEncodeThreads;
+
+    private final int mMaxInFlight;
+
+    private final int mLookAhead;
+
+    private volatile boolean mIsCancelled = false;
+
+    /*
+    Only used by the writer, i.e. the thread that runs the pipeline
+     */
+
+    private int mTotalCount;
+
+    private int mFinishedCount = 0;
+
+    private long mBatchStartTime;
+
+    private Listener mListener;
+
+    /**
+     * @param imageSize     Side length of the display photos
+     * @param shadowQuality Shadows of all pictures, e.g. MEDIUM to save time on large batches
+     */
+    BatchPipeline(
+            final Context context,
+            final int imageSize,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        mContext = context.getApplicationContext();
+        mImageSize = imageSize;
+        mShadowQuality = shadowQuality;
+
+        final int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+        mNumberOfRenderThreads = numberOfProcessors;
+        mNumberOfEncodeThreads = Math.max(1, numberOfProcessors / 2);
+
+        // Rendered pictures hold both Bitmaps until they are encoded.
+        final long bytesPerContact = 4L * ((long) imageSize * imageSize
+                + ImageFactory.THUMBNAIL_SIZE * ImageFactory.THUMBNAIL_SIZE);
+        final long heapLimit =
+                Runtime.getRuntime().maxMemory() / HEAP_SHARE_DIVISOR / bytesPerContact;
+        mMaxInFlight = (int) Math.max(
+                1L,
+                Math.min(mNumberOfRenderThreads + mNumberOfEncodeThreads + 2, heapLimit)
+        );
+        mLookAhead = mMaxInFlight * LOOK_AHEAD_FACTOR;
+    }
+
+    /**
+     * Stops loading new contacts; contacts in flight are dropped without being written
+     */
+    void cancel() {
+        mIsCancelled = true;
+    }
+
+    /**
+     * One contact on its way through the stages
+     */
+    private static class Item {
+
+        /**
+         * Marks the end of a queue
+         */
+        static final Item END = new Item(Integer.MAX_VALUE, null);
+
+        final int mIndex;
+
+        final Contact mContact;
+
+        final long mStartTime = System.nanoTime();
+
+        ContactPhotos mPhotos;
+
+        byte[] mThumbnailPng;
+
+        byte[] mDisplayPhotoPng;
+
+        Item(final int index, final Contact contact) {
+            mIndex = index;
+            mContact = contact;
+        }
+
+        boolean hasPngs() {
+            return mThumbnailPng != null && mDisplayPhotoPng != null;
+        }
+    }
+
+    /**
+     * Loaded contact in the look-ahead window of the loader
+     */
+    private static class Candidate {
+
+        /**
+         * Most expensive first; contacts of the same cost keep the order of the loader
+         */
+        static final Comparator<Candidate> MOST_EXPENSIVE_FIRST = new Comparator<Candidate>() {
+            @Override
+            public int compare(final Candidate lhs, final Candidate rhs) {
+                final int costOrder = Float.compare(rhs.mCost, lhs.mCost);
+                if (costOrder != 0) return costOrder;
+                return lhs.mLoadIndex < rhs.mLoadIndex ? -1 : 1;
+            }
+        };
+
+        final int mLoadIndex;
+
+        final Contact mContact;
+
+        final float mCost;
+
+        Candidate(final int loadIndex, final Contact contact, final float cost) {
+            mLoadIndex = loadIndex;
+            mContact = contact;
+            mCost = cost;
+        }
+    }
+
+    /**
+     * Processes all contacts of the loader and writes them on the calling thread;
+     * returns when all contacts are finished or the batch has been cancelled
+     */
+    void run(final Loader loader, final Listener listener) {
+        final int count = loader.getCount();
+        Log.d(
+                TAG,
+                count + " contacts, " + mNumberOfRenderThreads + " render threads, "
+                        + mNumberOfEncodeThreads + " encode threads, "
+                        + mMaxInFlight + " in flight, " + mLookAhead + " looked ahead"
+        );
+
+        final Semaphore inFlightPermits = new Semaphore(mMaxInFlight);
+        final BlockingQueue<Item> renderQueue =
+                new ArrayBlockingQueue<>(mMaxInFlight + mNumberOfRenderThreads);
+        final BlockingQueue<Item> encodeQueue =
+                new ArrayBlockingQueue<>(mMaxInFlight + mNumberOfEncodeThreads);
+        final BlockingQueue<Item> writeQueue = new ArrayBlockingQueue<>(mMaxInFlight + 1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                1 + mNumberOfRenderThreads + mNumberOfEncodeThreads,
+                new StageThreadFactory()
+        );
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(loader, count, inFlightPermits, renderQueue);
+            }
+        });
+
+        final AtomicInteger activeRenderThreads = new AtomicInteger(mNumberOfRenderThreads);
+        for (int i = 0; i < mNumberOfRenderThreads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    render(renderQueue, encodeQueue, writeQueue);
+                    if (activeRenderThreads.decrementAndGet() == 0) {
+                        for (int j = 0; j < mNumberOfEncodeThreads; j++) {
+                            put(encodeQueue, Item.END);
+                        }
+                    }
+                }
+            });
+        }
+
+        final AtomicInteger activeEncodeThreads = new AtomicInteger(mNumberOfEncodeThreads);
+        for (int i = 0; i < mNumberOfEncodeThreads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    encode(encodeQueue, writeQueue);
+                    if (activeEncodeThreads.decrementAndGet() == 0) put(writeQueue, Item.END);
+                }
+            });
+        }
+
+        write(writeQueue, inFlightPermits, count, listener);
+        executor.shutdown();
+    }
+
+    /*
+    STAGES
+     */
+
+    /**
+     * Loads the contacts in the order of the loader and hands them out
+     * from a window of mLookAhead loaded contacts, most expensive picture first;
+     * the seeds are cheap compared to a single rendering
+     */
+    private void load(
+            final Loader loader,
+            final int count,
+            final Semaphore inFlightPermits,
+            final BlockingQueue<Item> renderQueue
+    ) {
+        final PriorityQueue<Candidate> window =
+                new PriorityQueue<>(mLookAhead, Candidate.MOST_EXPENSIVE_FIRST);
+        int loadedCount = 0;
+        boolean isLoaderOpen = true;
+        float totalCost = 0f;
+
+        try {
+            int index = 0;
+            while (!mIsCancelled) {
+                while (isLoaderOpen && window.size() < mLookAhead) {
+                    if (loadedCount >= count || mIsCancelled) {
+                        isLoaderOpen = false;
+                        loader.close();
+                        break;
+                    }
+
+                    final Contact contact;
+                    try {
+                        contact = loader.load(loadedCount);
+                    } catch (RuntimeException e) {
+                        // Contacts that have not been loaded yet will not be written.
+                        Log.e(TAG, "Loading failed: " + e);
+                        isLoaderOpen = false;
+                        loader.close();
+                        break;
+                    }
+
+                    final float cost =
+                            contact != null ? ImageFactory.estimateCost(contact, mImageSize) : 0f;
+                    totalCost += cost;
+                    window.add(new Candidate(loadedCount++, contact, cost));
+                }
+
+                if (window.isEmpty()) break;
+
+                inFlightPermits.acquire();
+                if (mIsCancelled) break;
+
+                renderQueue.put(new Item(index++, window.poll().mContact));
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, e.toString());
+        } finally {
+            if (isLoaderOpen) loader.close();
+        }
+        Log.d(TAG, "Estimated cost of " + loadedCount + " pictures: " + totalCost);
+
+        // Every render thread stops at its own end marker.
+        for (int i = 0; i < mNumberOfRenderThreads; i++) put(renderQueue, Item.END);
+    }
+
+    /**
+     * Paints both pictures of every contact, unless they are in the AvatarCache already;
+     * cached pictures go straight to the writer
+     */
+    private void render(
+            final BlockingQueue<Item> renderQueue,
+            final BlockingQueue<Item> encodeQueue,
+            final BlockingQueue<Item> writeQueue
+    ) {
+        Item item;
+        while ((item = take(renderQueue)) != Item.END) {
+            if (mIsCancelled || item.mContact == null) {
+                put(writeQueue, item);
+                continue;
+            }
+
+            try {
+                item.mThumbnailPng = ImageFactory.cachedPngFrom(
+                        mContext,
+                        item.mContact,
+                        mImageSize,
+                        ImageFactory.THUMBNAIL_SIZE,
+                        mShadowQuality
+                );
+                item.mDisplayPhotoPng = ImageFactory.cachedPngFrom(
+                        mContext,
+                        item.mContact,
+                        mImageSize,
+                        mImageSize,
+                        mShadowQuality
+                );
+                if (!item.hasPngs()) {
+                    item.mPhotos = ImageFactory.photosFrom(
+                            mContext,
+                            item.mContact,
+                            mImageSize,
+                            mShadowQuality
+                    );
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // The contact fails, but the threads have to keep going to finish the batch.
+                Log.e(TAG, "Could not render " + item.mContact + ": " + e);
+                item.mPhotos = null;
+            }
+
+            if (item.mPhotos != null) put(encodeQueue, item);
+            else put(writeQueue, item);
+        }
+    }
+
+    private void encode(
+            final BlockingQueue<Item> encodeQueue,
+            final BlockingQueue<Item> writeQueue
+    ) {
+        Item item;
+        while ((item = take(encodeQueue)) != Item.END) {
+            final ContactPhotos photos = item.mPhotos;
+            item.mPhotos = null;
+
+            try {
+                if (!mIsCancelled) {
+                    item.mThumbnailPng = ImageFactory.pngFrom(
+                            mContext,
+                            item.mContact,
+                            mImageSize,
+                            photos.getThumbnail(),
+                            mShadowQuality
+                    );
+                    item.mDisplayPhotoPng = ImageFactory.pngFrom(
+                            mContext,
+                            item.mContact,
+                            mImageSize,
+                            photos.getDisplayPhoto(),
+                            mShadowQuality
+                    );
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                Log.e(TAG, "Could not encode " + item.mContact + ": " + e);
+            } finally {
+                photos.release();
+            }
+
+            put(writeQueue, item);
+        }
+    }
+
+    /**
+     * Writes the finished contacts in the order in which the loader handed them out;
+     * contacts that finish early wait in a ring of mMaxInFlight slots,
+     * which is enough, as no more contacts can be in flight.
+     * The PhotoBatchWriter commits them in chunks, so their permits are released
+     * as soon as they are queued there, as only their PNGs are left.
+     */
+    private void write(
+            final BlockingQueue<Item> writeQueue,
+            final Semaphore inFlightPermits,
+            final int count,
+            final Listener listener
+    ) {
+        mTotalCount = count;
+        mListener = listener;
+        mBatchStartTime = System.nanoTime();
+        Metrics.BATCH_SIZE.set(count);
+
+        final ArrayDeque<Item> queuedItems = new ArrayDeque<>();
+        final PhotoBatchWriter photoWriter = new PhotoBatchWriter(
+                mContext.getContentResolver(),
+                new PhotoBatchWriter.Callback() {
+                    @Override
+                    public void onPhotosWritten(final Contact contact, final boolean didWrite) {
+                        finish(queuedItems.poll(), didWrite);
+                    }
+                }
+        );
+
+        final Item[] waitingItems = new Item[mMaxInFlight];
+        int nextIndex = 0;
+
+        Item item;
+        while ((item = take(writeQueue)) != Item.END) {
+            waitingItems[item.mIndex % mMaxInFlight] = item;
+
+            Item nextItem;
+            while ((nextItem = waitingItems[nextIndex % mMaxInFlight]) != null
+                    && nextItem.mIndex == nextIndex) {
+                waitingItems[nextIndex % mMaxInFlight] = null;
+                nextIndex++;
+
+                if (mIsCancelled) {
+                    photoWriter.discard();
+                    queuedItems.clear();
+                } else if (nextItem.mContact == null) {
+                    // Keep the order of the progress reports.
+                    photoWriter.flush();
+                    finish(nextItem, false);
+                } else if (SIMULATION) {
+                    finish(nextItem, simulateAssignment(nextItem));
+                } else {
+                    queuedItems.add(nextItem);
+                    photoWriter.add(
+                            nextItem.mContact,
+                            nextItem.mThumbnailPng,
+                            nextItem.mDisplayPhotoPng
+                    );
+                }
+                inFlightPermits.release();
+            }
+        }
+
+        if (!mIsCancelled) photoWriter.flush();
+    }
+
+    private void finish(final Item item, final boolean didSucceed) {
+        recordContact(mBatchStartTime, item.mStartTime, didSucceed);
+        mListener.onContactFinished(item.mContact, ++mFinishedCount, mTotalCount);
+    }
+
+    private static boolean simulateAssignment(final Item item) {
+        if (!item.hasPngs()) return false;
+
+        Log.d(TAG, "Simulating: Assigning image to " + item.mContact.getFullName() + ".");
+        try {
+            Thread.sleep(500L);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private static void recordContact(
+            final long batchStartTime,
+            final long startTime,
+            final boolean didSucceed
+    ) {
+        Metrics.CONTACT.recordSince(startTime);
+        Metrics.CONTACTS.increment();
+        if (!didSucceed) Metrics.FAILURES.increment();
+
+        Metrics.BATCH_DURATION.set((System.nanoTime() - batchStartTime) / 1000000L);
+        final Runtime runtime = Runtime.getRuntime();
+        Metrics.HEAP_BYTES.set(runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /*
+    QUEUES
+     */
+
+    /**
+     * The stage threads are never interrupted, as that could leave contacts in flight forever
+     */
+    private static Item take(final BlockingQueue<Item> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Log.w(TAG, e.toString());
+            }
+        }
+    }
+
+    private static void put(final BlockingQueue<Item> queue, final Item item) {
+        while (true) {
+            try {
+                queue.put(item);
+                return;
+            } catch (InterruptedException e) {
+                Log.w(TAG, e.toString());
+            }
+        }
+    }
+
+    private static class StageThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    },
+                    BatchPipeline.class.getSimpleName() + " #" + mCount.incrementAndGet()
+            );
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
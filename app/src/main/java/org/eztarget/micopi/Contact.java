@@ -22,10 +22,8 @@ import android.os.Parcelable;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.math.BigInteger;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import org.eztarget.micopi.engine.Metrics;
+import org.eztarget.micopi.engine.Seed;
 
 /**
  * This class queries and stores contact data from a given intent.
@@ -78,6 +76,23 @@ public class Contact implements Parcelable {
         return mId + ": " + mFullName;
     }
 
+    /**
+     * Copies all values of another contact,
+     * e.g. for a background thread while the original may be modified
+     */
+    public Contact(final Contact contact) {
+        mId = contact.mId;
+        mNameParts = contact.mNameParts;
+        mPhotoUri = contact.mPhotoUri;
+        mFullName = contact.mFullName;
+        mNumOfLetters = contact.mNumOfLetters;
+        mPhoneNumber = contact.mPhoneNumber;
+        mEmailAddress = contact.mEmailAddress;
+        mBirthday = contact.mBirthday;
+        mRetryFactor = contact.mRetryFactor;
+        mMd5String = contact.mMd5String;
+    }
+
     /*
     PARCELABLE INTERFACE IMPLEMENTATION
      */
@@ -216,26 +231,41 @@ public class Contact implements Parcelable {
         // If no other contact attribute changed, don't re-calculate the MD5 value.
         if (mMd5String != null) return mMd5String;
 
-        final String combinedInfo;
-        combinedInfo = mFullName + mEmailAddress + mPhoneNumber + mBirthday + mRetryFactor;
-
-        try {
-            // Initialise and perform MD5 encryption.
-            final MessageDigest fDigest = MessageDigest.getInstance("MD5");
-            byte[] combinedBytes = combinedInfo.getBytes(Charset.forName("ISO-8859-1"));
-//            Log.d(TAG, "Generating new MD5 from " + combinedInfo);
+        mMd5String = deriveSeed(Seed.Algorithm.MD5, sSeeds.get()).toString();
 
-            // MD5-Encryption:
-            fDigest.update(combinedBytes, 0, combinedInfo.length());
-            mMd5String = new BigInteger(1, fDigest.digest()).toString(16);
+        // Now the new MD5 value is returned, so it is no longer new.
+        return mMd5String;
+    }
 
-            while (mMd5String.length() < 32) mMd5String += mFullName;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+    /**
+     * Seeds for getMD5EncryptedString(), one per thread
+     */
+    private static final ThreadLocal<Seed> sSeeds = new ThreadLocal<Seed>() {
+        @Override
+        protected Seed initialValue() {
+            return new Seed();
         }
+    };
 
-        // Now the new MD5 value is returned, so it is no longer new.
-        return mMd5String;
+    /**
+     * Hashes the data of this contact into an existing Seed, e.g. once per contact of a batch;
+     * MD5 seeds have the symbols of getMD5EncryptedString()
+     *
+     * @param seed Seed that is overwritten
+     * @return The given Seed
+     */
+    public Seed deriveSeed(final Seed.Algorithm algorithm, final Seed seed) {
+        final long startTime = System.nanoTime();
+        seed.derive(
+                algorithm,
+                mFullName,
+                mEmailAddress,
+                mPhoneNumber,
+                mBirthday,
+                mRetryFactor
+        );
+        Metrics.SEED.recordSince(startTime);
+        return seed;
     }
 
     public Uri getPhotoUri() {
@@ -245,7 +275,7 @@ public class Contact implements Parcelable {
     /**
      * Definition of step sized to be used by modifyRetryFactor()
      */
-    private static final int RETRY_STEP = 9;
+    public static final int RETRY_STEP = 9;
 
     /**
      * Alters the retry factor, so the next MD5 string will change significantly
@@ -259,6 +289,14 @@ public class Contact implements Parcelable {
         else mRetryFactor -= RETRY_STEP;
     }
 
+    /**
+     * @return Value that modifyRetryFactor() has moved the picture of this contact to;
+     * 0 for the original picture
+     */
+    public int getRetryFactor() {
+        return mRetryFactor;
+    }
+
     public String getFileName() {
         return mId + "___" + mFullName
                 .replace(" - ", "-")
@@ -4,7 +4,6 @@ import android.app.IntentService;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
@@ -16,11 +15,15 @@ import android.support.v4.app.NotificationCompat;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.eztarget.micopi.engine.BitmapPool;
 import org.eztarget.micopi.engine.ImageFactory;
-import org.eztarget.micopi.helper.DatabaseHelper;
+import org.eztarget.micopi.engine.Metrics;
+import org.eztarget.micopi.helper.BulkContactLoader;
+import org.eztarget.micopi.helper.FileHelper;
 import org.eztarget.micopi.ui.BatchActivity;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.util.Arrays;
 
 /**
  *
@@ -31,8 +34,6 @@ public class ImageService extends IntentService {
         All, Missing
     }
 
-    private static final boolean SIMULATION = false;
-
     private static final String TAG = ImageService.class.getSimpleName();
 
     public static final String EXTRA_CRAWL_MODE = "mode";
@@ -47,7 +48,13 @@ public class ImageService extends IntentService {
 
     public static final int SERVICE_NOTIFICATION_ID = 441444;
 
-    private boolean mIsCancelled;
+    private static final String METRICS_DIRECTORY = "metrics";
+
+    private static final String METRICS_FILE_NAME = "last_batch.json";
+
+    private volatile boolean mIsCancelled;
+
+    private volatile BatchPipeline mPipeline;
 
     private int mScreenWidthPixels;
 
@@ -68,7 +75,16 @@ public class ImageService extends IntentService {
         mScreenWidthPixels = intent.getIntExtra(EXTRA_IMAGE_SIZE, 1080);
 
         sIsRunning = true;
+        final BitmapPool bitmapPool = BitmapPool.getInstance(getApplicationContext());
+        bitmapPool.resetStatistics();
+        Metrics.reset();
         processContacts(mode);
+        Log.d(
+                TAG,
+                "Bitmap pool hit rate: " + bitmapPool.getHitRate()
+                        + ", peak bytes: " + bitmapPool.getPeakByteCount()
+        );
+        exportMetrics();
 
         getContentResolver().notifyChange(ContactsContract.Data.CONTENT_URI, null);
 
@@ -84,6 +100,8 @@ public class ImageService extends IntentService {
     public void onDestroy() {
         super.onDestroy();
         mIsCancelled = true;
+        final BatchPipeline pipeline = mPipeline;
+        if (pipeline != null) pipeline.cancel();
         stopForeground(true);
         ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).cancelAll();
     }
@@ -95,44 +113,63 @@ public class ImageService extends IntentService {
     private void processContacts(final CrawlMode mode) {
         if (mScreenWidthPixels < 100) return;
 
-        final boolean allContacts = (mode == CrawlMode.All);
-
-        final Contact[] contacts = getContacts(allContacts);
-
-        final int maxProgress = contacts.length * 2;
-        int currentProgress = 0;
-
-        for (final Contact contact : contacts) {
-            if (mIsCancelled) return;
-
-            updateProgress(contact.getFullName(), ++currentProgress, maxProgress);
-            final Bitmap bitmap = ImageFactory.bitmapFrom(
-                    getApplicationContext(),
-                    contact,
-                    mScreenWidthPixels
-            );
-
-            if (mIsCancelled) return;
+        final long[] contactIds = getContactIds(mode == CrawlMode.All);
+        if (mIsCancelled) return;
 
-            updateProgress(contact.getFullName(), ++currentProgress, maxProgress);
-            if (SIMULATION) {
-                Log.d(TAG, "Simulating: Assigning image to " + contact.getFullName() + ".");
-                try {
-                    Thread.sleep(500L);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        final BulkContactLoader contactLoader = new BulkContactLoader(getContentResolver());
+        final BatchPipeline pipeline = new BatchPipeline(
+                getApplicationContext(),
+                mScreenWidthPixels,
+                ImageFactory.getShadowQuality()
+        );
+        mPipeline = pipeline;
+        if (mIsCancelled) pipeline.cancel();
+        pipeline.run(
+                new BatchPipeline.Loader() {
+                    @Override
+                    public int getCount() {
+                        return contactIds.length;
+                    }
+
+                    @Override
+                    public Contact load(final int index) {
+                        return contactLoader.load(contactIds[index]);
+                    }
+
+                    @Override
+                    public void close() {
+                        contactLoader.close();
+                    }
+                },
+                new BatchPipeline.Listener() {
+                    @Override
+                    public void onContactFinished(
+                            final Contact contact,
+                            final int finishedCount,
+                            final int totalCount
+                    ) {
+                        updateProgress(
+                                contact != null ? contact.getFullName() : "",
+                                finishedCount,
+                                totalCount
+                        );
+                    }
                 }
-            } else {
-                Log.d(TAG, "Assigning image to " + contact.getFullName() + ".");
-                DatabaseHelper.assignImageToContact(
-                        getApplicationContext(),
-                        bitmap,
-                        contact
-                );
-            }
-
-        }
+        );
+        mPipeline = null;
+    }
 
+    /**
+     * Stores all metrics of the finished batch as JSON in the private files of the app;
+     * every batch replaces the export of the previous one
+     */
+    private void exportMetrics() {
+        final String path = FileHelper.storeText(
+                Metrics.toJson(),
+                new File(getFilesDir(), METRICS_DIRECTORY),
+                METRICS_FILE_NAME
+        );
+        if (path != null) Log.d(TAG, "Stored metrics in " + path + ".");
     }
 
     private static final String[] PROJECTION_INITIAL_QUERY = new String[]{
@@ -141,7 +178,11 @@ public class ImageService extends IntentService {
             ContactsContract.Contacts.PHOTO_ID
     };
 
-    private Contact[] getContacts(final boolean allContacts) {
+    /**
+     * Only reads the IDs of the contacts of a batch in ascending order;
+     * the contacts themselves are built by the loader stage of the BatchPipeline
+     */
+    private long[] getContactIds(final boolean allContacts) {
         final Uri uri = ContactsContract.Contacts.CONTENT_URI;
 
         final Cursor cursor = getContentResolver().query(
@@ -149,14 +190,13 @@ public class ImageService extends IntentService {
                 PROJECTION_INITIAL_QUERY,
                 ContactsContract.Contacts.IN_VISIBLE_GROUP + "=1",
                 null,
-                ContactsContract.Contacts.DISPLAY_NAME + " COLLATE LOCALIZED ASC"
+                ContactsContract.Contacts._ID + " ASC"
         );
 
-        if (cursor == null) return new Contact[0];
-
-        final ArrayList<Contact> contactList = new ArrayList<>();
+        if (cursor == null) return new long[0];
 
-        final ContentResolver contentResolver = getContentResolver();
+        final long[] contactIds = new long[cursor.getCount()];
+        int numberOfContacts = 0;
 
         while (cursor.moveToNext() && !mIsCancelled) {
 
@@ -165,19 +205,14 @@ public class ImageService extends IntentService {
             if (cursor.getInt(2) <= 0 || allContacts) {
                 // Make sure this contact has a name.
                 if (!TextUtils.isEmpty(cursor.getString(1))) {
-                    contactList.add(DatabaseHelper.buildContact(
-                            contentResolver,
-                            cursor.getLong(0))
-                    );
+                    contactIds[numberOfContacts++] = cursor.getLong(0);
                 }
             }
         }
 
         cursor.close();
 
-        final Contact[] contacts = new Contact[contactList.size()];
-        contactList.toArray(contacts);
-        return contacts;
+        return Arrays.copyOf(contactIds, numberOfContacts);
     }
 
     private void updateProgress(final String name, final int progress, final int maxProgress) {
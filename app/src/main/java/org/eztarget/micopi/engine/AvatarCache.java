@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of encoded pictures in the private cache directory of the app.
+ * Pictures are deterministic, so an entry is addressed by everything that determines its pixels;
+ * see ImageFactory for the key.
+ * Keys are readable and may contain anything, even names;
+ * the files are named after the hexadecimal MD5 hash of their key.
+ * The index of all entries is kept in memory in least-recently-used order,
+ * so that lookups never list the directory.
+ * It is built from the file modification times once per process;
+ * hits update the modification time, so that the order survives restarts.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class AvatarCache {
+
+    private static final String TAG = AvatarCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "avatars";
+
+    private static final String FILE_SUFFIX = ".png";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Length of the file names without suffix, see getName()
+     */
+    private static final int NAME_LENGTH = 32;
+
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+
+    private static AvatarCache sInstance;
+
+    private final File mDirectory;
+
+    private final long mMaxBytes;
+
+    /**
+     * File sizes by file name without suffix in access order
+     */
+    private final LinkedHashMap<String, Long> mIndex = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long mByteCount;
+
+    private int mTempFileCount;
+
+    private AvatarCache(final File directory, final long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        loadIndex();
+    }
+
+    /**
+     * @param context Any Context; only used to find the cache directory
+     * @return The process-wide instance
+     */
+    public static synchronized AvatarCache getInstance(final Context context) {
+        if (sInstance == null) {
+            sInstance = new AvatarCache(
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME),
+                    DEFAULT_MAX_BYTES
+            );
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return Stored bytes or null, if there is no entry for the key
+     */
+    public byte[] get(final String key) {
+        final String name = getName(key);
+        synchronized (this) {
+            if (mIndex.get(name) == null) return null;
+        }
+
+        final File file = getFile(name);
+        final byte[] bytes = readFile(file);
+        if (bytes == null) {
+            synchronized (this) {
+                removeEntry(name);
+            }
+            return null;
+        }
+
+        // Keeps the access order for the next process.
+        file.setLastModified(System.currentTimeMillis());
+        return bytes;
+    }
+
+    /**
+     * Stores the bytes under the given key and removes the least recently used entries
+     * until the cache fits into its size limit again.
+     * The entry file is written completely under a temporary name and then renamed,
+     * so that readers and later processes never see partial files.
+     */
+    public void put(final String key, final byte[] bytes) {
+        final String name = getName(key);
+        final File tempFile;
+        synchronized (this) {
+            tempFile = new File(mDirectory, name + '.' + (mTempFileCount++) + TEMP_SUFFIX);
+        }
+
+        if (!writeFile(tempFile, bytes) || !tempFile.renameTo(getFile(name))) {
+            Log.e(TAG, "Could not store " + key + ".");
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            final Long previousLength = mIndex.put(name, (long) bytes.length);
+            if (previousLength != null) mByteCount -= previousLength;
+            mByteCount += bytes.length;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Deletes all entries
+     */
+    public synchronized void clear() {
+        for (final String name : mIndex.keySet()) getFile(name).delete();
+        mIndex.clear();
+        mByteCount = 0L;
+    }
+
+    private File getFile(final String name) {
+        return new File(mDirectory, name + FILE_SUFFIX);
+    }
+
+    /**
+     * @return File name of the entry of the key without suffix; always 32 hexadecimal digits
+     */
+    private static String getName(final String key) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Every Java platform has to provide MD5 and UTF-8.
+            throw new IllegalStateException(e);
+        }
+
+        final char[] name = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            name[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            name[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(name);
+    }
+
+    private void loadIndex() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Could not create " + mDirectory + ".");
+            return;
+        }
+
+        final File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        for (final File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(FILE_SUFFIX)) {
+                // Left over from a write that was interrupted.
+                file.delete();
+                continue;
+            }
+
+            if (name.length() != NAME_LENGTH + FILE_SUFFIX.length()) {
+                // Named after a readable key by an earlier version; can never be hit again.
+                file.delete();
+                continue;
+            }
+
+            final long length = file.length();
+            mIndex.put(name.substring(0, name.length() - FILE_SUFFIX.length()), length);
+            mByteCount += length;
+        }
+
+        trimToSize();
+        Log.d(TAG, "Indexed " + mIndex.size() + " pictures, " + mByteCount + " bytes.");
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = mIndex.entrySet().iterator();
+        while (mByteCount > mMaxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            getFile(eldest.getKey()).delete();
+            mByteCount -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void removeEntry(final String name) {
+        final Long length = mIndex.remove(name);
+        if (length != null) mByteCount -= length;
+    }
+
+    private static byte[] readFile(final File file) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            final byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int count = inputStream.read(bytes, offset, bytes.length - offset);
+                if (count < 0) return null;
+                offset += count;
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static boolean writeFile(final File file, final byte[] bytes) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            outputStream.write(bytes);
+            outputStream.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            return false;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
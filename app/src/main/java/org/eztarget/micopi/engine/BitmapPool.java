@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Process-wide pool of mutable ARGB_8888 Bitmaps for render targets and thumbnails,
+ * and of the int[] framebuffers that the raster backend paints into before copying them.
+ * Bitmaps are acquired for one picture and released when it has been stored,
+ * so that a batch run keeps reusing the same few Bitmaps instead of leaving
+ * one full-size picture per contact to the garbage collector.
+ * Registers itself for memory callbacks and drops all idle Bitmaps and framebuffers
+ * when the system asks for memory.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class BitmapPool implements ComponentCallbacks2 {
+
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_8888;
+
+    private static BitmapPool sInstance;
+
+    /**
+     * Maximum number of bytes of idle Bitmaps and framebuffers
+     */
+    private final long mMaxIdleBytes;
+
+    /**
+     * Released Bitmaps that can be handed out again
+     */
+    private final ArrayList<Bitmap> mIdleBitmaps = new ArrayList<>();
+
+    /**
+     * Released framebuffers that can be handed out again for pictures of the same size
+     */
+    private final ArrayList<int[]> mIdleFramebuffers = new ArrayList<>();
+
+    private long mIdleBytes;
+
+    /**
+     * Bytes of all Bitmaps and framebuffers that were created by this pool
+     * and have not been dropped, including the ones that are currently acquired
+     */
+    private long mHeldBytes;
+
+    private long mPeakBytes;
+
+    private int mAcquireCount;
+
+    private int mHitCount;
+
+    private boolean mReconfigures = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    private BitmapPool(final long maxIdleBytes) {
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * @param context Any Context; only the Application Context is used for memory callbacks
+     * @return The process-wide instance
+     */
+    public static synchronized BitmapPool getInstance(final Context context) {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8L);
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Allows idle Bitmaps of a different size to be reconfigured, as long as their memory is
+     * large enough, like BitmapFactory.Options.inBitmap does on KitKat;
+     * without reconfiguration only Bitmaps of the exact size are reused.
+     * Enabled by default where it is available.
+     */
+    public synchronized void setReconfigures(final boolean reconfigures) {
+        mReconfigures = reconfigures && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * @return Cleared, mutable Bitmap of the given size that should be released after use
+     */
+    public Bitmap acquire(final int width, final int height) {
+        final Bitmap bitmap = takeIdleBitmap(width, height);
+
+        if (bitmap == null) {
+            final Bitmap newBitmap = Bitmap.createBitmap(width, height, CONFIG);
+            synchronized (this) {
+                mHeldBytes += getAllocationByteCount(newBitmap);
+                if (mHeldBytes > mPeakBytes) mPeakBytes = mHeldBytes;
+            }
+            return newBitmap;
+        }
+
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            reconfigure(bitmap, width, height);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Hands a Bitmap back to the pool; it must not be used by the caller afterwards.
+     * Bitmaps that do not fit into the pool are recycled.
+     *
+     * @param bitmap Bitmap from acquire(); null is ignored
+     */
+    public void release(final Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+
+        final int byteCount = getAllocationByteCount(bitmap);
+        synchronized (this) {
+            if (bitmap.isMutable()
+                    && bitmap.getConfig() == CONFIG
+                    && mIdleBytes + byteCount <= mMaxIdleBytes) {
+                mIdleBitmaps.add(bitmap);
+                mIdleBytes += byteCount;
+                return;
+            }
+            mHeldBytes = Math.max(0L, mHeldBytes - byteCount);
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * @return Cleared framebuffer of width * height pixels for the raster backend
+     * that should be released after use
+     */
+    public int[] acquireFramebuffer(final int width, final int height) {
+        final int length = width * height;
+
+        int[] pixels = null;
+        synchronized (this) {
+            for (int i = mIdleFramebuffers.size() - 1; i >= 0; i--) {
+                if (mIdleFramebuffers.get(i).length == length) {
+                    pixels = mIdleFramebuffers.remove(i);
+                    mIdleBytes -= length * 4L;
+                    break;
+                }
+            }
+
+            if (pixels == null) {
+                mHeldBytes += length * 4L;
+                if (mHeldBytes > mPeakBytes) mPeakBytes = mHeldBytes;
+            }
+        }
+
+        if (pixels == null) return new int[length];
+
+        Arrays.fill(pixels, 0);
+        return pixels;
+    }
+
+    /**
+     * Hands a framebuffer back to the pool; it must not be used by the caller afterwards
+     *
+     * @param pixels Framebuffer from acquireFramebuffer(); null is ignored
+     */
+    public synchronized void releaseFramebuffer(final int[] pixels) {
+        if (pixels == null) return;
+
+        final long byteCount = pixels.length * 4L;
+        if (mIdleBytes + byteCount <= mMaxIdleBytes) {
+            mIdleFramebuffers.add(pixels);
+            mIdleBytes += byteCount;
+        } else {
+            mHeldBytes = Math.max(0L, mHeldBytes - byteCount);
+        }
+    }
+
+    /**
+     * @return Share of acquire() calls since the last reset that reused an idle Bitmap
+     */
+    public synchronized float getHitRate() {
+        return mAcquireCount == 0 ? 0f : mHitCount / (float) mAcquireCount;
+    }
+
+    /**
+     * @return Largest number of bytes that acquired and idle Bitmaps held since the last reset
+     */
+    public synchronized long getPeakByteCount() {
+        return mPeakBytes;
+    }
+
+    /**
+     * Starts a new measurement of the hit rate and the peak bytes, e.g. for a batch run
+     */
+    public synchronized void resetStatistics() {
+        mAcquireCount = 0;
+        mHitCount = 0;
+        mPeakBytes = mHeldBytes;
+    }
+
+    /**
+     * Recycles all idle Bitmaps and drops all idle framebuffers; acquired ones are not affected
+     */
+    public void evictAll() {
+        final ArrayList<Bitmap> idleBitmaps;
+        synchronized (this) {
+            Log.d(TAG, "Releasing " + mIdleBytes + " bytes of idle Bitmaps and framebuffers.");
+            idleBitmaps = new ArrayList<>(mIdleBitmaps);
+            mIdleBitmaps.clear();
+            mIdleFramebuffers.clear();
+            mHeldBytes = Math.max(0L, mHeldBytes - mIdleBytes);
+            mIdleBytes = 0L;
+        }
+
+        for (final Bitmap bitmap : idleBitmaps) bitmap.recycle();
+    }
+
+    /**
+     * @return Idle Bitmap of the exact size or, if reconfiguring is enabled,
+     * the smallest one that has enough memory; null if there is none
+     */
+    private synchronized Bitmap takeIdleBitmap(final int width, final int height) {
+        mAcquireCount++;
+
+        final int requiredBytes = width * height * 4;
+        int bestIndex = -1;
+        int bestBytes = Integer.MAX_VALUE;
+        for (int i = 0; i < mIdleBitmaps.size(); i++) {
+            final Bitmap bitmap = mIdleBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                bestIndex = i;
+                break;
+            }
+
+            final int byteCount = getAllocationByteCount(bitmap);
+            if (mReconfigures && byteCount >= requiredBytes && byteCount < bestBytes) {
+                bestIndex = i;
+                bestBytes = byteCount;
+            }
+        }
+        if (bestIndex < 0) return null;
+
+        final Bitmap bitmap = mIdleBitmaps.remove(bestIndex);
+        mIdleBytes -= getAllocationByteCount(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(final Bitmap bitmap, final int width, final int height) {
+        bitmap.reconfigure(width, height, CONFIG);
+    }
+
+    private static int getAllocationByteCount(final Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /*
+    COMPONENT CALLBACKS
+     */
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders the characters of a RasterPainter with the Android font engine,
+ * using the same cached layers as the CanvasPainter.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class CanvasGlyphRasterizer implements GlyphRasterizer {
+
+    private final GlyphLayerCache mGlyphLayerCache;
+
+    private byte[] mLayerBytes;
+
+    public CanvasGlyphRasterizer(final Context context) {
+        mGlyphLayerCache = GlyphLayerCache.getInstance(context);
+    }
+
+    @Override
+    public synchronized void rasterize(
+            final String string,
+            final int imageSize,
+            final byte[] coverage
+    ) {
+        final GlyphLayerCache.Layer layer = mGlyphLayerCache.getLayer(string, imageSize);
+        if (layer == null) return;
+
+        final Bitmap mask = layer.getMask();
+        final int width = mask.getWidth();
+        final int height = mask.getHeight();
+        if (mLayerBytes == null || mLayerBytes.length < width * height) {
+            mLayerBytes = new byte[width * height];
+        }
+
+        // The layer width is a multiple of 4, so the ALPHA_8 rows are not padded.
+        mask.copyPixelsToBuffer(ByteBuffer.wrap(mLayerBytes, 0, width * height));
+
+        final int left = layer.getLeft();
+        final int copyWidth = Math.min(width, imageSize - left);
+        for (int row = 0; row < height; row++) {
+            final int y = layer.getTop() + row;
+            if (y >= imageSize) break;
+            System.arraycopy(mLayerBytes, row * width, coverage, y * imageSize + left, copyWidth);
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright (C) 2014 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Shader;
+import android.os.Build;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Painter that draws onto an Android Canvas;
+ * stores the Canvas and other often-used attributes;
+ * to be accessed by different steps of the ImageFactory
+ * <p/>
+ * Created by Michel on 23.01.14.
+ */
+public class CanvasPainter implements Painter {
+
+    private static final String TAG = CanvasPainter.class.getSimpleName();
+
+    private static final int SHADOW_COLOR = 0xDD000000;
+
+    private static final int SHADOW_COLOR_LIGHT = 0x77000000;
+
+    private static final Texture[] TEXTURES = Texture.values();
+
+    private Canvas mCanvas;
+
+    private int mImageSize;
+
+    private float mImageSizeHalf;
+
+    private float mShadowRadius;
+
+    private Paint mPaint;
+
+    private TextureCache mTextureCache;
+
+    private GlyphLayerCache mGlyphLayerCache;
+
+    private final SquareBatchOrder mSquareBatchOrder = new SquareBatchOrder();
+
+    private final Path mSquarePath = new Path();
+
+    private final Path mPolygonPath = new Path();
+
+    private final Matrix mPolygonMatrix = new Matrix();
+
+    /**
+     * Unit polygons, indexed by number of edges and curved edge;
+     * created on first use and only read afterwards
+     */
+    private static final Path[] sPolygonTemplates =
+            new Path[(PolygonTemplates.MAX_EDGES + 1) * 2];
+
+    private ShadowCache.Quality mShadowQuality = ShadowCache.Quality.EXACT;
+
+    /*
+    Shadow layer values for cached shadows
+     */
+
+    private float mCachedShadowRadius;
+
+    private float mCachedShadowOffsetX;
+
+    private float mCachedShadowOffsetY;
+
+    private final Paint mShadowPaint = new Paint();
+
+    private final Matrix mShadowMatrix = new Matrix();
+
+    /**
+     * Bitmaps of the masks in the ShadowCache; entries disappear with their masks
+     */
+    private static final Map<ShadowCache.Mask, Bitmap> sShadowBitmaps = new WeakHashMap<>();
+
+    /**
+     * Constructor
+     */
+    public CanvasPainter(final Canvas canvas, final Context context) {
+        if (canvas == null) {
+            Log.e(TAG, "Null canvas.");
+            return;
+        }
+        mCanvas = canvas;
+        mImageSize = canvas.getWidth();
+        mImageSizeHalf = mImageSize * 0.5f;
+        mShadowRadius = mImageSize * 0.05f;
+        mPaint = new Paint();
+        mPaint.setAlpha(255);
+        mPaint.setStyle(Paint.Style.FILL);
+
+        mPaint.setAntiAlias(true);
+
+        mTextureCache = TextureCache.getInstance(context);
+        mGlyphLayerCache = GlyphLayerCache.getInstance(context);
+
+        // Alpha bitmaps are painted in the colour of the Paint.
+        mShadowPaint.setColor(SHADOW_COLOR);
+        mShadowPaint.setFilterBitmap(true);
+        mShadowPaint.setAntiAlias(true);
+    }
+
+    /**
+     * Shadows of all quality levels except EXACT are drawn from the ShadowCache
+     * instead of a shadow layer that Skia blurs for every shape
+     */
+    public void setShadowQuality(final ShadowCache.Quality shadowQuality) {
+        mShadowQuality = shadowQuality;
+    }
+
+    @Override
+    public int getImageSize() {
+        return mImageSize;
+    }
+
+    @Override
+    public boolean canPaintRoundedSquares() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @Override
+    public void paintBackground(final int color) {
+        mCanvas.drawColor(color);
+    }
+
+    /*
+    Textures
+     */
+
+    private void setShader(final Texture texture) {
+        if (texture == Texture.NONE) {
+            clearShader();
+        } else {
+            mPaint.setShader(mTextureCache.getShader(texture, Shader.TileMode.MIRROR));
+        }
+    }
+
+    private void clearShader() {
+        mPaint.setShader(null);
+    }
+
+    @Override
+    public void enableShadows() {
+        if (mShadowQuality == ShadowCache.Quality.EXACT) {
+            mPaint.setShadowLayer(mShadowRadius, 0, 0, SHADOW_COLOR);
+        } else {
+            mCachedShadowRadius = mShadowRadius;
+            mCachedShadowOffsetX = 0f;
+            mCachedShadowOffsetY = 0f;
+        }
+        mHasShadows = true;
+    }
+
+    private boolean mHasShadows = false;
+
+    @Override
+    public void setShadowLayer(
+            final float radiusScale,
+            final float offsetFactorX,
+            final float offsetFactorY
+    ) {
+        if (mShadowQuality == ShadowCache.Quality.EXACT) {
+            mPaint.setShadowLayer(
+                    mShadowRadius * radiusScale,
+                    mShadowRadius * (((offsetFactorX % 40) / 40f)),
+                    mShadowRadius * (((offsetFactorY % 40) / 40f)),
+                    SHADOW_COLOR
+            );
+        } else {
+            mCachedShadowRadius = mShadowRadius * radiusScale;
+            mCachedShadowOffsetX = mShadowRadius * (((offsetFactorX % 40) / 40f));
+            mCachedShadowOffsetY = mShadowRadius * (((offsetFactorY % 40) / 40f));
+        }
+        mHasShadows = true;
+    }
+
+    @Override
+    public void disableShadows() {
+        if (mHasShadows) {
+            mPaint.clearShadowLayer();
+            mHasShadows = false;
+        }
+    }
+
+    private boolean hasCachedShadows() {
+        return mHasShadows && mShadowQuality != ShadowCache.Quality.EXACT;
+    }
+
+    /**
+     * Draws the blurred mask of a shape from the ShadowCache, turned and scaled onto the shape
+     *
+     * @param kind  One of the ShadowCache KIND constants
+     * @param angle Rotation of the shape in radians
+     */
+    private void drawCachedShadow(
+            final int kind,
+            final int numberOfEdges,
+            final float angle,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        if (radius <= 0f) return;
+
+        final long startTime = System.nanoTime();
+        final ShadowCache.Mask mask = ShadowCache.getInstance().getMask(
+                kind,
+                numberOfEdges,
+                ShadowCache.toSigma(mCachedShadowRadius),
+                radius,
+                mShadowQuality
+        );
+
+        final Bitmap bitmap = getShadowBitmap(mask);
+        final float maskCenter = mask.getSize() / 2f;
+        final float scale = radius / mask.getShapeRadius();
+
+        mShadowMatrix.setTranslate(-maskCenter, -maskCenter);
+        mShadowMatrix.postScale(scale, scale);
+        mShadowMatrix.postRotate((float) Math.toDegrees(angle));
+        mShadowMatrix.postTranslate(centerX + mCachedShadowOffsetX, centerY + mCachedShadowOffsetY);
+        mCanvas.drawBitmap(bitmap, mShadowMatrix, mShadowPaint);
+        Metrics.SHADOW.recordSince(startTime);
+    }
+
+    private void drawCachedSquareShadow(
+            final float left,
+            final float top,
+            final float right,
+            final float bottom
+    ) {
+        // A polygon with 4 edges that is turned by 45 degrees.
+        drawCachedShadow(
+                ShadowCache.KIND_POLYGON,
+                4,
+                TWO_PI / 8f,
+                (left + right) / 2f,
+                (top + bottom) / 2f,
+                (right - left) / (float) Math.sqrt(2.0)
+        );
+    }
+
+    private static Bitmap getShadowBitmap(final ShadowCache.Mask mask) {
+        synchronized (sShadowBitmaps) {
+            Bitmap bitmap = sShadowBitmaps.get(mask);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(mask.getSize(), mask.getSize(), Bitmap.Config.ALPHA_8);
+                bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(mask.getCoverage()));
+                sShadowBitmaps.put(mask, bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    @Override
+    public void paintSquare(
+            final int color,
+            final Texture texture,
+            final int alpha,
+            final float x,
+            final float y,
+            final float size
+    ) {
+        final float offsetX = x * size;
+        final float offsetY = y * size;
+
+        mPaint.setColor(color);
+        mPaint.setAlpha(alpha);
+
+//        Log.d("square", x + ", " + y);
+
+        final boolean hasCachedShadows = hasCachedShadows();
+        if (hasCachedShadows) {
+            drawCachedSquareShadow(offsetX, offsetY, offsetX + size, offsetY + size);
+        }
+        mCanvas.drawRect(offsetX, offsetY, offsetX + size, offsetY + size, mPaint);
+        if (texture != Texture.NONE) {
+            setShader(texture);
+            if (hasCachedShadows) {
+                drawCachedSquareShadow(offsetX, offsetY, offsetX + size, offsetY + size);
+            }
+            mCanvas.drawRect(offsetX, offsetY, offsetX + size, offsetY + size, mPaint);
+            clearShader();
+        }
+    }
+
+    @Override
+    public void paintSquares(
+            final float[] rects,
+            final int[] colors,
+            final byte[] alphas,
+            final byte[] textures,
+            final int count
+    ) {
+        mSquareBatchOrder.sort(rects, colors, alphas, textures, count);
+
+        // Every group of squares with the same style becomes one Path.
+        mSquarePath.reset();
+        int groupStart = 0;
+        for (int position = 0; position < count; position++) {
+            final int index = mSquareBatchOrder.getIndex(position);
+            final int rectOffset = index * 4;
+            mSquarePath.addRect(
+                    rects[rectOffset],
+                    rects[rectOffset + 1],
+                    rects[rectOffset + 2],
+                    rects[rectOffset + 3],
+                    Path.Direction.CW
+            );
+
+            if (position + 1 < count && mSquareBatchOrder.continuesGroup(position + 1)) continue;
+
+            mPaint.setColor(colors[index]);
+            mPaint.setAlpha(alphas[index] & 0xFF);
+            if (hasCachedShadows()) drawCachedSquareShadows(rects, groupStart, position);
+            mCanvas.drawPath(mSquarePath, mPaint);
+
+            final Texture texture = TEXTURES[textures[index]];
+            if (texture != Texture.NONE) {
+                setShader(texture);
+                if (hasCachedShadows()) drawCachedSquareShadows(rects, groupStart, position);
+                mCanvas.drawPath(mSquarePath, mPaint);
+                clearShader();
+            }
+            mSquarePath.reset();
+            groupStart = position + 1;
+        }
+    }
+
+    /**
+     * Draws the shadows of the squares between two paint positions of the sorted batch
+     */
+    private void drawCachedSquareShadows(
+            final float[] rects,
+            final int firstPosition,
+            final int lastPosition
+    ) {
+        for (int position = firstPosition; position <= lastPosition; position++) {
+            final int rectOffset = mSquareBatchOrder.getIndex(position) * 4;
+            drawCachedSquareShadow(
+                    rects[rectOffset],
+                    rects[rectOffset + 1],
+                    rects[rectOffset + 2],
+                    rects[rectOffset + 3]
+            );
+        }
+    }
+
+    @Override
+    public void paintPolygon(
+            final int color,
+            final Texture texture,
+            float angleOffset,
+            final int numberOfEdges,
+            final boolean hasCurvedEdge,
+            final float centerX,
+            final float centerY,
+            float radius
+    ) {
+        // Rotate, scale and move the unit polygon.
+        mPolygonMatrix.setSinCos((float) Math.sin(angleOffset), (float) Math.cos(angleOffset));
+        mPolygonMatrix.postScale(radius, radius);
+        mPolygonMatrix.postTranslate(centerX, centerY);
+        final Path polygonPath = mPolygonPath;
+        getPolygonTemplate(numberOfEdges, hasCurvedEdge).transform(mPolygonMatrix, polygonPath);
+
+        mPaint.setColor(color);
+
+        final int shadowKind =
+                hasCurvedEdge ? ShadowCache.KIND_CURVED_POLYGON : ShadowCache.KIND_POLYGON;
+        final boolean hasCachedShadows = hasCachedShadows();
+        if (hasCachedShadows) {
+            drawCachedShadow(shadowKind, numberOfEdges, angleOffset, centerX, centerY, radius);
+        }
+        mCanvas.drawPath(polygonPath, mPaint);
+
+        if (texture != Texture.NONE) {
+            setShader(texture);
+            if (hasCachedShadows) {
+                drawCachedShadow(shadowKind, numberOfEdges, angleOffset, centerX, centerY, radius);
+            }
+            mCanvas.drawPath(polygonPath, mPaint);
+            clearShader();
+        }
+    }
+
+    /**
+     * @return Shared unit polygon around the origin that must not be modified
+     */
+    private static Path getPolygonTemplate(final int numberOfEdges, final boolean hasCurvedEdge) {
+        if (numberOfEdges < PolygonTemplates.MIN_EDGES
+                || numberOfEdges > PolygonTemplates.MAX_EDGES) {
+            return createPolygonTemplate(numberOfEdges, hasCurvedEdge);
+        }
+
+        final int index = numberOfEdges * 2 + (hasCurvedEdge ? 1 : 0);
+        synchronized (sPolygonTemplates) {
+            if (sPolygonTemplates[index] == null) {
+                sPolygonTemplates[index] = createPolygonTemplate(numberOfEdges, hasCurvedEdge);
+            }
+            return sPolygonTemplates[index];
+        }
+    }
+
+    /**
+     * The curved edge bends from the first to the second vertex towards the centre
+     */
+    private static Path createPolygonTemplate(
+            final int numberOfEdges,
+            final boolean hasCurvedEdge
+    ) {
+        final double[] unitVertices = PolygonTemplates.getUnitVertices(numberOfEdges);
+        final Path path = new Path();
+
+        final float firstX = (float) unitVertices[0];
+        final float firstY = (float) unitVertices[1];
+        path.moveTo(firstX, firstY);
+
+        for (int edge = 2; edge <= numberOfEdges; edge++) {
+            final float x = (float) unitVertices[(edge - 1) * 2];
+            final float y = (float) unitVertices[(edge - 1) * 2 + 1];
+
+            if (hasCurvedEdge && edge == 2) {
+                path.quadTo(((x * 2f) + firstX) / 4f, ((y * 2f) + firstY) / 4f, x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+
+        path.close();
+        return path;
+    }
+
+    @Override
+    public void paintCircle(
+            final int color,
+            final Texture texture,
+            float centerX,
+            float centerY,
+            float radius
+    ) {
+        mPaint.setColor(color);
+        final boolean hasCachedShadows = hasCachedShadows();
+        if (hasCachedShadows) {
+            drawCachedShadow(ShadowCache.KIND_CIRCLE, 0, 0f, centerX, centerY, radius);
+        }
+        mCanvas.drawCircle(centerX, centerY, radius, mPaint);
+
+        if (texture != Texture.NONE) {
+            setShader(texture);
+            if (hasCachedShadows) {
+                drawCachedShadow(ShadowCache.KIND_CIRCLE, 0, 0f, centerX, centerY, radius);
+            }
+            mCanvas.drawCircle(centerX, centerY, radius, mPaint);
+            clearShader();
+        }
+
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void paintRoundedSquare(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float width
+    ) {
+        mPaint.setColor(color);
+
+        final float cornerRadius = width / 5f;
+
+        final boolean hasCachedShadows = hasCachedShadows();
+        if (hasCachedShadows) {
+            drawCachedShadow(ShadowCache.KIND_ROUNDED_SQUARE, 0, 0f, centerX, centerY, width);
+        }
+        mCanvas.drawRoundRect(
+                centerX - width,
+                centerY - width,
+                centerX + width,
+                centerY + width,
+                cornerRadius,
+                cornerRadius,
+                mPaint
+        );
+
+        if (texture != Texture.NONE) {
+            setShader(texture);
+            if (hasCachedShadows) {
+                drawCachedShadow(ShadowCache.KIND_ROUNDED_SQUARE, 0, 0f, centerX, centerY, width);
+            }
+            mCanvas.drawRoundRect(
+                    centerX - width,
+                    centerY - width,
+                    centerX + width,
+                    centerY + width,
+                    cornerRadius,
+                    cornerRadius,
+                    mPaint
+            );
+            clearShader();
+        }
+
+    }
+
+    /**
+     * Alpha value of character that will be drawn on top of the picture
+     */
+    private static final char CHAR_ALPHA = 255;
+
+    @Override
+    public void paintChars(final String string, int color) {
+        if (string.length() == 0) return;
+
+        final long startTime = System.nanoTime();
+        final GlyphLayerCache.Layer layer = mGlyphLayerCache.getLayer(string, mImageSize);
+        if (layer == null) return;
+
+        mPaint.setColor(color);
+        mPaint.setAlpha(CHAR_ALPHA);
+
+        // Alpha bitmaps are painted in the colour of the Paint.
+        mCanvas.drawBitmap(layer.getMask(), layer.getLeft(), layer.getTop(), mPaint);
+        Metrics.GLYPH.recordSince(startTime);
+    }
+
+}
@@ -78,24 +78,125 @@ public class ColorCollection {
     };
 
     /**
-     * Goes through the candy palette c amount of times.
+     * Lookup tables of the candy palette
+     */
+    public static final Palette CANDY = new Palette("candy", PALETTE);
+
+    private static volatile Palette sPalette = CANDY;
+
+    /**
+     * Goes through the current palette c amount of times.
      * Capital and lower case letters get the same colours.
      *
      * @param c ASCII integer value of this character will be used as array index
-     * @return Color from the candy palette
+     * @return Color from the current palette, the candy palette by default
      */
     public static int getColor(char c) {
-        // If the given character is between lower case a and z,
-        // subtract the index difference to the upper case characters.
-        if (c >= 'a' && c <= 'z') c -= 32;
+        return sPalette.getColor(c);
+    }
+
+    /**
+     * Changes the colours of all following pictures
+     *
+     * @param palette New palette or null for the candy palette
+     */
+    public static void setPalette(final Palette palette) {
+        sPalette = palette == null ? CANDY : palette;
+    }
+
+    public static Palette getPalette() {
+        return sPalette;
+    }
 
-        final int index = c % (PALETTE.length - 1);
+    /**
+     * Reduces the HSV value of the given colour by 20%.
+     * Same result as Color.colorToHSV() and Color.HSVToColor(),
+     * which are native Skia functions and not available outside of Android.
+     *
+     * @param color Opaque ARGB colour
+     * @return Darker, opaque ARGB colour
+     */
+    public static int getDarkenedColor(final int color) {
+        final int red = (color >> 16) & 0xFF;
+        final int green = (color >> 8) & 0xFF;
+        final int blue = color & 0xFF;
+
+        // RGB to HSV, see SkRGBToHSV():
+        final int max = Math.max(red, Math.max(green, blue));
+        final int delta = max - Math.min(red, Math.min(green, blue));
+        final float value = (max / 255f) * 0.8f;
+
+        if (delta == 0) return toGray(value);
+
+        final float saturation = delta / (float) max;
+        float hue;
+        if (red == max) {
+            hue = (green - blue) / (float) delta;
+        } else if (green == max) {
+            hue = 2f + (blue - red) / (float) delta;
+        } else {
+            hue = 4f + (red - green) / (float) delta;
+        }
+        hue *= 60f;
+        if (hue < 0f) hue += 360f;
+
+        // HSV to RGB, see SkHSVToColor():
+        final int saturationByte = toUnitByte(saturation);
+        final int valueByte = toUnitByte(value);
+        if (saturationByte == 0) return toGray(value);
+
+        final int hueFixed = (hue < 0f || hue >= 360f) ? 0 : (int) ((hue / 60f) * 65536f);
+        final int fraction = hueFixed & 0xFFFF;
+        final int valueScale = valueByte + 1;
+        final int p = ((255 - saturationByte) * valueScale) >> 8;
+        final int q = ((255 - ((saturationByte * fraction) >> 16)) * valueScale) >> 8;
+        final int t = ((255 - ((saturationByte * (65536 - fraction)) >> 16)) * valueScale) >> 8;
 
-        if (c % 3 == 0) {
-            return ColorUtilities.getDarkenedColor(PALETTE[index]);
+        final int r;
+        final int g;
+        final int b;
+        switch (hueFixed >> 16) {
+            case 0:
+                r = valueByte;
+                g = t;
+                b = p;
+                break;
+            case 1:
+                r = q;
+                g = valueByte;
+                b = p;
+                break;
+            case 2:
+                r = p;
+                g = valueByte;
+                b = t;
+                break;
+            case 3:
+                r = p;
+                g = q;
+                b = valueByte;
+                break;
+            case 4:
+                r = t;
+                g = p;
+                b = valueByte;
+                break;
+            default:
+                r = valueByte;
+                g = p;
+                b = q;
+                break;
         }
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int toGray(final float value) {
+        final int valueByte = toUnitByte(value);
+        return 0xFF000000 | (valueByte << 16) | (valueByte << 8) | valueByte;
+    }
 
-        return PALETTE[index];
+    private static int toUnitByte(final float unitValue) {
+        return (int) (Math.max(0f, Math.min(1f, unitValue)) * 255f + 0.5f);
     }
 
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.Arrays;
+
+/**
+ * Average colour, luminance and a small palette of the dominant colours of a picture,
+ * all collected in one pass over its pixels.
+ * Bitmaps are read row by row into a reused buffer;
+ * recorded pictures are painted into a small framebuffer instead,
+ * so that their colours are known before the picture itself has been painted.
+ * Every thread has its own instance, so that the buffers are never shared;
+ * results are valid until the next measurement on the same thread.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class ColorStatistics {
+
+    /**
+     * Largest number of palette colours
+     */
+    public static final int PALETTE_SIZE = 4;
+
+    /**
+     * Only every n-th row of a Bitmap is read; rows are always read completely
+     */
+    private static final int ROW_STEP = 6;
+
+    /**
+     * Side length of the framebuffer that recorded pictures are measured in
+     */
+    private static final int RECORDING_SIZE = 64;
+
+    /**
+     * Palette buckets keep this many of the highest bits of every channel
+     */
+    private static final int BUCKET_BITS = 3;
+
+    private static final int BUCKET_COUNT = 1 << (BUCKET_BITS * 3);
+
+    private static final ThreadLocal<ColorStatistics> sInstances =
+            new ThreadLocal<ColorStatistics>() {
+                @Override
+                protected ColorStatistics initialValue() {
+                    return new ColorStatistics();
+                }
+            };
+
+    private int[] mRow = new int[0];
+
+    private int[] mFramebuffer;
+
+    private final int[] mBucketCounts = new int[BUCKET_COUNT];
+
+    /**
+     * Red, green and blue sums of every bucket, interleaved
+     */
+    private final long[] mBucketSums = new long[BUCKET_COUNT * 3];
+
+    private long mRedSum;
+
+    private long mGreenSum;
+
+    private long mBlueSum;
+
+    private int mPixelCount;
+
+    private int mAverageColor = Color.BLACK;
+
+    private final int[] mPaletteColors = new int[PALETTE_SIZE];
+
+    private final float[] mPaletteShares = new float[PALETTE_SIZE];
+
+    private int mPaletteSize;
+
+    private ColorStatistics() {
+    }
+
+    /**
+     * @return Instance of the calling thread
+     */
+    public static ColorStatistics getInstance() {
+        return sInstances.get();
+    }
+
+    /**
+     * Reads every ROW_STEP-th row of the Bitmap; a null Bitmap measures as black
+     *
+     * @return This instance
+     */
+    public ColorStatistics measure(final Bitmap bitmap) {
+        reset();
+        if (bitmap == null) {
+            finish();
+            return this;
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (mRow.length < width) mRow = new int[width];
+
+        for (int y = 0; y < height; y += ROW_STEP) {
+            bitmap.getPixels(mRow, 0, width, 0, y, width, 1);
+            addPixels(mRow, 0, width);
+        }
+
+        finish();
+        return this;
+    }
+
+    /**
+     * Paints a recorded picture at a small size and measures that,
+     * e.g. to colour the screen before the picture has been painted.
+     * The result matches the painted picture closely, but not exactly.
+     *
+     * @return This instance
+     */
+    public ColorStatistics measure(final Context context, final DisplayList displayList) {
+        if (mFramebuffer == null) mFramebuffer = new int[RECORDING_SIZE * RECORDING_SIZE];
+        else Arrays.fill(mFramebuffer, 0);
+
+        final RasterPainter painter = new RasterPainter(
+                mFramebuffer,
+                RECORDING_SIZE,
+                RasterPainter.PixelOrder.ARGB,
+                TextureCache.getInstance(context),
+                new CanvasGlyphRasterizer(context)
+        );
+        painter.setShadowQuality(ImageFactory.getShadowQuality());
+        displayList.replay(painter);
+
+        reset();
+        addPixels(mFramebuffer, 0, mFramebuffer.length);
+        finish();
+        return this;
+    }
+
+    /**
+     * @return Opaque average colour of the last measurement
+     */
+    public int getAverageColor() {
+        return mAverageColor;
+    }
+
+    /**
+     * @return Average luminance of the last measurement, from 0 to 1
+     */
+    public float getLuminance() {
+        return getLuminance(mAverageColor);
+    }
+
+    /**
+     * @return Number of palette colours of the last measurement, at most PALETTE_SIZE
+     */
+    public int getPaletteSize() {
+        return mPaletteSize;
+    }
+
+    /**
+     * @param index 0 for the most frequent colour
+     * @return Opaque average colour of all pixels that belong to this palette entry
+     */
+    public int getPaletteColor(final int index) {
+        return mPaletteColors[index];
+    }
+
+    /**
+     * @return Share of all measured pixels that belong to this palette entry, from 0 to 1
+     */
+    public float getPaletteShare(final int index) {
+        return mPaletteShares[index];
+    }
+
+    /**
+     * Rec. 709 luma of the channel values;
+     * as it is linear, the luminance of the average colour is also the average luminance
+     *
+     * @param color Opaque ARGB colour
+     * @return Luminance from 0 to 1
+     */
+    public static float getLuminance(final int color) {
+        return (0.2126f * ((color >> 16) & 0xFF)
+                + 0.7152f * ((color >> 8) & 0xFF)
+                + 0.0722f * (color & 0xFF)) / 255f;
+    }
+
+    private void reset() {
+        mRedSum = 0L;
+        mGreenSum = 0L;
+        mBlueSum = 0L;
+        mPixelCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) mBucketCounts[i] = 0;
+        for (int i = 0; i < mBucketSums.length; i++) mBucketSums[i] = 0L;
+    }
+
+    /**
+     * @param pixels 0xAARRGGBB pixels; the alpha channel is ignored
+     */
+    private void addPixels(final int[] pixels, final int offset, final int count) {
+        final int shift = 8 - BUCKET_BITS;
+        final int mask = (1 << BUCKET_BITS) - 1;
+
+        for (int i = offset; i < offset + count; i++) {
+            final int pixel = pixels[i];
+            final int red = (pixel >> 16) & 0xFF;
+            final int green = (pixel >> 8) & 0xFF;
+            final int blue = pixel & 0xFF;
+
+            mRedSum += red;
+            mGreenSum += green;
+            mBlueSum += blue;
+
+            final int bucket = ((red >> shift) << (BUCKET_BITS * 2))
+                    | (((green >> shift) & mask) << BUCKET_BITS)
+                    | ((blue >> shift) & mask);
+            mBucketCounts[bucket]++;
+            mBucketSums[bucket * 3] += red;
+            mBucketSums[bucket * 3 + 1] += green;
+            mBucketSums[bucket * 3 + 2] += blue;
+        }
+        mPixelCount += count;
+    }
+
+    /**
+     * Calculates the average colour and picks the most frequent buckets as palette
+     */
+    private void finish() {
+        mPaletteSize = 0;
+        if (mPixelCount == 0) {
+            mAverageColor = Color.BLACK;
+            return;
+        }
+
+        mAverageColor = Color.rgb(
+                (int) (mRedSum / mPixelCount),
+                (int) (mGreenSum / mPixelCount),
+                (int) (mBlueSum / mPixelCount)
+        );
+
+        int previousCount = Integer.MAX_VALUE;
+        int previousBucket = -1;
+        while (mPaletteSize < PALETTE_SIZE) {
+            // Buckets are ordered by count and then by index, so that ties are stable.
+            int bestBucket = -1;
+            int bestCount = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                final int count = mBucketCounts[bucket];
+                final boolean isAfterPrevious = count < previousCount
+                        || (count == previousCount && bucket > previousBucket);
+                if (isAfterPrevious && count > bestCount) {
+                    bestBucket = bucket;
+                    bestCount = count;
+                }
+            }
+            if (bestBucket < 0) return;
+
+            mPaletteColors[mPaletteSize] = Color.rgb(
+                    (int) (mBucketSums[bestBucket * 3] / bestCount),
+                    (int) (mBucketSums[bestBucket * 3 + 1] / bestCount),
+                    (int) (mBucketSums[bestBucket * 3 + 2] / bestCount)
+            );
+            mPaletteShares[mPaletteSize] = bestCount / (float) mPixelCount;
+            mPaletteSize++;
+
+            previousCount = bestCount;
+            previousBucket = bestBucket;
+        }
+    }
+}
@@ -27,11 +27,10 @@ import android.util.Log;
  */
 public class ColorUtilities {
 
-    private static final int STEP_SIZE_PIXEL = 6;
-
     /**
      * @param bitmap Bitmap that will be processed
      * @return The average color of the input bitmap
+     * @see ColorStatistics
      */
     public static int getAverageColor(Bitmap bitmap) {
         if (bitmap == null) {
@@ -39,38 +38,10 @@ public class ColorUtilities {
             return Color.BLACK;
         }
 
-        int redBucket = 0;
-        int greenBucket = 0;
-        int blueBucket = 0;
-
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        int pixelCount = 0;
-        int c = 0;
-
-        for (int y = 0; y < height; y += STEP_SIZE_PIXEL) {
-            for (int x = 0; x < width; x += STEP_SIZE_PIXEL) {
-                c = bitmap.getPixel(x, y);
-
-                redBucket += Color.red(c);
-                greenBucket += Color.green(c);
-                blueBucket += Color.blue(c);
-                pixelCount++;
-            }
-            redBucket += Color.red(c);
-        }
-
-        return Color.rgb(
-                redBucket / pixelCount,
-                greenBucket / pixelCount,
-                blueBucket / pixelCount
-        );
+        return ColorStatistics.getInstance().measure(bitmap).getAverageColor();
     }
 
     public static int getDarkenedColor(int color) {
-        float[] hsv = new float[3];
-        Color.colorToHSV(color, hsv);
-        hsv[2] *= 0.8f;
-        return Color.HSVToColor(hsv);
+        return ColorCollection.getDarkenedColor(color);
     }
 }
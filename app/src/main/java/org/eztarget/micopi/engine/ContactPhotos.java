@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.graphics.Bitmap;
+
+/**
+ * Both pictures that the contacts provider stores for one contact,
+ * each painted at its own resolution from the same recording.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class ContactPhotos {
+
+    private final BitmapPool mBitmapPool;
+
+    private final Bitmap mThumbnail;
+
+    private final Bitmap mDisplayPhoto;
+
+    ContactPhotos(final BitmapPool bitmapPool, final Bitmap thumbnail, final Bitmap displayPhoto) {
+        mBitmapPool = bitmapPool;
+        mThumbnail = thumbnail;
+        mDisplayPhoto = displayPhoto;
+    }
+
+    /**
+     * @return Small picture for the PHOTO column of the data table
+     */
+    public Bitmap getThumbnail() {
+        return mThumbnail;
+    }
+
+    /**
+     * @return Full-size picture for the display photo file
+     */
+    public Bitmap getDisplayPhoto() {
+        return mDisplayPhoto;
+    }
+
+    /**
+     * Returns both pictures to the BitmapPool; they cannot be used afterwards
+     */
+    public void release() {
+        mBitmapPool.release(mThumbnail);
+        mBitmapPool.release(mDisplayPhoto);
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.util.Arrays;
+
+/**
+ * Compact recording of all Painter calls that make up one picture.
+ * Every operation is a single packed header int, followed by its coordinates in a float array;
+ * colours and strings are stored once in small tables.
+ * A DisplayList can be replayed into any Painter at any size;
+ * all coordinates are scaled from the recorded image size to the size of the target.
+ * <p/>
+ * Header layout, from the lowest bit:
+ * 4 bits operation, 2 bits texture, 1 bit curved edge, 8 bits alpha, 8 bits number of edges,
+ * 9 bits colour index.
+ * Batches of squares store their size and one packed style int per square in a separate array:
+ * 2 bits texture, 8 bits alpha, 9 bits colour index.
+ * Batches whose squares are cells of one grid that starts at the top left corner,
+ * like the ones of the PixelGenerator, only store the cell size instead of four coordinates
+ * per square; their style ints also hold 6 bits column and 6 bits row.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class DisplayList {
+
+    static final int OP_BACKGROUND = 0;
+
+    static final int OP_ENABLE_SHADOWS = 1;
+
+    static final int OP_SHADOW_LAYER = 2;
+
+    static final int OP_DISABLE_SHADOWS = 3;
+
+    static final int OP_SQUARE = 4;
+
+    static final int OP_POLYGON = 5;
+
+    static final int OP_CIRCLE = 6;
+
+    static final int OP_ROUNDED_SQUARE = 7;
+
+    static final int OP_CHARS = 8;
+
+    static final int OP_SQUARES = 9;
+
+    static final int OP_SQUARE_GRID = 10;
+
+    /**
+     * Largest column and row of a square grid
+     */
+    static final int MAX_GRID_CELL = 0x3F;
+
+    private static final int MAX_COLORS = 1 << 9;
+
+    private static final Painter.Texture[] TEXTURES = Painter.Texture.values();
+
+    private final int mImageSize;
+
+    private int[] mOps = new int[16];
+
+    private int mOpCount;
+
+    private float[] mFloats = new float[32];
+
+    private int mFloatCount;
+
+    private int[] mInts = new int[0];
+
+    private int mIntCount;
+
+    private int[] mColors = new int[8];
+
+    private int mColorCount;
+
+    private String[] mStrings = new String[1];
+
+    private int mStringCount;
+
+    /**
+     * @param imageSize Side length of the canvas that the operations are recorded for
+     */
+    DisplayList(final int imageSize) {
+        mImageSize = imageSize;
+    }
+
+    /**
+     * @return Side length of the canvas that the operations were recorded for
+     */
+    public int getImageSize() {
+        return mImageSize;
+    }
+
+    /**
+     * @return Number of recorded Painter calls
+     */
+    public int getOperationCount() {
+        return mOpCount;
+    }
+
+    /**
+     * @return Approximate size of the recorded data, without unused array capacity
+     */
+    public int getByteCount() {
+        int stringBytes = 0;
+        for (int i = 0; i < mStringCount; i++) stringBytes += mStrings[i].length() * 2;
+        return (mOpCount + mFloatCount + mIntCount + mColorCount) * 4 + stringBytes;
+    }
+
+    /**
+     * Paints all recorded operations into the given Painter,
+     * scaled to its image size;
+     * stops early when the calling thread is interrupted, e.g. by a cancelled AsyncTask
+     */
+    public void replay(final Painter painter) {
+        final float scale = painter.getImageSize() / (float) mImageSize;
+        int floatIndex = 0;
+        int intIndex = 0;
+
+        // Buffers for batches of squares; allocated once per replay.
+        float[] rects = null;
+        int[] colors = null;
+        byte[] alphas = null;
+        byte[] textures = null;
+
+        for (int i = 0; i < mOpCount; i++) {
+            if (Thread.currentThread().isInterrupted()) return;
+
+            final int header = mOps[i];
+            final int color = mColors[header >>> 23];
+            final Painter.Texture texture = TEXTURES[(header >> 4) & 0x3];
+            final boolean isCurved = ((header >> 6) & 0x1) != 0;
+            final int alpha = (header >> 7) & 0xFF;
+            final int numberOfEdges = (header >> 15) & 0xFF;
+
+            switch (header & 0xF) {
+                case OP_BACKGROUND:
+                    painter.paintBackground(color);
+                    break;
+
+                case OP_ENABLE_SHADOWS:
+                    painter.enableShadows();
+                    break;
+
+                case OP_SHADOW_LAYER:
+                    // Shadow dimensions are relative to the image size already.
+                    painter.setShadowLayer(
+                            mFloats[floatIndex++],
+                            mFloats[floatIndex++],
+                            mFloats[floatIndex++]
+                    );
+                    break;
+
+                case OP_DISABLE_SHADOWS:
+                    painter.disableShadows();
+                    break;
+
+                case OP_SQUARE:
+                    // Squares are positioned in multiples of their size.
+                    painter.paintSquare(
+                            color,
+                            texture,
+                            alpha,
+                            mFloats[floatIndex++],
+                            mFloats[floatIndex++],
+                            mFloats[floatIndex++] * scale
+                    );
+                    break;
+
+                case OP_POLYGON:
+                    painter.paintPolygon(
+                            color,
+                            texture,
+                            mFloats[floatIndex++],
+                            numberOfEdges,
+                            isCurved,
+                            mFloats[floatIndex++] * scale,
+                            mFloats[floatIndex++] * scale,
+                            mFloats[floatIndex++] * scale
+                    );
+                    break;
+
+                case OP_CIRCLE:
+                    painter.paintCircle(
+                            color,
+                            texture,
+                            mFloats[floatIndex++] * scale,
+                            mFloats[floatIndex++] * scale,
+                            mFloats[floatIndex++] * scale
+                    );
+                    break;
+
+                case OP_ROUNDED_SQUARE:
+                    final float centerX = mFloats[floatIndex++] * scale;
+                    final float centerY = mFloats[floatIndex++] * scale;
+                    final float width = mFloats[floatIndex++] * scale;
+                    if (painter.canPaintRoundedSquares()) {
+                        painter.paintRoundedSquare(color, texture, centerX, centerY, width);
+                    } else {
+                        // Closest shape on targets without rounded squares:
+                        // a polygon with 4 edges and the same bounds.
+                        painter.paintPolygon(
+                                color,
+                                texture,
+                                Painter.TWO_PI / 8f,
+                                4,
+                                false,
+                                centerX,
+                                centerY,
+                                width * (float) Math.sqrt(2.0)
+                        );
+                    }
+                    break;
+
+                case OP_CHARS:
+                    painter.paintChars(mStrings[numberOfEdges], color);
+                    break;
+
+                case OP_SQUARES:
+                case OP_SQUARE_GRID:
+                    final boolean isGrid = (header & 0xF) == OP_SQUARE_GRID;
+                    final float cellSize = isGrid ? mFloats[floatIndex++] : 0f;
+                    final int count = mInts[intIndex++];
+                    if (rects == null || colors.length < count) {
+                        rects = new float[count * 4];
+                        colors = new int[count];
+                        alphas = new byte[count];
+                        textures = new byte[count];
+                    }
+
+                    for (int square = 0; square < count; square++) {
+                        final int style = mInts[intIndex++];
+                        textures[square] = (byte) (style & 0x3);
+                        alphas[square] = (byte) (style >> 2);
+                        colors[square] = mColors[(style >>> 10) & (MAX_COLORS - 1)];
+
+                        if (isGrid) {
+                            // The same calculation as the generator, so the squares match exactly.
+                            final float left = ((style >>> 19) & MAX_GRID_CELL) * cellSize;
+                            final float top = ((style >>> 25) & MAX_GRID_CELL) * cellSize;
+                            final int rectOffset = square * 4;
+                            rects[rectOffset] = left * scale;
+                            rects[rectOffset + 1] = top * scale;
+                            rects[rectOffset + 2] = (left + cellSize) * scale;
+                            rects[rectOffset + 3] = (top + cellSize) * scale;
+                        }
+                    }
+                    if (!isGrid) {
+                        for (int coordinate = 0; coordinate < count * 4; coordinate++) {
+                            rects[coordinate] = mFloats[floatIndex++] * scale;
+                        }
+                    }
+
+                    painter.paintSquares(rects, colors, alphas, textures, count);
+                    break;
+            }
+        }
+    }
+
+    /*
+    Recording
+     */
+
+    void add(
+            final int operation,
+            final int color,
+            final Painter.Texture texture,
+            final int alpha,
+            final int numberOfEdges,
+            final boolean isCurved
+    ) {
+        if (numberOfEdges < 0 || numberOfEdges > 0xFF) {
+            throw new IllegalArgumentException("Cannot record " + numberOfEdges + " edges.");
+        }
+
+        if (mOpCount == mOps.length) mOps = Arrays.copyOf(mOps, mOpCount * 2);
+        mOps[mOpCount++] = operation
+                | (texture.ordinal() << 4)
+                | ((isCurved ? 1 : 0) << 6)
+                | ((alpha & 0xFF) << 7)
+                | (numberOfEdges << 15)
+                | (getColorIndex(color) << 23);
+    }
+
+    void add(final int operation, final int color) {
+        add(operation, color, Painter.Texture.NONE, 0xFF, 0, false);
+    }
+
+    void addFloat(final float value) {
+        if (mFloatCount == mFloats.length) mFloats = Arrays.copyOf(mFloats, mFloatCount * 2);
+        mFloats[mFloatCount++] = value;
+    }
+
+    /**
+     * Records the style of one square of a batch; the batch size has to be added before
+     */
+    void addSquareStyle(final int color, final int alpha, final int texture) {
+        addInt((getColorIndex(color) << 10) | ((alpha & 0xFF) << 2) | (texture & 0x3));
+    }
+
+    /**
+     * Records the style and the cell of one square of a grid;
+     * the cell size and the batch size have to be added before
+     *
+     * @param column 0 to MAX_GRID_CELL
+     * @param row    0 to MAX_GRID_CELL
+     */
+    void addGridSquareStyle(
+            final int color,
+            final int alpha,
+            final int texture,
+            final int column,
+            final int row
+    ) {
+        addInt((row << 25)
+                | (column << 19)
+                | (getColorIndex(color) << 10)
+                | ((alpha & 0xFF) << 2)
+                | (texture & 0x3));
+    }
+
+    void addInt(final int value) {
+        if (mIntCount == mInts.length) mInts = Arrays.copyOf(mInts, Math.max(16, mIntCount * 2));
+        mInts[mIntCount++] = value;
+    }
+
+    /**
+     * @return Index of the stored String; fits into the edges field of a header
+     */
+    int addString(final String string) {
+        for (int i = 0; i < mStringCount; i++) {
+            if (mStrings[i].equals(string)) return i;
+        }
+        if (mStringCount == mStrings.length) {
+            mStrings = Arrays.copyOf(mStrings, mStringCount * 2);
+        }
+        mStrings[mStringCount] = string;
+        return mStringCount++;
+    }
+
+    /**
+     * Shrinks all arrays to the recorded data
+     */
+    void trimToSize() {
+        mOps = Arrays.copyOf(mOps, mOpCount);
+        mFloats = Arrays.copyOf(mFloats, mFloatCount);
+        mInts = Arrays.copyOf(mInts, mIntCount);
+        mColors = Arrays.copyOf(mColors, mColorCount);
+        mStrings = Arrays.copyOf(mStrings, mStringCount);
+    }
+
+    private int getColorIndex(final int color) {
+        for (int i = 0; i < mColorCount; i++) {
+            if (mColors[i] == color) return i;
+        }
+
+        if (mColorCount == MAX_COLORS) {
+            throw new IllegalStateException("Cannot record more than " + MAX_COLORS + " colours.");
+        }
+        if (mColorCount == mColors.length) mColors = Arrays.copyOf(mColors, mColorCount * 2);
+        mColors[mColorCount] = color;
+        return mColorCount++;
+    }
+}
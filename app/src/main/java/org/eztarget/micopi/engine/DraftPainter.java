@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Passes all shapes on to another Painter but drops their shadows,
+ * which are by far the most expensive part of a picture.
+ * Used for quick, small previews of a DisplayList.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+class DraftPainter implements Painter {
+
+    private final Painter mPainter;
+
+    DraftPainter(final Painter painter) {
+        mPainter = painter;
+    }
+
+    @Override
+    public int getImageSize() {
+        return mPainter.getImageSize();
+    }
+
+    @Override
+    public boolean canPaintRoundedSquares() {
+        return mPainter.canPaintRoundedSquares();
+    }
+
+    @Override
+    public void paintBackground(final int color) {
+        mPainter.paintBackground(color);
+    }
+
+    @Override
+    public void enableShadows() {
+    }
+
+    @Override
+    public void setShadowLayer(
+            final float radiusScale,
+            final float offsetFactorX,
+            final float offsetFactorY
+    ) {
+    }
+
+    @Override
+    public void disableShadows() {
+    }
+
+    @Override
+    public void paintSquare(
+            final int color,
+            final Texture texture,
+            final int alpha,
+            final float x,
+            final float y,
+            final float size
+    ) {
+        mPainter.paintSquare(color, texture, alpha, x, y, size);
+    }
+
+    @Override
+    public void paintSquares(
+            final float[] rects,
+            final int[] colors,
+            final byte[] alphas,
+            final byte[] textures,
+            final int count
+    ) {
+        mPainter.paintSquares(rects, colors, alphas, textures, count);
+    }
+
+    @Override
+    public void paintPolygon(
+            final int color,
+            final Texture texture,
+            final float angleOffset,
+            final int numberOfEdges,
+            final boolean hasCurvedEdge,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        mPainter.paintPolygon(
+                color,
+                texture,
+                angleOffset,
+                numberOfEdges,
+                hasCurvedEdge,
+                centerX,
+                centerY,
+                radius
+        );
+    }
+
+    @Override
+    public void paintCircle(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        mPainter.paintCircle(color, texture, centerX, centerY, radius);
+    }
+
+    @Override
+    public void paintRoundedSquare(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float width
+    ) {
+        mPainter.paintRoundedSquare(color, texture, centerX, centerY, width);
+    }
+
+    @Override
+    public void paintChars(final String string, final int color) {
+        mPainter.paintChars(string, color);
+    }
+}
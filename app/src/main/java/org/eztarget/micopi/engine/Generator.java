@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Pattern of a picture between the background and the initials.
+ * Generators are stateless and shared; they are chosen through the GeneratorRegistry.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public interface Generator {
+
+    /**
+     * Additional cost of a shape with a shadow, relative to the shape itself
+     */
+    float SHADOW_WEIGHT = 1.5f;
+
+    /**
+     * Additional cost of a textured shape, relative to the shape itself
+     */
+    float TEXTURE_WEIGHT = 0.5f;
+
+    /**
+     * Paints the pattern; only reads the seed
+     *
+     * @param firstNameWord First word of the name of the contact
+     */
+    void paint(Painter painter, Seed seed, String firstNameWord);
+
+    /**
+     * Estimates the painting work of paint() from the seed alone,
+     * without calculating any geometry beyond the sizes of the shapes.
+     * The unit is one canvas fill: the area of all shapes divided by the canvas area,
+     * weighted with SHADOW_WEIGHT and TEXTURE_WEIGHT; the cost of a picture grows roughly
+     * with this value times its number of pixels.
+     */
+    float estimateCost(Seed seed, String firstNameWord, int imageSize);
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Chooses the Generator of a picture from its seed.
+ * The fourth symbol of the seed selects one of SLOT_COUNT slots;
+ * by default one slot paints pixels and all others paint plates, like all earlier versions.
+ * Assigning other Generators to slots changes existing pictures,
+ * so ImageFactory.ENGINE_VERSION has to be increased with it.
+ * Every Generator has a Metrics histogram named after its class.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class GeneratorRegistry {
+
+    public static final int SLOT_COUNT = 4;
+
+    /**
+     * Seed symbol that selects the slot
+     */
+    private static final int SLOT_SYMBOL = 3;
+
+    /**
+     * Cost of the background, which fills the canvas once
+     */
+    private static final float BACKGROUND_COST = 1f;
+
+    public static final Generator PLATES = new PlatesGenerator();
+
+    public static final Generator PIXELS = new PixelGenerator();
+
+    /**
+     * Replaced as a whole, so that readers never need a lock
+     */
+    private static volatile Slot[] sSlots;
+
+    static {
+        final Slot plates = new Slot(PLATES);
+        sSlots = new Slot[]{plates, new Slot(PIXELS), plates, plates};
+    }
+
+    private GeneratorRegistry() {
+    }
+
+    /**
+     * Generator of a slot together with its durations
+     */
+    private static class Slot {
+
+        private final Generator mGenerator;
+
+        private final Metrics.Histogram mHistogram;
+
+        Slot(final Generator generator) {
+            mGenerator = generator;
+            mHistogram = Metrics.histogram("generator." + generator.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Assigns a Generator to slots; see the class description
+     *
+     * @param slots Numbers from 0 to SLOT_COUNT - 1
+     */
+    public static synchronized void register(final Generator generator, final int... slots) {
+        if (generator == null) throw new IllegalArgumentException("Generator is null.");
+
+        final Slot newSlot = new Slot(generator);
+        final Slot[] newSlots = sSlots.clone();
+        for (final int slot : slots) {
+            if (slot < 0 || slot >= SLOT_COUNT) {
+                throw new IllegalArgumentException("Invalid generator slot: " + slot);
+            }
+            newSlots[slot] = newSlot;
+        }
+        sSlots = newSlots;
+    }
+
+    /**
+     * @return Generator that paints the pattern of the seed
+     */
+    public static Generator select(final Seed seed) {
+        return getSlot(seed).mGenerator;
+    }
+
+    /**
+     * Paints the pattern of the seed with the selected Generator and records the duration;
+     * recording painters make this the time of the generator alone
+     */
+    public static void paint(final Painter painter, final Seed seed, final String firstNameWord) {
+        final Slot slot = getSlot(seed);
+        final long startTime = System.nanoTime();
+        slot.mGenerator.paint(painter, seed, firstNameWord);
+        slot.mHistogram.recordSince(startTime);
+    }
+
+    private static Slot getSlot(final Seed seed) {
+        return sSlots[seed.getSymbol(SLOT_SYMBOL) % SLOT_COUNT];
+    }
+
+    /**
+     * Estimates the painting work of a whole picture, e.g. to schedule a batch;
+     * takes about as long as deriving the seed
+     *
+     * @return Cost in canvas fills, see Generator.estimateCost()
+     */
+    public static float estimateCost(
+            final Seed seed,
+            final String firstNameWord,
+            final int imageSize
+    ) {
+        return BACKGROUND_COST + select(seed).estimateCost(seed, firstNameWord, imageSize);
+    }
+}
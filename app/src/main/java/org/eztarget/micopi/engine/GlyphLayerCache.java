@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of rasterised initials.
+ * Every layer is an ALPHA_8 Bitmap that only covers the bounds of the characters;
+ * it is painted in the colour of the Paint that draws it,
+ * so one layer serves all colours of the same characters and image size.
+ * Retries and batch runs of contacts with the same initials only composite the cached layer.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class GlyphLayerCache implements ComponentCallbacks2 {
+
+    private static final String TAG = GlyphLayerCache.class.getSimpleName();
+
+    private static final int BUDGET_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Anti-aliased edges may reach slightly beyond the measured text bounds
+     */
+    private static final int PADDING = 2;
+
+    private static GlyphLayerCache sInstance;
+
+    private final LruCache<String, Layer> mLayers =
+            new LruCache<String, Layer>(BUDGET_BYTES) {
+                @Override
+                protected int sizeOf(String key, Layer value) {
+                    return value.getMask().getByteCount();
+                }
+            };
+
+    /**
+     * Rasterising Paint; only used while holding its lock
+     */
+    private final Paint mPaint = new Paint();
+
+    private final Rect mBounds = new Rect();
+
+    private GlyphLayerCache() {
+        mPaint.setAntiAlias(true);
+        mPaint.setColor(Color.WHITE);
+        mPaint.setTypeface(Typeface.create("sans-serif", Typeface.NORMAL));
+
+        // Centring is done manually, so that the measured bounds are relative to the origin.
+        mPaint.setTextAlign(Paint.Align.LEFT);
+    }
+
+    /**
+     * @param context Any Context; only the Application Context is used for memory callbacks
+     * @return The process-wide instance
+     */
+    public static synchronized GlyphLayerCache getInstance(final Context context) {
+        if (sInstance == null) {
+            sInstance = new GlyphLayerCache();
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Coverage of characters at their position on the canvas
+     */
+    public static class Layer {
+
+        private final Bitmap mMask;
+
+        private final int mLeft;
+
+        private final int mTop;
+
+        Layer(final Bitmap mask, final int left, final int top) {
+            mMask = mask;
+            mLeft = left;
+            mTop = top;
+        }
+
+        /**
+         * @return Shared ALPHA_8 Bitmap that must not be modified or recycled
+         */
+        public Bitmap getMask() {
+            return mMask;
+        }
+
+        /**
+         * @return Horizontal canvas position of the mask
+         */
+        public int getLeft() {
+            return mLeft;
+        }
+
+        /**
+         * @return Vertical canvas position of the mask
+         */
+        public int getTop() {
+            return mTop;
+        }
+    }
+
+    /**
+     * @param string    Characters to draw; only the first GlyphRasterizer.MAX_CHARS are used
+     * @param imageSize Side length of the canvas
+     * @return Layer or null, if the characters do not cover any pixels
+     */
+    public Layer getLayer(final String string, final int imageSize) {
+        final String key = string + ':' + imageSize;
+
+        final Layer cachedLayer = mLayers.get(key);
+        if (cachedLayer != null) return cachedLayer;
+
+        synchronized (mPaint) {
+            final Layer layer = mLayers.get(key);
+            if (layer != null) return layer;
+
+            final Layer newLayer = createLayer(string, imageSize);
+            if (newLayer != null) mLayers.put(key, newLayer);
+            return newLayer;
+        }
+    }
+
+    /**
+     * Lays out the characters like they have always been drawn:
+     * horizontally centred and vertically centred on the height of the first character
+     */
+    private Layer createLayer(final String string, final int imageSize) {
+        final int count = Math.min(string.length(), GlyphRasterizer.MAX_CHARS);
+        if (count == 0) return null;
+        final String chars = string.substring(0, count);
+
+        mPaint.setTextSize((66f / (float) Math.sqrt(string.length())) * (imageSize / 100f));
+
+        final float imageSizeHalf = imageSize * 0.5f;
+
+        mPaint.getTextBounds(string, 0, 1, mBounds);
+        final float baseline = imageSizeHalf + (mBounds.bottom - mBounds.top) * 0.5f;
+        final float originX = imageSizeHalf - mPaint.measureText(chars) * 0.5f;
+
+        mPaint.getTextBounds(chars, 0, count, mBounds);
+        final int left = Math.max(0, (int) Math.floor(originX + mBounds.left) - PADDING);
+        final int top = Math.max(0, (int) Math.floor(baseline + mBounds.top) - PADDING);
+        final int right =
+                Math.min(imageSize, (int) Math.ceil(originX + mBounds.right) + PADDING);
+        final int bottom =
+                Math.min(imageSize, (int) Math.ceil(baseline + mBounds.bottom) + PADDING);
+        if (right <= left || bottom <= top) return null;
+
+        // Rows of ALPHA_8 Bitmaps with a width that is a multiple of 4 are never padded.
+        final int width = (right - left + 3) & ~3;
+        final Bitmap mask = Bitmap.createBitmap(width, bottom - top, Bitmap.Config.ALPHA_8);
+        new Canvas(mask).drawText(chars, 0, count, originX - left, baseline - top, mPaint);
+
+        return new Layer(mask, left, top);
+    }
+
+    /**
+     * Drops all layers; they will be rasterised again on the next request
+     */
+    public void release() {
+        Log.d(TAG, "Releasing " + mLayers.size() + " bytes of glyph layers.");
+        mLayers.evictAll();
+    }
+
+    /*
+    COMPONENT CALLBACKS
+     */
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            release();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        release();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
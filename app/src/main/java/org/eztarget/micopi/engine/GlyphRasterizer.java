@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Renders text coverage for RasterPainter.paintChars();
+ * font rendering is platform specific, so the raster backend itself does not contain any.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public interface GlyphRasterizer {
+
+    /**
+     * Maximum number of characters that Painter.paintChars() draws
+     */
+    int MAX_CHARS = 4;
+
+    /**
+     * Writes the coverage of the given characters into a mask,
+     * laid out exactly like CanvasPainter.paintChars() would draw them.
+     *
+     * @param string    Up to 4 characters
+     * @param imageSize Side length of the canvas
+     * @param coverage  Row-major mask of imageSize * imageSize bytes; 0 is empty, 0xFF is covered
+     */
+    void rasterize(String string, int imageSize, byte[] coverage);
+}
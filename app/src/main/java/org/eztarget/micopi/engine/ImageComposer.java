@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Platform-independent layer order of a contact picture:
+ * background colour, generated pattern and initial letter.
+ * Used by the ImageFactory on Android and directly by JVM callers.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class ImageComposer {
+
+    private static final int CHAR_COLOR = 0xFFFFFFFF;
+
+    private final String mFullName;
+
+    private final String mFirstNameWord;
+
+    private final Seed mSeed;
+
+    private int mNumberOfInitials = 1;
+
+    /**
+     * @param fullName      Name of the contact; at least one character long
+     * @param firstNameWord First word of the name; determines the polygon edges of plates
+     * @param seed          Seed of the contact; only read while painting
+     */
+    public ImageComposer(
+            final String fullName,
+            final String firstNameWord,
+            final Seed seed
+    ) {
+        mFullName = fullName;
+        mFirstNameWord = firstNameWord;
+        mSeed = seed;
+    }
+
+    /**
+     * @param md5String Hash string of the contact, see Seed.fromHashString()
+     */
+    public ImageComposer(
+            final String fullName,
+            final String firstNameWord,
+            final String md5String
+    ) {
+        this(fullName, firstNameWord, Seed.fromHashString(md5String));
+    }
+
+    /**
+     * @param numberOfInitials Number of name words, 1 to 4, whose first letters are drawn;
+     *                         1 draws the first character of the name
+     */
+    public void setNumberOfInitials(final int numberOfInitials) {
+        mNumberOfInitials = Math.max(1, Math.min(numberOfInitials, GlyphRasterizer.MAX_CHARS));
+    }
+
+    /**
+     * Paints all layers
+     */
+    public void paint(final Painter painter) {
+        paintBackground(painter);
+        paintPattern(painter);
+        painter.disableShadows();
+        paintInitials(painter);
+    }
+
+    /**
+     * Fills the background with the color for the first letter of the name
+     */
+    public void paintBackground(final Painter painter) {
+        painter.paintBackground(ColorCollection.getColor(getFirstChar()));
+    }
+
+    public void paintPattern(final Painter painter) {
+        GeneratorRegistry.paint(painter, mSeed, mFirstNameWord);
+    }
+
+    public void paintInitials(final Painter painter) {
+        painter.paintChars(getInitials(), CHAR_COLOR);
+    }
+
+    /**
+     * @return Upper case first letters of the first name words
+     */
+    String getInitials() {
+        if (mNumberOfInitials == 1) return String.valueOf(getFirstChar()).toUpperCase();
+
+        final StringBuilder initials = new StringBuilder(mNumberOfInitials);
+        for (final String word : mFullName.split(" ")) {
+            if (word.length() == 0) continue;
+            initials.append(word.charAt(0));
+            if (initials.length() == mNumberOfInitials) break;
+        }
+        if (initials.length() == 0) initials.append(getFirstChar());
+        return initials.toString().toUpperCase();
+    }
+
+    private char getFirstChar() {
+        return mFullName.charAt(0);
+    }
+}
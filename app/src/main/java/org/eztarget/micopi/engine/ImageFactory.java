@@ -17,17 +17,17 @@
 package org.eztarget.micopi.engine;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
+import android.os.Build;
 import android.util.Log;
+import android.util.LruCache;
 
 import org.eztarget.micopi.Contact;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.IntBuffer;
 
 /**
  * Utility class that generates a seemingly random image out of given contact values, such as the
@@ -43,13 +43,88 @@ public class ImageFactory {
 
     private static final boolean BENCHMARK = false;
 
-    private Contact mContact;
+    /**
+     * Side length of the small contact photo that is stored in the data table
+     */
+    public static final int THUMBNAIL_SIZE = 256;
 
-    private int mImageSize;
+    /**
+     * Side length of quick previews, see draftBitmapFrom()
+     */
+    public static final int DRAFT_SIZE = 192;
+
+    /**
+     * Version of the picture generation; has to be increased whenever the same contact and
+     * settings result in different pixels, so that the AvatarCache drops the old pictures
+     */
+    public static final int ENGINE_VERSION = 1;
+
+    /**
+     * Rendering targets that generateBitmap() can paint with
+     */
+    public enum Backend {
+        /**
+         * Android Canvas, rendered by Skia
+         */
+        CANVAS,
+        /**
+         * Pure Java RasterPainter; the result is copied into the Bitmap once
+         */
+        RASTER
+    }
+
+    private static volatile Backend sBackend = Backend.CANVAS;
+
+    /**
+     * Thread usage of the RASTER backend
+     */
+    public enum RenderMode {
+        /**
+         * The calling thread paints the whole image
+         */
+        SINGLE,
+        /**
+         * Horizontal tiles are painted in parallel by the TiledRenderer;
+         * the result is pixel-identical to SINGLE
+         */
+        TILED
+    }
+
+    private static volatile RenderMode sRenderMode = RenderMode.SINGLE;
+
+    private static volatile ShadowCache.Quality sShadowQuality = ShadowCache.Quality.EXACT;
+
+    private static volatile Seed.Algorithm sSeedAlgorithm = Seed.Algorithm.MD5;
+
+    /**
+     * Seeds of the generators, reused for every picture of a thread
+     */
+    private static final ThreadLocal<Seed> sSeeds = new ThreadLocal<Seed>() {
+        @Override
+        protected Seed initialValue() {
+            return new Seed();
+        }
+    };
 
-    private static Bitmap sGrainBitmap;
+    private static volatile int sNumberOfInitials = 1;
 
-    private int mInitialsSettings = 1;
+    private static final int DISPLAY_LIST_CACHE_BYTES = 256 * 1024;
+
+    /**
+     * Recordings of recently generated pictures,
+     * keyed by hash string, image size, rounded square support and number of initials
+     */
+    private static final LruCache<String, DisplayList> sDisplayLists =
+            new LruCache<String, DisplayList>(DISPLAY_LIST_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(String key, DisplayList value) {
+                    return value.getByteCount();
+                }
+            };
+
+    private Contact mContact;
+
+    private int mImageSize;
 
     /**
      * @param contact   Data from this Contact object will be used to generate the shapes and colors
@@ -60,104 +135,505 @@ public class ImageFactory {
         mImageSize = imageSize;
     }
 
+    /**
+     * Paints the picture of a contact or decodes it, if it is in the AvatarCache
+     */
     public static Bitmap bitmapFrom(
             final Context context,
             final Contact contact,
             final int imageSize
     ) {
+        final Bitmap cachedBitmap = cachedBitmapFrom(context, contact, imageSize);
+        if (cachedBitmap != null) return cachedBitmap;
+
         final ImageFactory factory = new ImageFactory(contact, imageSize);
-        final AssetManager assetManager = context.getAssets();
+        return factory.generateBitmap(context);
+    }
+
+    /**
+     * @return Decoded picture of the contact from the AvatarCache or null, if it is not cached
+     */
+    public static Bitmap cachedBitmapFrom(
+            final Context context,
+            final Contact contact,
+            final int imageSize
+    ) {
+        if (contact == null) return null;
 
-        if (sGrainBitmap == null) {
-            Log.d(TAG, "Loading Grain Bitmap from Assets.");
+        final String key = getCacheKey(contact, imageSize, imageSize);
+        final byte[] cachedPng = AvatarCache.getInstance(context).get(key);
+        if (cachedPng == null) return null;
+        return decodePng(context, cachedPng, imageSize);
+    }
 
-            final InputStream inputStream;
-            try {
-                inputStream = assetManager.open("texture_noise.png");
-                sGrainBitmap = BitmapFactory.decodeStream(inputStream);
-            } catch (IOException e) {
-                Log.e(TAG, e.toString());
-            }
-        }
+    /**
+     * Quickly paints a small version of a recorded picture without shadows;
+     * textures are sampled without filtering, like in all Canvas pictures.
+     *
+     * @return DRAFT_SIZE Bitmap from the BitmapPool
+     */
+    public static Bitmap draftBitmapFrom(final Context context, final DisplayList displayList) {
+        final Bitmap bitmap = BitmapPool.getInstance(context).acquire(DRAFT_SIZE, DRAFT_SIZE);
+        displayList.replay(new DraftPainter(new CanvasPainter(new Canvas(bitmap), context)));
+        return bitmap;
+    }
 
-        return factory.generateBitmap(context);
+    /**
+     * Encodes the picture of a contact or reads it from the AvatarCache;
+     * newly encoded pictures are added to the cache
+     *
+     * @param recordSize Size that the generators calculate with, see displayListFrom()
+     * @param imageSize  Side length of the encoded picture
+     * @return PNG bytes or null, if the contact cannot be drawn
+     */
+    public static byte[] pngFrom(
+            final Context context,
+            final Contact contact,
+            final int recordSize,
+            final int imageSize
+    ) {
+        if (contact == null) return null;
+
+        final byte[] cachedPng = cachedPngFrom(context, contact, recordSize, imageSize);
+        if (cachedPng != null) return cachedPng;
+
+        final DisplayList displayList = displayListFrom(contact, recordSize);
+        if (displayList == null) return null;
+
+        final Bitmap bitmap = bitmapFrom(context, displayList, imageSize);
+        final byte[] png = encodePng(bitmap);
+        BitmapPool.getInstance(context).release(bitmap);
+
+        AvatarCache.getInstance(context).put(getCacheKey(contact, recordSize, imageSize), png);
+        return png;
     }
 
-    public static Bitmap getGrainBitmap() {
-        return sGrainBitmap;
+    /**
+     * @return PNG bytes from the AvatarCache or null, if the picture has not been encoded yet
+     */
+    public static byte[] cachedPngFrom(
+            final Context context,
+            final Contact contact,
+            final int recordSize,
+            final int imageSize
+    ) {
+        return cachedPngFrom(context, contact, recordSize, imageSize, sShadowQuality);
     }
 
     /**
-     * @return The completed, generated image as a bitmap to be used by the GUI and contact handler.
+     * @param shadowQuality Shadows that the picture was painted with, see photosFrom()
+     * @return PNG bytes from the AvatarCache or null, if the picture has not been encoded yet
      */
-    public Bitmap generateBitmap(final Context context) {
-        if (mContact == null) {
-            Log.e(TAG, "ERROR: Contact object is null. Returning null image.");
-            return null;
+    public static byte[] cachedPngFrom(
+            final Context context,
+            final Contact contact,
+            final int recordSize,
+            final int imageSize,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        return AvatarCache.getInstance(context).get(
+                getCacheKey(contact, recordSize, imageSize, shadowQuality)
+        );
+    }
+
+    /**
+     * Encodes a picture that bitmapFrom() has already painted for the contact
+     * or reads it from the AvatarCache, so that it does not have to be painted again
+     *
+     * @param bitmap Picture of the contact, recorded at its own size; stays with the caller
+     * @return PNG bytes
+     */
+    public static byte[] pngFrom(
+            final Context context,
+            final Contact contact,
+            final Bitmap bitmap
+    ) {
+        return pngFrom(context, contact, bitmap.getWidth(), bitmap);
+    }
+
+    /**
+     * Encodes a picture that was painted from a recording of another size,
+     * e.g. a thumbnail from photosFrom(), or reads it from the AvatarCache
+     *
+     * @param recordSize Size that the picture was recorded at, see displayListFrom()
+     * @param bitmap     Picture of the contact; stays with the caller
+     * @return PNG bytes
+     */
+    public static byte[] pngFrom(
+            final Context context,
+            final Contact contact,
+            final int recordSize,
+            final Bitmap bitmap
+    ) {
+        return pngFrom(context, contact, recordSize, bitmap, sShadowQuality);
+    }
+
+    /**
+     * @param shadowQuality Shadows that the picture was painted with, see photosFrom()
+     * @return PNG bytes
+     */
+    public static byte[] pngFrom(
+            final Context context,
+            final Contact contact,
+            final int recordSize,
+            final Bitmap bitmap,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        final AvatarCache avatarCache = AvatarCache.getInstance(context);
+        final String key = getCacheKey(contact, recordSize, bitmap.getWidth(), shadowQuality);
+        final byte[] cachedPng = avatarCache.get(key);
+        if (cachedPng != null) return cachedPng;
+
+        final byte[] png = encodePng(bitmap);
+        avatarCache.put(key, png);
+        return png;
+    }
+
+    private static byte[] encodePng(final Bitmap bitmap) {
+        final long startTime = System.nanoTime();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        final byte[] png = outputStream.toByteArray();
+        Metrics.PNG_ENCODE.recordSince(startTime);
+        return png;
+    }
+
+    /**
+     * @return AvatarCache key of everything that determines the pixels of a picture;
+     * readable for logs, the cache only uses its hash as the file name
+     */
+    private static String getCacheKey(
+            final Contact contact,
+            final int recordSize,
+            final int imageSize
+    ) {
+        return getCacheKey(contact, recordSize, imageSize, sShadowQuality);
+    }
+
+    private static String getCacheKey(
+            final Contact contact,
+            final int recordSize,
+            final int imageSize,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        return contact.getMD5EncryptedString()
+                + '_' + recordSize
+                + '_' + imageSize
+                + "_v" + ENGINE_VERSION
+                + '_' + sBackend
+                + '_' + shadowQuality
+                + '_' + sNumberOfInitials
+                + (canPaintRoundedSquares() ? "_r" : "")
+                + getPaletteSuffix()
+                + getSeedSuffix();
+    }
+
+    /**
+     * @return Empty for the candy palette, so that earlier keys stay valid
+     */
+    private static String getPaletteSuffix() {
+        final Palette palette = ColorCollection.getPalette();
+        return palette == ColorCollection.CANDY ? "" : '_' + palette.getName();
+    }
+
+    /**
+     * @return Empty for MD5 seeds, so that earlier keys stay valid
+     */
+    private static String getSeedSuffix() {
+        final Seed.Algorithm seedAlgorithm = sSeedAlgorithm;
+        return seedAlgorithm == Seed.Algorithm.MD5 ? "" : "_s" + seedAlgorithm.getVersion();
+    }
+
+    /**
+     * Decodes a picture into a Bitmap from the BitmapPool
+     *
+     * @return Mutable Bitmap or null, if the bytes could not be decoded
+     */
+    private static Bitmap decodePng(final Context context, final byte[] png, final int imageSize) {
+        final BitmapPool bitmapPool = BitmapPool.getInstance(context);
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = bitmapPool.acquire(imageSize, imageSize);
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled Bitmap could not be reused.
+            Log.e(TAG, e.toString());
         }
 
-        if (mContact.getFullName().length() < 1) {
-            Log.e(TAG, "ERROR: Contact name < 1. Returning null image.");
-            return null;
+        if (bitmap == null) bitmapPool.release(options.inBitmap);
+        return bitmap;
+    }
+
+    /**
+     * Paints the display photo and the thumbnail of a contact from one recording;
+     * the thumbnail is painted at its own resolution instead of being scaled down
+     *
+     * @param imageSize Side length of the display photo
+     * @return Both pictures or null, if the contact cannot be drawn
+     */
+    public static ContactPhotos photosFrom(
+            final Context context,
+            final Contact contact,
+            final int imageSize
+    ) {
+        return photosFrom(context, contact, imageSize, sShadowQuality);
+    }
+
+    /**
+     * @param shadowQuality Shadows of both pictures instead of the ones of setShadowQuality(),
+     *                      e.g. approximated shadows for a batch
+     */
+    public static ContactPhotos photosFrom(
+            final Context context,
+            final Contact contact,
+            final int imageSize,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        final DisplayList displayList = displayListFrom(contact, imageSize);
+        if (displayList == null) return null;
+
+        final BitmapPool bitmapPool = BitmapPool.getInstance(context);
+        final Bitmap thumbnail = bitmapFrom(context, displayList, THUMBNAIL_SIZE, shadowQuality);
+        final Bitmap displayPhoto;
+        try {
+            displayPhoto = bitmapFrom(context, displayList, imageSize, shadowQuality);
+        } catch (RuntimeException e) {
+            bitmapPool.release(thumbnail);
+            throw e;
         }
+        return new ContactPhotos(bitmapPool, thumbnail, displayPhoto);
+    }
 
-        long startTime;
+    /**
+     * Estimates the painting work of the picture of a contact from its seed alone,
+     * e.g. to start the most expensive pictures of a batch first
+     *
+     * @return Cost in canvas fills, see GeneratorRegistry.estimateCost()
+     */
+    public static float estimateCost(final Contact contact, final int imageSize) {
+        return GeneratorRegistry.estimateCost(
+                contact.deriveSeed(sSeedAlgorithm, sSeeds.get()),
+                contact.getNameWord(0),
+                imageSize
+        );
+    }
 
-        if (BENCHMARK) startTime = System.currentTimeMillis();
+    /**
+     * Records the picture of the given contact without painting it
+     * or returns the cached recording of an earlier call.
+     *
+     * @param imageSize Size that the generators calculate with;
+     *                  the recording can be replayed at any other size
+     * @return Recorded picture or null, if the contact cannot be drawn
+     */
+    public static DisplayList displayListFrom(final Contact contact, final int imageSize) {
+        return new ImageFactory(contact, imageSize).getDisplayList();
+    }
 
-        // Set up the bitmap and the canvas.
-        final Bitmap bitmap = Bitmap.createBitmap(mImageSize, mImageSize, Bitmap.Config.ARGB_8888);
+    /**
+     * Paints a recorded picture, scaled to the given size, into a Bitmap from the BitmapPool;
+     * callers that are done with the Bitmap may release it to the pool
+     */
+    public static Bitmap bitmapFrom(
+            final Context context,
+            final DisplayList displayList,
+            final int imageSize
+    ) {
+        return bitmapFrom(context, displayList, imageSize, sShadowQuality);
+    }
 
-        // Set up a new canvas
-        // and fill the background with the color for this contact's first letter.
-        final Canvas canvas = new Canvas(bitmap);
-        final char firstChar = mContact.getFullName().charAt(0);
-        final int bgColor = ColorCollection.getColor(firstChar);
-        canvas.drawColor(bgColor);
+    /**
+     * @param shadowQuality Shadows instead of the ones of setShadowQuality()
+     */
+    public static Bitmap bitmapFrom(
+            final Context context,
+            final DisplayList displayList,
+            final int imageSize,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        final BitmapPool bitmapPool = BitmapPool.getInstance(context);
+        final Bitmap bitmap = bitmapPool.acquire(imageSize, imageSize);
+
+        try {
+            if (sBackend == Backend.RASTER) {
+                final int[] pixels = bitmapPool.acquireFramebuffer(imageSize, imageSize);
+                try {
+                    paintPixels(
+                            context,
+                            displayList,
+                            pixels,
+                            imageSize,
+                            sRenderMode,
+                            shadowQuality
+                    );
+
+                    // The raster framebuffer already has the memory layout of the Bitmap.
+                    bitmap.copyPixelsFromBuffer(IntBuffer.wrap(pixels));
+                } finally {
+                    bitmapPool.releaseFramebuffer(pixels);
+                }
+            } else {
+                final CanvasPainter painter = new CanvasPainter(new Canvas(bitmap), context);
+                painter.setShadowQuality(shadowQuality);
+                displayList.replay(painter);
+            }
+        } catch (RuntimeException e) {
+            // E.g. an interrupted TiledRenderer; a half-painted picture is never handed out.
+            bitmapPool.release(bitmap);
+            throw e;
+        }
 
-        if (BENCHMARK) {
-            Log.d(TAG_BENCHMARK, "ImageSize: " + mImageSize);
-            Log.d(TAG_BENCHMARK, "10: " + (System.currentTimeMillis() - startTime));
-            startTime = System.currentTimeMillis();
+        return bitmap;
+    }
+
+    private static void paintPixels(
+            final Context context,
+            final DisplayList displayList,
+            final int[] pixels,
+            final int imageSize,
+            final RenderMode renderMode,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        final TextureCache textureCache = TextureCache.getInstance(context);
+        final GlyphRasterizer glyphRasterizer = new CanvasGlyphRasterizer(context);
+
+        if (renderMode == RenderMode.TILED) {
+            TiledRenderer.getInstance().render(
+                    displayList,
+                    pixels,
+                    imageSize,
+                    RasterPainter.PixelOrder.ABGR,
+                    textureCache,
+                    glyphRasterizer,
+                    shadowQuality
+            );
+        } else {
+            final RasterPainter painter = new RasterPainter(
+                    pixels,
+                    imageSize,
+                    RasterPainter.PixelOrder.ABGR,
+                    textureCache,
+                    glyphRasterizer
+            );
+            painter.setShadowQuality(shadowQuality);
+            displayList.replay(painter);
         }
+    }
 
-        // The contact's current MD5 encoded string will be referenced a lot.
-        final String md5String = mContact.getMD5EncryptedString();
+    /**
+     * Changes the rendering target of all following generateBitmap() calls
+     */
+    public static void setBackend(final Backend backend) {
+        sBackend = backend;
+    }
 
-        /*
-        MAIN PATTERN
-        */
+    /**
+     * Changes the shadows of all following generateBitmap() calls;
+     * EXACT, the default, uses the blur of the backend for every shape
+     * and keeps the pictures of earlier versions
+     */
+    public static void setShadowQuality(final ShadowCache.Quality shadowQuality) {
+        sShadowQuality = shadowQuality;
+    }
 
-        final Painter painter = new Painter(canvas, context);
+    public static ShadowCache.Quality getShadowQuality() {
+        return sShadowQuality;
+    }
 
-        switch (md5String.charAt(3) % 4) {
-            default:
-                new PlatesGenerator(painter, mContact).paint();
-                break;
-            case 1:
-                new PixelGenerator(painter, mContact).paint();
-        }
+    /**
+     * Changes the hash function of all following pictures;
+     * only MD5 results in the same pictures as earlier versions
+     */
+    public static void setSeedAlgorithm(final Seed.Algorithm seedAlgorithm) {
+        sSeedAlgorithm = seedAlgorithm;
+    }
+
+    /**
+     * Changes the number of initials, 1 to 4, of all following generateBitmap() calls
+     */
+    public static void setNumberOfInitials(final int numberOfInitials) {
+        sNumberOfInitials = numberOfInitials;
+    }
+
+    /**
+     * Changes the thread usage of all following generateBitmap() calls with the RASTER backend
+     */
+    public static void setRenderMode(final RenderMode renderMode) {
+        sRenderMode = renderMode;
+    }
+
+    public static Bitmap getGrainBitmap(final Context context) {
+        return TextureCache.getInstance(context).getBitmap(Painter.Texture.GRAIN);
+    }
+
+    /**
+     * @return The completed, generated image as a bitmap to be used by the GUI and contact handler.
+     */
+    public Bitmap generateBitmap(final Context context) {
+        long startTime;
+
+        if (BENCHMARK) startTime = System.currentTimeMillis();
+
+        final DisplayList displayList = getDisplayList();
+        if (displayList == null) return null;
 
         if (BENCHMARK) {
-            Log.d(TAG_BENCHMARK, "12: " + (System.currentTimeMillis() - startTime));
+            Log.d(TAG_BENCHMARK, "ImageSize: " + mImageSize);
+            Log.d(TAG_BENCHMARK, "Record: " + (System.currentTimeMillis() - startTime));
             startTime = System.currentTimeMillis();
         }
 
-        painter.disableShadows();
+        final Bitmap bitmap = bitmapFrom(context, displayList, mImageSize);
 
-        if (BENCHMARK) {
-            Log.d(TAG_BENCHMARK, "13: " + (System.currentTimeMillis() - startTime));
-            startTime = System.currentTimeMillis();
+        if (BENCHMARK) Log.d(TAG_BENCHMARK, "Replay: " + (System.currentTimeMillis() - startTime));
+        return bitmap;
+    }
+
+    private DisplayList getDisplayList() {
+        if (mContact == null) {
+            Log.e(TAG, "ERROR: Contact object is null. Returning null image.");
+            return null;
         }
 
-        /*
-        INITIAL LETTER ON CIRCLE
-         */
+        if (mContact.getFullName().length() < 1) {
+            Log.e(TAG, "ERROR: Contact name < 1. Returning null image.");
+            return null;
+        }
 
-        painter.paintChars(String.valueOf(firstChar).toUpperCase(), Color.WHITE);
+        // The contact's current MD5 encoded string will be referenced a lot.
+        final String md5String = mContact.getMD5EncryptedString();
 
-        if (BENCHMARK) Log.d(TAG_BENCHMARK, "15: " + (System.currentTimeMillis() - startTime));
-        return bitmap;
+        final boolean canPaintRoundedSquares = canPaintRoundedSquares();
+        final int numberOfInitials = sNumberOfInitials;
+        final String key = md5String + ':' + mImageSize + ':' + canPaintRoundedSquares
+                + ':' + numberOfInitials + getPaletteSuffix() + getSeedSuffix();
+        final DisplayList cachedDisplayList = sDisplayLists.get(key);
+        if (cachedDisplayList != null) return cachedDisplayList;
+
+        final RecordingPainter recorder = new RecordingPainter(mImageSize, canPaintRoundedSquares);
+
+        // Background colour, main pattern and initial letter.
+        final ImageComposer composer = new ImageComposer(
+                mContact.getFullName(),
+                mContact.getNameWord(0),
+                mContact.deriveSeed(sSeedAlgorithm, sSeeds.get())
+        );
+        composer.setNumberOfInitials(numberOfInitials);
+        composer.paint(recorder);
+
+        final DisplayList displayList = recorder.finish();
+        sDisplayLists.put(key, displayList);
+        return displayList;
+    }
+
+    private static boolean canPaintRoundedSquares() {
+        return sBackend == Backend.RASTER
+                || Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process registry of counters, gauges and latency histograms of the render pipeline.
+ * Instruments are created once and kept for the lifetime of the process;
+ * recording a value only updates atomic numbers, so it does not allocate or lock
+ * and can be done on every thread. Durations are measured with System.nanoTime(), e.g.:
+ * <pre>
+ * final long startTime = System.nanoTime();
+ * ...
+ * Metrics.SEED.recordSince(startTime);
+ * </pre>
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class Metrics {
+
+    /**
+     * All instruments in the order of their creation; only changed while holding its lock
+     */
+    private static final List<Instrument> sInstruments = new ArrayList<>();
+
+    /**
+     * Contacts that a batch has finished, successfully or not
+     */
+    public static final Counter CONTACTS = counter("batch.contacts");
+
+    /**
+     * Contacts that a batch could not draw or write
+     */
+    public static final Counter FAILURES = counter("batch.failures");
+
+    /**
+     * Contacts of the running or last batch
+     */
+    public static final Gauge BATCH_SIZE = gauge("batch.size");
+
+    /**
+     * Time from the start of the running or last batch until its last finished contact
+     */
+    public static final Gauge BATCH_DURATION = gauge("batch.duration_ms");
+
+    /**
+     * Used heap after the last contact of a batch
+     */
+    public static final Gauge HEAP_BYTES = gauge("batch.heap_bytes");
+
+    /**
+     * All work of one contact of a batch, from loading to writing
+     */
+    public static final Histogram CONTACT = histogram("batch.contact");
+
+    /**
+     * Hashing the data of a contact, see Contact.deriveSeed()
+     */
+    public static final Histogram SEED = histogram("seed");
+
+    /**
+     * One blurred shadow of a shape; Canvas shadows of EXACT quality are not measured,
+     * as Skia draws them together with the shape
+     */
+    public static final Histogram SHADOW = histogram("shadow");
+
+    /**
+     * Drawing the initials of a picture
+     */
+    public static final Histogram GLYPH = histogram("glyph");
+
+    /**
+     * Compressing one picture to PNG
+     */
+    public static final Histogram PNG_ENCODE = histogram("png_encode");
+
+    /**
+     * Writing both pictures of a contact to the contacts provider
+     */
+    public static final Histogram PROVIDER_WRITE = histogram("provider_write");
+
+    /**
+     * Looking up and committing the photo rows of a chunk of contacts with one applyBatch() call
+     */
+    public static final Histogram PROVIDER_BATCH = histogram("provider_batch");
+
+    private Metrics() {
+    }
+
+    /**
+     * Common part of all instruments
+     */
+    public abstract static class Instrument {
+
+        private final String mName;
+
+        Instrument(final String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        abstract void reset();
+
+        abstract void appendJson(StringBuilder json);
+    }
+
+    /**
+     * Number that only grows, e.g. of processed items
+     */
+    public static class Counter extends Instrument {
+
+        private final AtomicLong mCount = new AtomicLong();
+
+        private Counter(final String name) {
+            super(name);
+        }
+
+        public void increment() {
+            mCount.incrementAndGet();
+        }
+
+        public void add(final long delta) {
+            mCount.addAndGet(delta);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        @Override
+        void reset() {
+            mCount.set(0L);
+        }
+
+        @Override
+        void appendJson(final StringBuilder json) {
+            json.append(mCount.get());
+        }
+    }
+
+    /**
+     * Last value of something that goes up and down, e.g. a queue length
+     */
+    public static class Gauge extends Instrument {
+
+        private volatile long mValue;
+
+        private Gauge(final String name) {
+            super(name);
+        }
+
+        public void set(final long value) {
+            mValue = value;
+        }
+
+        public long getValue() {
+            return mValue;
+        }
+
+        @Override
+        void reset() {
+            mValue = 0L;
+        }
+
+        @Override
+        void appendJson(final StringBuilder json) {
+            json.append(mValue);
+        }
+    }
+
+    /**
+     * Distribution of durations in fixed logarithmic buckets:
+     * every power of two is split into SUB_BUCKETS linear buckets,
+     * so percentiles are at most 1 / SUB_BUCKETS too high.
+     */
+    public static class Histogram extends Instrument {
+
+        private static final int SUB_BUCKET_BITS = 3;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        /**
+         * Enough buckets for every positive long
+         */
+        private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private final AtomicLong mCount = new AtomicLong();
+
+        private final AtomicLong mSum = new AtomicLong();
+
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram(final String name) {
+            super(name);
+        }
+
+        /**
+         * @param startTime Result of System.nanoTime() before the measured work
+         */
+        public void recordSince(final long startTime) {
+            record(System.nanoTime() - startTime);
+        }
+
+        /**
+         * @param nanoseconds Duration; negative values are counted as 0
+         */
+        public void record(final long nanoseconds) {
+            final long value = Math.max(nanoseconds, 0L);
+            mBuckets.incrementAndGet(getBucket(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) max = mMax.get();
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * @return Average duration in nanoseconds; 0 if nothing has been recorded
+         */
+        public long getMean() {
+            final long count = mCount.get();
+            return count == 0L ? 0L : mSum.get() / count;
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * @param percentile From 0 to 1, e.g. 0.95
+         * @return Upper bound of the duration in nanoseconds below which the given share
+         * of all durations lies; 0 if nothing has been recorded
+         */
+        public long getPercentile(final double percentile) {
+            long remaining = (long) Math.ceil(mCount.get() * percentile);
+            if (remaining <= 0L) return 0L;
+
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                remaining -= mBuckets.get(bucket);
+                if (remaining <= 0L) return Math.min(getUpperBound(bucket), mMax.get());
+            }
+            return mMax.get();
+        }
+
+        private static int getBucket(final long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int shift = exponent - SUB_BUCKET_BITS;
+            final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return Largest value of the bucket
+         */
+        private static long getUpperBound(final int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+
+            final int shift = bucket / SUB_BUCKETS - 1;
+            final long subBucket = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << shift) - 1L;
+        }
+
+        @Override
+        void reset() {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) mBuckets.set(bucket, 0L);
+            mCount.set(0L);
+            mSum.set(0L);
+            mMax.set(0L);
+        }
+
+        @Override
+        void appendJson(final StringBuilder json) {
+            json.append("{\"count\": ").append(getCount())
+                    .append(", \"mean_ms\": ").append(toMillis(getMean()))
+                    .append(", \"p50_ms\": ").append(toMillis(getPercentile(0.5)))
+                    .append(", \"p95_ms\": ").append(toMillis(getPercentile(0.95)))
+                    .append(", \"p99_ms\": ").append(toMillis(getPercentile(0.99)))
+                    .append(", \"max_ms\": ").append(toMillis(getMax()))
+                    .append('}');
+        }
+
+        private static String toMillis(final long nanoseconds) {
+            return String.format(Locale.US, "%.3f", nanoseconds / 1e6);
+        }
+    }
+
+    /*
+    REGISTRY
+     */
+
+    /**
+     * @param name Letters, digits, dots and underscores, e.g. "batch.contacts"
+     * @return Existing or new counter of this name
+     */
+    public static Counter counter(final String name) {
+        synchronized (sInstruments) {
+            final Instrument instrument = find(name);
+            if (instrument != null) return (Counter) cast(instrument, Counter.class);
+            return add(new Counter(name));
+        }
+    }
+
+    /**
+     * @return Existing or new gauge of this name, see counter()
+     */
+    public static Gauge gauge(final String name) {
+        synchronized (sInstruments) {
+            final Instrument instrument = find(name);
+            if (instrument != null) return (Gauge) cast(instrument, Gauge.class);
+            return add(new Gauge(name));
+        }
+    }
+
+    /**
+     * @return Existing or new histogram of this name, see counter()
+     */
+    public static Histogram histogram(final String name) {
+        synchronized (sInstruments) {
+            final Instrument instrument = find(name);
+            if (instrument != null) return (Histogram) cast(instrument, Histogram.class);
+            return add(new Histogram(name));
+        }
+    }
+
+    /**
+     * @return Copy of all instruments in the order of their creation
+     */
+    public static List<Instrument> getInstruments() {
+        synchronized (sInstruments) {
+            return new ArrayList<>(sInstruments);
+        }
+    }
+
+    /**
+     * Sets all instruments back to 0, e.g. when a batch starts;
+     * values that are recorded at the same time may be partially lost
+     */
+    public static void reset() {
+        for (final Instrument instrument : getInstruments()) instrument.reset();
+    }
+
+    /**
+     * @return All current values as one JSON object,
+     * with counters, gauges and histograms in separate objects
+     */
+    public static String toJson() {
+        final List<Instrument> instruments = getInstruments();
+        final StringBuilder json = new StringBuilder(instruments.size() * 128);
+        json.append("{\n  \"timestamp\": ").append(System.currentTimeMillis());
+        appendJson(json, "counters", instruments, Counter.class);
+        appendJson(json, "gauges", instruments, Gauge.class);
+        appendJson(json, "histograms", instruments, Histogram.class);
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+    private static void appendJson(
+            final StringBuilder json,
+            final String group,
+            final List<Instrument> instruments,
+            final Class<? extends Instrument> type
+    ) {
+        json.append(",\n  \"").append(group).append("\": {");
+        boolean isFirst = true;
+        for (final Instrument instrument : instruments) {
+            if (!type.isInstance(instrument)) continue;
+
+            json.append(isFirst ? "\n    \"" : ",\n    \"").append(instrument.getName())
+                    .append("\": ");
+            instrument.appendJson(json);
+            isFirst = false;
+        }
+        json.append(isFirst ? "}" : "\n  }");
+    }
+
+    private static Instrument find(final String name) {
+        for (final Instrument instrument : sInstruments) {
+            if (instrument.getName().equals(name)) return instrument;
+        }
+        return null;
+    }
+
+    private static Instrument cast(final Instrument instrument, final Class<?> type) {
+        if (!type.isInstance(instrument)) {
+            throw new IllegalArgumentException(
+                    "Metric " + instrument.getName() + " is not a " + type.getSimpleName() + "."
+            );
+        }
+        return instrument;
+    }
+
+    private static <T extends Instrument> T add(final T instrument) {
+        if (!instrument.getName().matches("[A-Za-z0-9._]+")) {
+            throw new IllegalArgumentException("Invalid metric name: " + instrument.getName());
+        }
+        sInstruments.add(instrument);
+        return instrument;
+    }
+}
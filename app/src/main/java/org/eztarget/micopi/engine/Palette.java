@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Set of colours that characters are mapped to, see getColor().
+ * The colours of all characters, including the darkened ones,
+ * are calculated once when the Palette is created,
+ * so that looking up a colour is a single array access.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class Palette {
+
+    /**
+     * Characters below this value are looked up directly;
+     * this covers all hash strings and most initials
+     */
+    private static final int DIRECT_CHARS = 128;
+
+    private final String mName;
+
+    private final int[] mColors;
+
+    /**
+     * Colours of all characters below DIRECT_CHARS
+     */
+    private final int[] mDirectColors = new int[DIRECT_CHARS];
+
+    /**
+     * Colours of all other characters, indexed by character modulo the length of this array
+     */
+    private final int[] mPeriodicColors;
+
+    /**
+     * @param name   Short name, only letters and digits; part of the AvatarCache keys
+     * @param colors Opaque ARGB colours; at least two
+     */
+    public Palette(final String name, final int[] colors) {
+        if (name == null || !name.matches("[A-Za-z0-9]+")) {
+            throw new IllegalArgumentException("Invalid palette name: " + name);
+        }
+        if (colors == null || colors.length < 2) {
+            throw new IllegalArgumentException("Palette " + name + " needs at least 2 colours.");
+        }
+
+        mName = name;
+        mColors = colors.clone();
+
+        for (int c = 0; c < DIRECT_CHARS; c++) {
+            mDirectColors[c] = calculateColor(mColors, (char) c);
+        }
+
+        // Beyond the lower case letters the colour only depends on the palette index
+        // and on whether the character is darkened, i.e. on c modulo both periods.
+        final int indexPeriod = mColors.length - 1;
+        final int period = indexPeriod % 3 == 0 ? indexPeriod : indexPeriod * 3;
+        mPeriodicColors = new int[period];
+        for (int i = 0; i < period; i++) {
+            final int index = i % indexPeriod;
+            mPeriodicColors[i] = i % 3 == 0 ? ColorCollection.getDarkenedColor(mColors[index])
+                    : mColors[index];
+        }
+    }
+
+    /**
+     * Reads a palette from text, e.g. from a file or a resource:
+     * colours are hexadecimal RRGGBB or AARRGGBB values with an optional leading # or 0x,
+     * separated by white space or commas;
+     * lines that start with // are ignored
+     *
+     * @throws IllegalArgumentException If the text contains anything else
+     */
+    public static Palette parse(final String name, final String text) {
+        final StringBuilder colorText = new StringBuilder(text.length());
+        for (final String line : text.split("\n")) {
+            if (!line.trim().startsWith("//")) colorText.append(line).append('\n');
+        }
+
+        final String[] tokens = colorText.toString().trim().split("[\\s,]+");
+        final int[] colors = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.startsWith("#")) token = token.substring(1);
+            else if (token.startsWith("0x") || token.startsWith("0X")) token = token.substring(2);
+
+            if (token.length() != 6 && token.length() != 8) {
+                throw new IllegalArgumentException("Invalid colour in palette " + name + ": "
+                        + tokens[i]);
+            }
+
+            try {
+                final int color = (int) Long.parseLong(token, 16);
+                colors[i] = token.length() == 6 ? 0xFF000000 | color : color;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid colour in palette " + name + ": "
+                        + tokens[i]);
+            }
+        }
+
+        return new Palette(name, colors);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return Copy of the colours that this palette was created with
+     */
+    public int[] getColors() {
+        return mColors.clone();
+    }
+
+    /**
+     * Goes through the palette c amount of times;
+     * capital and lower case letters get the same colours;
+     * every third character gets a darkened colour.
+     * Does not allocate.
+     *
+     * @param c ASCII integer value of this character will be used as array index
+     */
+    public int getColor(final char c) {
+        if (c < DIRECT_CHARS) return mDirectColors[c];
+        return mPeriodicColors[c % mPeriodicColors.length];
+    }
+
+    /**
+     * Original calculation of ColorCollection.getColor(), used to fill the lookup tables
+     */
+    private static int calculateColor(final int[] colors, char c) {
+        // If the given character is between lower case a and z,
+        // subtract the index difference to the upper case characters.
+        if (c >= 'a' && c <= 'z') c -= 32;
+
+        final int index = c % (colors.length - 1);
+
+        if (c % 3 == 0) {
+            return ColorCollection.getDarkenedColor(colors[index]);
+        }
+
+        return colors[index];
+    }
+}
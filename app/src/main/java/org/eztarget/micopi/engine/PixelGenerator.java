@@ -16,48 +16,75 @@
 package org.eztarget.micopi.engine;
 
 
-import org.eztarget.micopi.Contact;
-
 /**
  * Created by michel on 12/11/14.
  *
  * Fills a canvas with retro-styled squares
  */
-public class PixelGenerator {
+public class PixelGenerator implements Generator {
 
     private static final String TAG = PixelGenerator.class.getSimpleName();
 
     /**
-     * Number of squares per row (number of columns) and number of rows;
-     * total number of painted squares is this value squared
+     * Counts the squares that paint() would hand to the Painter;
+     * squares have no shadows
      */
+    @Override
+    public float estimateCost(final Seed seed, final String firstNameWord, final int imageSize) {
+        final int md5Length = seed.length();
+        final int numberOfSquares = (seed.getSymbol(15) % 10) + 15;
+        final int textureShift = seed.getSymbol(25);
+
+        int count = 0;
+        int texturedCount = 0;
+        int md5Index = 0;
+        for (int i = 0; i < numberOfSquares; i++) {
+            for (int j = 0; j < numberOfSquares; j++) {
+                md5Index++;
+                if (md5Index >= md5Length) md5Index = 0;
 
-    private Painter mPainter;
-
-    private Contact mContact;
+                // x and y of paint() are i and j.
+                if (i > 0 && j > 0 && (i % 2 == 0 || isOddParity(seed.getSymbol(md5Index)))) {
+                    count++;
+                    final int textureIndex = (i * j + textureShift) % 7;
+                    if (textureIndex >= 1 && textureIndex <= 3) texturedCount++;
+                }
+            }
+        }
 
-    public PixelGenerator(final Painter painter, final Contact contact) {
-        mPainter = painter;
-        mContact = contact;
+        return (count + texturedCount * TEXTURE_WEIGHT) / (numberOfSquares * numberOfSquares);
     }
 
-    public void paint() {
+    /**
+     * Number of squares per row (number of columns) and number of rows;
+     * total number of painted squares is this value squared
+     */
+
+    @Override
+    public void paint(final Painter painter, final Seed seed, final String firstNameWord) {
 
-        mPainter.disableShadows();
+        painter.disableShadows();
 
-        final String md5String = mContact.getMD5EncryptedString();
-        final int md5Length = md5String.length();
+        final int md5Length = seed.length();
 
-        final int color1 = ColorCollection.getColor(md5String.charAt(16));
-        final int color2 = ColorCollection.getColor(md5String.charAt(17));
+        final int color1 = ColorCollection.getColor(seed.getSymbol(16));
+        final int color2 = ColorCollection.getColor(seed.getSymbol(17));
 
-        int numberOfSquares = (md5String.charAt(15) % 10) + 15;
-        final int textureShift = md5String.charAt(25);
+        int numberOfSquares = (seed.getSymbol(15) % 10) + 15;
+        final int textureShift = seed.getSymbol(25);
 
-        final float sideLength = (float) mPainter.getImageSize() / numberOfSquares;
+        final float sideLength = (float) painter.getImageSize() / numberOfSquares;
 
-        final boolean leftAligned = md5String.charAt(14) % 2 == 0;
-        final boolean topAligned = md5String.charAt(13) % 2 == 0;
+        final boolean leftAligned = seed.getSymbol(14) % 2 == 0;
+        final boolean topAligned = seed.getSymbol(13) % 2 == 0;
+
+        // All squares are collected and handed to the Painter as one batch.
+        final int maxNumberOfSquares = numberOfSquares * numberOfSquares;
+        final float[] rects = new float[maxNumberOfSquares * 4];
+        final int[] colors = new int[maxNumberOfSquares];
+        final byte[] alphas = new byte[maxNumberOfSquares];
+        final byte[] textures = new byte[maxNumberOfSquares];
+        int count = 0;
 
         int md5Index = 0;
         float x = 0f;
@@ -68,7 +95,7 @@ public class PixelGenerator {
 
                 md5Index++;
                 if (md5Index >= md5Length) md5Index = 0;
-                final char md5Char = md5String.charAt(md5Index);
+                final char md5Char = seed.getSymbol(md5Index);
 
                 final Painter.Texture texture;
                 switch ((i * j + textureShift) % 7) {
@@ -86,24 +113,30 @@ public class PixelGenerator {
                 }
 
                 if (x> 0 && y > 0) {
-                    if (isOddParity(md5Char)) {
-                        mPainter.paintSquare(
-                                color1,
-                                texture,
-                                255 - md5Char % 100,
-                                leftAligned ? (md5Char % y) : (numberOfSquares - (md5Char % y)),
-                                topAligned ? (md5Char % x) : (numberOfSquares - (md5Char % x)),
-                                sideLength
-                        );
-                    } else if (x % 2 == 0){
-                        mPainter.paintSquare(
-                                color2,
-                                texture,
-                                255 - md5Char % 100,
-                                leftAligned ? (md5Char % x) : (numberOfSquares - (md5Char % x)),
-                                topAligned ? (md5Char % y) : (numberOfSquares - (md5Char % y)),
-                                sideLength
-                        );
+                    final boolean hasOddParity = isOddParity(md5Char);
+                    if (hasOddParity || x % 2 == 0) {
+                        final float column;
+                        final float row;
+                        if (hasOddParity) {
+                            colors[count] = color1;
+                            column = leftAligned
+                                    ? (md5Char % y) : (numberOfSquares - (md5Char % y));
+                            row = topAligned ? (md5Char % x) : (numberOfSquares - (md5Char % x));
+                        } else {
+                            colors[count] = color2;
+                            column = leftAligned
+                                    ? (md5Char % x) : (numberOfSquares - (md5Char % x));
+                            row = topAligned ? (md5Char % y) : (numberOfSquares - (md5Char % y));
+                        }
+
+                        final int rectOffset = count * 4;
+                        rects[rectOffset] = column * sideLength;
+                        rects[rectOffset + 1] = row * sideLength;
+                        rects[rectOffset + 2] = column * sideLength + sideLength;
+                        rects[rectOffset + 3] = row * sideLength + sideLength;
+                        alphas[count] = (byte) (255 - md5Char % 100);
+                        textures[count] = (byte) texture.ordinal();
+                        count++;
                     }
                 }
                 ++y;
@@ -111,6 +144,8 @@ public class PixelGenerator {
             ++x;
             y = 0f;
         }
+
+        painter.paintSquares(rects, colors, alphas, textures, count);
     }
 
     private static boolean isOddParity(final char fChar) {
@@ -15,12 +15,6 @@
  */
 package org.eztarget.micopi.engine;
 
-import android.os.Build;
-import android.util.Log;
-
-import org.eztarget.micopi.Contact;
-
-
 /**
  * Created by michel on 12/11/14.
  *
@@ -28,68 +22,97 @@ import org.eztarget.micopi.Contact;
  * Fills the Canvas in the Painter with a lot of colourful circles
  * or polygon approximations of circles
  */
-public class PlatesGenerator {
+public class PlatesGenerator implements Generator {
 
     private static final String TAG = PlatesGenerator.class.getSimpleName();
 
-    private Painter mPainter;
+    /**
+     * Follows the plate sizes and textures of paint();
+     * every plate has a shadow and is counted with its full area, even if it leaves the canvas
+     */
+    @Override
+    public float estimateCost(final Seed seed, final String firstNameWord, final int imageSize) {
+        float width = ((float) seed.getSymbol(7) + (float) seed.getSymbol(19)) + imageSize * 0.67f;
+        final float minWidth = width * 0.37f;
+        final int md5Length = seed.length();
+        final int numberOfPlates = (seed.getSymbol(28) % 3) + 3;
+        final int numberOfEdges = Math.max(3, Math.min(firstNameWord.length(), 10));
+        final float canvasArea = imageSize * (float) imageSize;
 
-    private Contact mContact;
+        float cost = 0f;
+        int md5Pos = 0;
+        for (int i = 0; i < numberOfPlates; i++) {
+            md5Pos++;
+            if (md5Pos >= md5Length) md5Pos = 0;
+            final int md5Char = seed.getSymbol(md5Pos) + i * 3;
 
-    public PlatesGenerator(final Painter painter, final Contact contact) {
-        mPainter = painter;
-        mContact = contact;
+            final float area;
+            if (md5Char % 4 != 0) {
+                area = 0.5f * numberOfEdges * width * width
+                        * (float) Math.sin(Painter.TWO_PI / numberOfEdges);
+            } else {
+                area = (float) Math.PI * width * width * 0.25f;
+            }
+
+            // Only the cases 1 and 5 of paint() are not textured.
+            final boolean isTextured = md5Char % 6 != 1 && md5Char % 6 != 5;
+            cost += Math.min(area / canvasArea, 1f)
+                    * (1f + SHADOW_WEIGHT)
+                    * (isTextured ? 1f + TEXTURE_WEIGHT : 1f);
+
+            if (width < minWidth) width *= 3.5f;
+            else width *= 0.67f;
+        }
+        return cost;
     }
 
-    public void paint() {
+    @Override
+    public void paint(final Painter painter, final Seed seed, final String firstNameWord) {
         // If the first name has at least 3 (triangle) and no more than 6 (hexagon) letters,
         // there is a 2/3 chance that polygons will be painted instead of circles.
-        final String md5String = mContact.getMD5EncryptedString();
-
-        final int imageSize = mPainter.getImageSize();
+        final int imageSize = painter.getImageSize();
         float angleOffset = 0;
         float width;
-        width = ((float) md5String.charAt(7) + (float) md5String.charAt(19)) + imageSize * 0.67f;
+        width = ((float) seed.getSymbol(7) + (float) seed.getSymbol(19)) + imageSize * 0.67f;
 
         final float minWidth = width * 0.37f;
 
-        final int md5Length = md5String.length();
+        final int md5Length = seed.length();
         float x = imageSize * 0.5f;
         float y = x;
 
-        final int numberOfPlates = (md5String.charAt(28) % 3) + 3;
+        final int numberOfPlates = (seed.getSymbol(28) % 3) + 3;
 
 //        Log.d(TAG, "width: " + width + " smallest: " + minWidth + " number: " + numberOfPlates);
 
         // Some pictures have polygon approximations instead of actual circles.
         boolean paintRoundedSquares = false;
 
-        int numberOfEdges = mContact.getNameWord(0).length();
+        int numberOfEdges = firstNameWord.length();
 
         if (numberOfEdges < 3) {
             numberOfEdges = 3;
         }  else if (numberOfEdges > 10) {
             numberOfEdges = 10;
-        } else if (numberOfEdges == 4 &&
-                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)) {
+        } else if (numberOfEdges == 4 && painter.canPaintRoundedSquares()) {
             paintRoundedSquares = true;
         }
 
-        float extraDividend = md5String.charAt(23);
+        float extraDividend = seed.getSymbol(23);
         int md5Pos = 0;
 
-        mPainter.enableShadows();
+        painter.enableShadows();
 
-        final int shadowChar = md5String.charAt(7);
+        final int shadowChar = seed.getSymbol(7);
         switch (shadowChar % 6) {
             case 0:
-                mPainter.setShadowLayer((((shadowChar % 15) / 15f) + 0.7f), 2f, 2f);
+                painter.setShadowLayer((((shadowChar % 15) / 15f) + 0.7f), 2f, 2f);
                 break;
             case 1:
-                mPainter.setShadowLayer((((shadowChar % 15) / 15f) + 1f), 3f, 3f);
+                painter.setShadowLayer((((shadowChar % 15) / 15f) + 1f), 3f, 3f);
                 break;
             default:
-                mPainter.setShadowLayer((((shadowChar % 15) / 15) + 1.5f), 1f, 1f);
+                painter.setShadowLayer((((shadowChar % 15) / 15) + 1.5f), 1f, 1f);
                 break;
         }
 
@@ -100,7 +123,7 @@ public class PlatesGenerator {
             if (md5Pos >= md5Length) md5Pos = 0;
 
             // Move the coordinates around.
-            final int md5Char = md5String.charAt(md5Pos) + i * 3;
+            final int md5Char = seed.getSymbol(md5Pos) + i * 3;
             final Painter.Texture texture;
 
             switch (md5Char % 6) {
@@ -137,8 +160,8 @@ public class PlatesGenerator {
 
             if (md5Char % 4 != 0) {
                 if (paintRoundedSquares && (md5Char % 3 == 0)) {
-                    mPainter.paintRoundedSquare(
-                            ColorCollection.getColor(md5String.charAt(md5Pos)),
+                    painter.paintRoundedSquare(
+                            ColorCollection.getColor(seed.getSymbol(md5Pos)),
                             texture,
                             x,
                             y,
@@ -147,8 +170,8 @@ public class PlatesGenerator {
                 } else {
                     angleOffset += extraDividend / md5Char;
 
-                    mPainter.paintPolygon(
-                            ColorCollection.getColor(md5String.charAt(md5Pos)),
+                    painter.paintPolygon(
+                            ColorCollection.getColor(seed.getSymbol(md5Pos)),
                             texture,
                             angleOffset,
                             numberOfEdges,
@@ -160,8 +183,8 @@ public class PlatesGenerator {
                 }
 
             } else {
-                mPainter.paintCircle(
-                        ColorCollection.getColor(md5String.charAt(md5Pos)),
+                painter.paintCircle(
+                        ColorCollection.getColor(seed.getSymbol(md5Pos)),
                         texture,
                         x,
                         y,
@@ -173,7 +196,7 @@ public class PlatesGenerator {
             else width *= 0.67f;
         }
 
-        mPainter.disableShadows();
+        painter.disableShadows();
 
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Vertices of unit polygons, so that placing a polygon only needs one rotation
+ * instead of a sine and a cosine per vertex.
+ * The vertex angles are the same float values that the Painters have always used.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+class PolygonTemplates {
+
+    /**
+     * Smallest number of edges that the PlatesGenerator chooses
+     */
+    static final int MIN_EDGES = 3;
+
+    /**
+     * Largest number of edges that the PlatesGenerator chooses
+     */
+    static final int MAX_EDGES = 10;
+
+    /**
+     * Interleaved cosine and sine of all vertex angles, indexed by number of edges
+     */
+    private static final double[][] UNIT_VERTICES = new double[MAX_EDGES + 1][];
+
+    static {
+        for (int numberOfEdges = MIN_EDGES; numberOfEdges <= MAX_EDGES; numberOfEdges++) {
+            UNIT_VERTICES[numberOfEdges] = createUnitVertices(numberOfEdges);
+        }
+    }
+
+    private PolygonTemplates() {
+    }
+
+    /**
+     * @return Cosine and sine of vertex 1 to numberOfEdges, interleaved;
+     * the first vertex lies at TWO_PI / numberOfEdges;
+     * shared for MIN_EDGES to MAX_EDGES, newly created for other numbers
+     */
+    static double[] getUnitVertices(final int numberOfEdges) {
+        if (numberOfEdges >= MIN_EDGES && numberOfEdges <= MAX_EDGES) {
+            return UNIT_VERTICES[numberOfEdges];
+        }
+        return createUnitVertices(numberOfEdges);
+    }
+
+    private static double[] createUnitVertices(final int numberOfEdges) {
+        final double[] vertices = new double[numberOfEdges * 2];
+        for (int edge = 1; edge <= numberOfEdges; edge++) {
+            final double angle = Painter.TWO_PI * edge / numberOfEdges;
+            vertices[(edge - 1) * 2] = Math.cos(angle);
+            vertices[(edge - 1) * 2 + 1] = Math.sin(angle);
+        }
+        return vertices;
+    }
+}
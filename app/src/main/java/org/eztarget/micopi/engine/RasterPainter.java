@@ -0,0 +1,1177 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.util.Arrays;
+
+/**
+ * Painter that rasterises into a premultiplied int[] framebuffer without any platform classes,
+ * so that the generators can run on a plain JVM.
+ * Shapes are flattened into a single closed contour, filled with the non-zero winding rule
+ * and anti-aliased through sub-scanlines with exact horizontal coverage.
+ * Every fill casts a blurred shadow, if shadows are enabled, and textured shapes are painted
+ * in a second pass, just like CanvasPainter does.
+ * <p/>
+ * Painting can be restricted to a clip rectangle. Coverage is calculated in canvas coordinates
+ * and shadows are blurred in fixed point, so every pixel inside the clip gets exactly the value
+ * that an unclipped painter gives it; clipped painters can share one framebuffer across threads.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class RasterPainter implements Painter {
+
+    /**
+     * Channel order of the ints in the framebuffer
+     */
+    public enum PixelOrder {
+        /**
+         * 0xAARRGGBB, e.g. for a BufferedImage of TYPE_INT_ARGB_PRE
+         */
+        ARGB,
+        /**
+         * 0xAABBGGRR, the memory layout of an ARGB_8888 Bitmap on little-endian devices;
+         * can be handed to Bitmap.copyPixelsFromBuffer() directly
+         */
+        ABGR
+    }
+
+    private static final int SHADOW_COLOR = 0xDD000000;
+
+    private static final Texture[] TEXTURES = Texture.values();
+
+    /**
+     * Number of sample rows per pixel row; horizontal coverage is calculated exactly
+     */
+    private static final int SUB_SCANLINES = 4;
+
+    /**
+     * Maximum distance in pixels between a curve and its flattened approximation
+     */
+    private static final float CURVE_TOLERANCE = 0.2f;
+
+    /**
+     * Number of box blur passes that approximate a Gaussian shadow blur
+     */
+    private static final int BLUR_PASSES = 3;
+
+    /**
+     * Fixed point value of a fully covered pixel in the shadow mask
+     */
+    private static final int SHADOW_ONE = 1 << 16;
+
+    private final int[] mPixels;
+
+    private final int mImageSize;
+
+    private final PixelOrder mPixelOrder;
+
+    private final RasterTexture.Provider mTextureProvider;
+
+    private final GlyphRasterizer mGlyphRasterizer;
+
+    private final float mShadowRadius;
+
+    private int mClipLeft;
+
+    private int mClipTop;
+
+    private int mClipRight;
+
+    private int mClipBottom;
+
+    private boolean mHasShadows = false;
+
+    private float mShadowBlurRadius;
+
+    private int mShadowOffsetX;
+
+    private int mShadowOffsetY;
+
+    private ShadowCache.Quality mShadowQuality = ShadowCache.Quality.EXACT;
+
+    /*
+    Description of the current shape for cached shadows; kind is -1 for other shapes
+     */
+
+    private int mShapeKind = -1;
+
+    private int mShapeEdges;
+
+    private float mShapeAngle;
+
+    private float mShapeCenterX;
+
+    private float mShapeCenterY;
+
+    private float mShapeRadius;
+
+    private final float[] mCachedShadowSpan = new float[2];
+
+    /*
+    Current path; a single closed contour
+     */
+
+    private float[] mPathX = new float[64];
+
+    private float[] mPathY = new float[64];
+
+    private int mPathLength;
+
+    private float mPathMinX;
+
+    private float mPathMinY;
+
+    private float mPathMaxX;
+
+    private float mPathMaxY;
+
+    /*
+    Coverage mask of the current shape and its position on the canvas
+     */
+
+    private float[] mMask = new float[0];
+
+    private int mMaskLeft;
+
+    private int mMaskTop;
+
+    private int mMaskWidth;
+
+    private int mMaskHeight;
+
+    private int[] mShadowMask = new int[0];
+
+    private int[] mBlurLine = new int[0];
+
+    private float[] mCrossingX = new float[16];
+
+    private int[] mCrossingWinding = new int[16];
+
+    private byte[] mGlyphCoverage;
+
+    /**
+     * @param pixels          Framebuffer of imageSize * imageSize premultiplied pixels
+     * @param pixelOrder      Channel order of the framebuffer and of the provided textures
+     * @param textureProvider Source of textures; may be null to paint without textures
+     * @param glyphRasterizer Font renderer; may be null to paint without characters
+     */
+    public RasterPainter(
+            final int[] pixels,
+            final int imageSize,
+            final PixelOrder pixelOrder,
+            final RasterTexture.Provider textureProvider,
+            final GlyphRasterizer glyphRasterizer
+    ) {
+        if (pixels.length < imageSize * imageSize) {
+            throw new IllegalArgumentException(
+                    "Framebuffer holds " + pixels.length + " pixels, needs " + imageSize * imageSize
+            );
+        }
+
+        mPixels = pixels;
+        mImageSize = imageSize;
+        mPixelOrder = pixelOrder;
+        mTextureProvider = textureProvider;
+        mGlyphRasterizer = glyphRasterizer;
+        mShadowRadius = imageSize * 0.05f;
+        mClipRight = imageSize;
+        mClipBottom = imageSize;
+    }
+
+    @Override
+    public int getImageSize() {
+        return mImageSize;
+    }
+
+    @Override
+    public boolean canPaintRoundedSquares() {
+        return true;
+    }
+
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Shadows of all quality levels except EXACT are taken from the ShadowCache;
+     * they are still the same in every tile, but not exactly the same as EXACT shadows
+     */
+    public void setShadowQuality(final ShadowCache.Quality shadowQuality) {
+        mShadowQuality = shadowQuality;
+    }
+
+    /**
+     * Restricts all following operations to the given part of the canvas
+     */
+    public void clipRect(final int left, final int top, final int right, final int bottom) {
+        mClipLeft = Math.max(left, 0);
+        mClipTop = Math.max(top, 0);
+        mClipRight = Math.min(right, mImageSize);
+        mClipBottom = Math.min(bottom, mImageSize);
+    }
+
+    @Override
+    public void paintBackground(final int color) {
+        final int pixel = premultiply(toPixelOrder(color, mPixelOrder));
+        for (int y = mClipTop; y < mClipBottom; y++) {
+            final int rowOffset = y * mImageSize;
+            if ((pixel >>> 24) == 0xFF) {
+                Arrays.fill(mPixels, rowOffset + mClipLeft, rowOffset + mClipRight, pixel);
+            } else {
+                for (int x = mClipLeft; x < mClipRight; x++) {
+                    mPixels[rowOffset + x] = blend(mPixels[rowOffset + x], pixel);
+                }
+            }
+        }
+    }
+
+    /*
+    Shadows
+     */
+
+    @Override
+    public void enableShadows() {
+        mShadowBlurRadius = mShadowRadius;
+        mShadowOffsetX = 0;
+        mShadowOffsetY = 0;
+        mHasShadows = true;
+    }
+
+    @Override
+    public void setShadowLayer(
+            final float radiusScale,
+            final float offsetFactorX,
+            final float offsetFactorY
+    ) {
+        mShadowBlurRadius = mShadowRadius * radiusScale;
+        mShadowOffsetX = Math.round(mShadowRadius * (((offsetFactorX % 40) / 40f)));
+        mShadowOffsetY = Math.round(mShadowRadius * (((offsetFactorY % 40) / 40f)));
+        mHasShadows = true;
+    }
+
+    @Override
+    public void disableShadows() {
+        mHasShadows = false;
+    }
+
+    /*
+    Shapes
+     */
+
+    @Override
+    public void paintSquare(
+            final int color,
+            final Texture texture,
+            final int alpha,
+            final float x,
+            final float y,
+            final float size
+    ) {
+        final float offsetX = x * size;
+        final float offsetY = y * size;
+
+        beginPath();
+        addRect(offsetX, offsetY, offsetX + size, offsetY + size);
+        describeRect(offsetX, offsetY, offsetX + size, offsetY + size);
+        fillPath(color, alpha, texture);
+    }
+
+    /**
+     * Painting is not slower per call than per path here,
+     * so the squares are simply painted in the given order.
+     */
+    @Override
+    public void paintSquares(
+            final float[] rects,
+            final int[] colors,
+            final byte[] alphas,
+            final byte[] textures,
+            final int count
+    ) {
+        for (int i = 0; i < count; i++) {
+            final int rectOffset = i * 4;
+            beginPath();
+            addRect(
+                    rects[rectOffset],
+                    rects[rectOffset + 1],
+                    rects[rectOffset + 2],
+                    rects[rectOffset + 3]
+            );
+            describeRect(
+                    rects[rectOffset],
+                    rects[rectOffset + 1],
+                    rects[rectOffset + 2],
+                    rects[rectOffset + 3]
+            );
+            fillPath(colors[i], alphas[i] & 0xFF, TEXTURES[textures[i]]);
+        }
+    }
+
+    @Override
+    public void paintPolygon(
+            final int color,
+            final Texture texture,
+            final float angleOffset,
+            final int numberOfEdges,
+            final boolean hasCurvedEdge,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        float lastX = 0f;
+        float lastY = 0f;
+
+        beginPath();
+
+        // Rotates the unit vertices by the angle offset.
+        final double[] unitVertices = PolygonTemplates.getUnitVertices(numberOfEdges);
+        final double offsetCos = Math.cos(angleOffset);
+        final double offsetSin = Math.sin(angleOffset);
+
+        for (int edge = 1; edge <= numberOfEdges; edge++) {
+            final double unitX = unitVertices[(edge - 1) * 2];
+            final double unitY = unitVertices[(edge - 1) * 2 + 1];
+            final float x = (float) (centerX + radius * (unitX * offsetCos - unitY * offsetSin));
+            final float y = (float) (centerY + radius * (unitY * offsetCos + unitX * offsetSin));
+
+            if (edge == 1) {
+                addPoint(x, y);
+                lastX = x;
+                lastY = y;
+            } else if (hasCurvedEdge && edge == 2) {
+                addQuad(
+                        lastX,
+                        lastY,
+                        ((x * 2f) + lastX + centerX) / 4f,
+                        ((y * 2f) + lastY + centerY) / 4f,
+                        x,
+                        y
+                );
+            } else {
+                addPoint(x, y);
+            }
+        }
+
+        describeShape(
+                hasCurvedEdge ? ShadowCache.KIND_CURVED_POLYGON : ShadowCache.KIND_POLYGON,
+                numberOfEdges,
+                angleOffset,
+                centerX,
+                centerY,
+                radius
+        );
+        fillPath(color, color >>> 24, texture);
+    }
+
+    @Override
+    public void paintCircle(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        beginPath();
+        addArc(centerX, centerY, radius, 0f, TWO_PI);
+        describeShape(ShadowCache.KIND_CIRCLE, 0, 0f, centerX, centerY, radius);
+        fillPath(color, color >>> 24, texture);
+    }
+
+    @Override
+    public void paintRoundedSquare(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float width
+    ) {
+        final float cornerRadius = width / 5f;
+        final float left = centerX - width + cornerRadius;
+        final float top = centerY - width + cornerRadius;
+        final float right = centerX + width - cornerRadius;
+        final float bottom = centerY + width - cornerRadius;
+        final float quarter = TWO_PI / 4f;
+
+        beginPath();
+        addArc(right, bottom, cornerRadius, 0f, quarter);
+        addArc(left, bottom, cornerRadius, quarter, quarter);
+        addArc(left, top, cornerRadius, quarter * 2f, quarter);
+        addArc(right, top, cornerRadius, quarter * 3f, quarter);
+        describeShape(ShadowCache.KIND_ROUNDED_SQUARE, 0, 0f, centerX, centerY, width);
+        fillPath(color, color >>> 24, texture);
+    }
+
+    @Override
+    public void paintChars(final String string, final int color) {
+        if (string.length() == 0 || mGlyphRasterizer == null) return;
+
+        final long startTime = System.nanoTime();
+        drawChars(string, color);
+        Metrics.GLYPH.recordSince(startTime);
+    }
+
+    private void drawChars(final String string, final int color) {
+        final int numberOfPixels = mImageSize * mImageSize;
+        if (mGlyphCoverage == null || mGlyphCoverage.length < numberOfPixels) {
+            mGlyphCoverage = new byte[numberOfPixels];
+        } else {
+            Arrays.fill(mGlyphCoverage, 0, numberOfPixels, (byte) 0);
+        }
+
+        mGlyphRasterizer.rasterize(string, mImageSize, mGlyphCoverage);
+
+        // Only the bounds of the glyphs need to be composited.
+        int minX = mImageSize;
+        int minY = mImageSize;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < mImageSize; y++) {
+            final int rowOffset = y * mImageSize;
+            for (int x = 0; x < mImageSize; x++) {
+                if (mGlyphCoverage[rowOffset + x] != 0) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    if (y < minY) minY = y;
+                    maxY = y;
+                }
+            }
+        }
+        if (maxX < 0) return;
+
+        mShapeKind = -1;
+        if (!prepareMask(minX, minY, maxX + 1, maxY + 1)) return;
+
+        for (int row = 0; row < mMaskHeight; row++) {
+            final int y = mMaskTop + row;
+            if (y < 0 || y >= mImageSize) continue;
+            for (int column = 0; column < mMaskWidth; column++) {
+                final int x = mMaskLeft + column;
+                if (x < 0 || x >= mImageSize) continue;
+                mMask[row * mMaskWidth + column] =
+                        (mGlyphCoverage[y * mImageSize + x] & 0xFF) / 255f;
+            }
+        }
+
+        drawMask(color, CHAR_ALPHA, Texture.NONE);
+    }
+
+    /**
+     * Alpha value of character that will be drawn on top of the picture
+     */
+    private static final int CHAR_ALPHA = 255;
+
+    /*
+    Path construction
+     */
+
+    private void describeShape(
+            final int kind,
+            final int numberOfEdges,
+            final float angle,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        mShapeKind = kind;
+        mShapeEdges = numberOfEdges;
+        mShapeAngle = angle;
+        mShapeCenterX = centerX;
+        mShapeCenterY = centerY;
+        mShapeRadius = radius;
+    }
+
+    /**
+     * Describes a square as a polygon with 4 edges that is turned by 45 degrees
+     */
+    private void describeRect(
+            final float left,
+            final float top,
+            final float right,
+            final float bottom
+    ) {
+        if (right - left != bottom - top) {
+            mShapeKind = -1;
+            return;
+        }
+        describeShape(
+                ShadowCache.KIND_POLYGON,
+                4,
+                TWO_PI / 8f,
+                (left + right) / 2f,
+                (top + bottom) / 2f,
+                (right - left) / (float) Math.sqrt(2.0)
+        );
+    }
+
+    private void beginPath() {
+        mPathLength = 0;
+        mPathMinX = Float.MAX_VALUE;
+        mPathMinY = Float.MAX_VALUE;
+        mPathMaxX = -Float.MAX_VALUE;
+        mPathMaxY = -Float.MAX_VALUE;
+    }
+
+    private void addPoint(final float x, final float y) {
+        if (mPathLength == mPathX.length) {
+            mPathX = Arrays.copyOf(mPathX, mPathLength * 2);
+            mPathY = Arrays.copyOf(mPathY, mPathLength * 2);
+        }
+        mPathX[mPathLength] = x;
+        mPathY[mPathLength] = y;
+        mPathLength++;
+
+        if (x < mPathMinX) mPathMinX = x;
+        if (x > mPathMaxX) mPathMaxX = x;
+        if (y < mPathMinY) mPathMinY = y;
+        if (y > mPathMaxY) mPathMaxY = y;
+    }
+
+    private void addRect(final float left, final float top, final float right, final float bottom) {
+        addPoint(left, top);
+        addPoint(right, top);
+        addPoint(right, bottom);
+        addPoint(left, bottom);
+    }
+
+    /**
+     * Adds a flattened quadratic curve; the start point is expected to be in the path already
+     */
+    private void addQuad(
+            final float startX,
+            final float startY,
+            final float controlX,
+            final float controlY,
+            final float endX,
+            final float endY
+    ) {
+        final float deviationX = startX - 2f * controlX + endX;
+        final float deviationY = startY - 2f * controlY + endY;
+        final float deviation =
+                (float) Math.sqrt(deviationX * deviationX + deviationY * deviationY);
+        final int segments = Math.max(
+                2,
+                (int) Math.ceil(Math.sqrt(deviation / (8f * CURVE_TOLERANCE)))
+        );
+
+        for (int i = 1; i <= segments; i++) {
+            final float t = i / (float) segments;
+            final float u = 1f - t;
+            addPoint(
+                    u * u * startX + 2f * u * t * controlX + t * t * endX,
+                    u * u * startY + 2f * u * t * controlY + t * t * endY
+            );
+        }
+    }
+
+    /**
+     * Adds the points of a flattened, clockwise arc including its start and end point
+     */
+    private void addArc(
+            final float centerX,
+            final float centerY,
+            final float radius,
+            final float startAngle,
+            final float sweepAngle
+    ) {
+        final int segments = getArcSegments(radius, sweepAngle);
+        for (int i = 0; i <= segments; i++) {
+            final double angle = startAngle + sweepAngle * i / (double) segments;
+            addPoint(
+                    (float) (centerX + radius * Math.cos(angle)),
+                    (float) (centerY + radius * Math.sin(angle))
+            );
+        }
+    }
+
+    private static int getArcSegments(final float radius, final float sweepAngle) {
+        if (radius <= CURVE_TOLERANCE) return 4;
+        final double maxStep = 2.0 * Math.acos(1.0 - CURVE_TOLERANCE / radius);
+        return Math.max(4, Math.min(4096, (int) Math.ceil(Math.abs(sweepAngle) / maxStep)));
+    }
+
+    /*
+    Rasterisation
+     */
+
+    private void fillPath(final int color, final int alpha, final Texture texture) {
+        if (mPathLength < 3) return;
+
+        if (!prepareMask(
+                (int) Math.floor(mPathMinX),
+                (int) Math.floor(mPathMinY),
+                (int) Math.ceil(mPathMaxX),
+                (int) Math.ceil(mPathMaxY)
+        )) {
+            return;
+        }
+
+        rasterizePath();
+
+        drawMask(color, alpha, Texture.NONE);
+        if (texture != Texture.NONE) drawMask(color, alpha, texture);
+    }
+
+    /**
+     * Determines and clears the mask region for a shape with the given bounds;
+     * the region contains all pixels that are needed for the shape and its shadow on the canvas
+     *
+     * @return False, if neither the shape nor its shadow are visible
+     */
+    private boolean prepareMask(final int left, final int top, final int right, final int bottom) {
+        // Visible part of the shape:
+        int maskLeft = Math.max(left, mClipLeft);
+        int maskTop = Math.max(top, mClipTop);
+        int maskRight = Math.min(right, mClipRight);
+        int maskBottom = Math.min(bottom, mClipBottom);
+        boolean isVisible = maskLeft < maskRight && maskTop < maskBottom;
+
+        if (mHasShadows) {
+            final int extent = getBlurExtent();
+
+            // Visible part of the shadow:
+            final int shadowLeft = Math.max(left + mShadowOffsetX - extent, mClipLeft);
+            final int shadowTop = Math.max(top + mShadowOffsetY - extent, mClipTop);
+            final int shadowRight = Math.min(right + mShadowOffsetX + extent, mClipRight);
+            final int shadowBottom = Math.min(bottom + mShadowOffsetY + extent, mClipBottom);
+
+            if (shadowLeft < shadowRight && shadowTop < shadowBottom) {
+                // Mask pixels that are blurred into the visible part of the shadow:
+                final int sourceLeft = shadowLeft - mShadowOffsetX - extent;
+                final int sourceTop = shadowTop - mShadowOffsetY - extent;
+                final int sourceRight = shadowRight - mShadowOffsetX + extent;
+                final int sourceBottom = shadowBottom - mShadowOffsetY + extent;
+
+                if (isVisible) {
+                    maskLeft = Math.min(maskLeft, sourceLeft);
+                    maskTop = Math.min(maskTop, sourceTop);
+                    maskRight = Math.max(maskRight, sourceRight);
+                    maskBottom = Math.max(maskBottom, sourceBottom);
+                } else {
+                    maskLeft = sourceLeft;
+                    maskTop = sourceTop;
+                    maskRight = sourceRight;
+                    maskBottom = sourceBottom;
+                }
+                isVisible = true;
+            }
+        }
+
+        if (!isVisible) return false;
+
+        mMaskLeft = maskLeft;
+        mMaskTop = maskTop;
+        mMaskWidth = maskRight - maskLeft;
+        mMaskHeight = maskBottom - maskTop;
+
+        final int maskSize = mMaskWidth * mMaskHeight;
+        if (mMask.length < maskSize) {
+            mMask = new float[maskSize];
+        } else {
+            Arrays.fill(mMask, 0, maskSize, 0f);
+        }
+        return true;
+    }
+
+    /**
+     * Accumulates the coverage of the current path in the mask
+     */
+    private void rasterizePath() {
+        final float weight = 1f / SUB_SCANLINES;
+        final int firstRow = Math.max(0, (int) Math.floor(mPathMinY) - mMaskTop);
+        final int lastRow = Math.min(mMaskHeight - 1, (int) Math.ceil(mPathMaxY) - mMaskTop);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            final int rowOffset = row * mMaskWidth;
+
+            for (int subScanline = 0; subScanline < SUB_SCANLINES; subScanline++) {
+                final float sampleY = mMaskTop + row + (subScanline + 0.5f) * weight;
+                final int numberOfCrossings = findCrossings(sampleY);
+
+                int winding = 0;
+                float spanStart = 0f;
+                for (int i = 0; i < numberOfCrossings; i++) {
+                    final int previousWinding = winding;
+                    winding += mCrossingWinding[i];
+
+                    if (previousWinding == 0 && winding != 0) {
+                        spanStart = mCrossingX[i];
+                    } else if (previousWinding != 0 && winding == 0) {
+                        addSpan(rowOffset, spanStart, mCrossingX[i], weight);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores all intersections of the closed path with the given horizontal line,
+     * sorted by their x coordinate
+     *
+     * @return Number of intersections
+     */
+    private int findCrossings(final float sampleY) {
+        int numberOfCrossings = 0;
+
+        for (int i = 0; i < mPathLength; i++) {
+            final int next = (i + 1 == mPathLength) ? 0 : i + 1;
+            final float y0 = mPathY[i];
+            final float y1 = mPathY[next];
+
+            final int winding;
+            if (y0 <= sampleY && y1 > sampleY) winding = 1;
+            else if (y1 <= sampleY && y0 > sampleY) winding = -1;
+            else continue;
+
+            final float x0 = mPathX[i];
+            final float x = x0 + (sampleY - y0) * (mPathX[next] - x0) / (y1 - y0);
+
+            if (numberOfCrossings == mCrossingX.length) {
+                mCrossingX = Arrays.copyOf(mCrossingX, numberOfCrossings * 2);
+                mCrossingWinding = Arrays.copyOf(mCrossingWinding, numberOfCrossings * 2);
+            }
+
+            // Insertion sort; there are only a handful of crossings per line.
+            int position = numberOfCrossings;
+            while (position > 0 && mCrossingX[position - 1] > x) {
+                mCrossingX[position] = mCrossingX[position - 1];
+                mCrossingWinding[position] = mCrossingWinding[position - 1];
+                position--;
+            }
+            mCrossingX[position] = x;
+            mCrossingWinding[position] = winding;
+            numberOfCrossings++;
+        }
+
+        return numberOfCrossings;
+    }
+
+    /**
+     * Coverage is calculated in canvas coordinates,
+     * so that it does not depend on the position of the mask
+     */
+    private void addSpan(
+            final int rowOffset,
+            final float startX,
+            final float endX,
+            final float weight
+    ) {
+        final int maskRight = mMaskLeft + mMaskWidth;
+        final float start = Math.max(startX, mMaskLeft);
+        final float end = Math.min(endX, maskRight);
+        if (end <= start) return;
+
+        final int startPixel = (int) Math.floor(start);
+        final int endPixel = (int) Math.floor(end);
+        final int offset = rowOffset - mMaskLeft;
+
+        if (startPixel == endPixel) {
+            mMask[offset + startPixel] += (end - start) * weight;
+            return;
+        }
+
+        mMask[offset + startPixel] += (startPixel + 1 - start) * weight;
+        for (int x = startPixel + 1; x < endPixel; x++) {
+            mMask[offset + x] += weight;
+        }
+        if (endPixel < maskRight) mMask[offset + endPixel] += (end - endPixel) * weight;
+    }
+
+    /*
+    Compositing
+     */
+
+    /**
+     * Composites the current mask onto the canvas, preceded by its shadow
+     *
+     * @param color   Straight ARGB colour; ignored for textured passes
+     * @param alpha   Paint alpha that replaces the alpha of the colour
+     * @param texture Texture to sample instead of the colour
+     */
+    private void drawMask(final int color, final int alpha, final Texture texture) {
+        // Shadow pixels below an opaque fill would be painted over right away.
+        if (mHasShadows) drawShadow(texture == Texture.NONE && alpha == 0xFF);
+
+        final RasterTexture rasterTexture;
+        if (texture == Texture.NONE) {
+            rasterTexture = null;
+        } else {
+            if (mTextureProvider == null) return;
+            rasterTexture = mTextureProvider.getRasterTexture(texture, mPixelOrder);
+            if (rasterTexture == null) return;
+        }
+
+        final int straightColor = toPixelOrder((color & 0x00FFFFFF) | (alpha << 24), mPixelOrder);
+
+        final int left = Math.max(mMaskLeft, mClipLeft);
+        final int top = Math.max(mMaskTop, mClipTop);
+        final int right = Math.min(mMaskLeft + mMaskWidth, mClipRight);
+        final int bottom = Math.min(mMaskTop + mMaskHeight, mClipBottom);
+
+        for (int y = top; y < bottom; y++) {
+            final int maskOffset = (y - mMaskTop) * mMaskWidth - mMaskLeft;
+            final int pixelOffset = y * mImageSize;
+
+            for (int x = left; x < right; x++) {
+                final float coverage = mMask[maskOffset + x];
+                if (coverage <= 0f) continue;
+
+                final int sourceAlpha = (int) (Math.min(coverage, 1f) * alpha + 0.5f);
+                if (sourceAlpha == 0) continue;
+
+                final int source;
+                if (rasterTexture == null) {
+                    source = premultiply((straightColor & 0x00FFFFFF) | (sourceAlpha << 24));
+                } else {
+                    source = scale(rasterTexture.sample(x, y), sourceAlpha);
+                }
+                mPixels[pixelOffset + x] = blend(mPixels[pixelOffset + x], source);
+            }
+        }
+    }
+
+    /**
+     * @param skipsCoveredPixels True, if fully covered pixels of the mask will be painted opaquely
+     */
+    private void drawShadow(final boolean skipsCoveredPixels) {
+        final long startTime = System.nanoTime();
+        if (mShadowQuality != ShadowCache.Quality.EXACT && mShapeKind >= 0 && mShapeRadius > 0f) {
+            drawCachedShadow(skipsCoveredPixels);
+        } else {
+            drawExactShadow(skipsCoveredPixels);
+        }
+        Metrics.SHADOW.recordSince(startTime);
+    }
+
+    /**
+     * Blurs the mask of the current shape at full resolution
+     */
+    private void drawExactShadow(final boolean skipsCoveredPixels) {
+        final int maskSize = mMaskWidth * mMaskHeight;
+        if (mShadowMask.length < maskSize) mShadowMask = new int[maskSize];
+        for (int i = 0; i < maskSize; i++) {
+            mShadowMask[i] = (int) (Math.min(mMask[i], 1f) * SHADOW_ONE + 0.5f);
+        }
+
+        final int[] boxRadii = getBoxRadii(getBlurSigma());
+        for (final int boxRadius : boxRadii) {
+            if (boxRadius > 0) blurShadowMask(boxRadius);
+        }
+
+        final int shadowAlpha = SHADOW_COLOR >>> 24;
+        final int shadowColor = toPixelOrder(SHADOW_COLOR, mPixelOrder) & 0x00FFFFFF;
+
+        final int left = Math.max(mMaskLeft + mShadowOffsetX, mClipLeft);
+        final int top = Math.max(mMaskTop + mShadowOffsetY, mClipTop);
+        final int right = Math.min(mMaskLeft + mMaskWidth + mShadowOffsetX, mClipRight);
+        final int bottom = Math.min(mMaskTop + mMaskHeight + mShadowOffsetY, mClipBottom);
+
+        for (int y = top; y < bottom; y++) {
+            final int maskOffset =
+                    (y - mShadowOffsetY - mMaskTop) * mMaskWidth - mMaskLeft - mShadowOffsetX;
+            final int pixelOffset = y * mImageSize;
+
+            for (int x = left; x < right; x++) {
+                final int coverage = mShadowMask[maskOffset + x];
+                if (coverage <= 0) continue;
+                if (skipsCoveredPixels && isCovered(x, y)) continue;
+
+                final int sourceAlpha = (coverage * shadowAlpha + SHADOW_ONE / 2) >> 16;
+                if (sourceAlpha == 0) continue;
+
+                mPixels[pixelOffset + x] = blend(
+                        mPixels[pixelOffset + x],
+                        premultiply(shadowColor | (sourceAlpha << 24))
+                );
+            }
+        }
+    }
+
+    /**
+     * Samples a blurred mask from the ShadowCache, turned and scaled onto the current shape
+     */
+    private void drawCachedShadow(final boolean skipsCoveredPixels) {
+        final ShadowCache.Mask mask = ShadowCache.getInstance().getMask(
+                mShapeKind,
+                mShapeEdges,
+                getBlurSigma(),
+                mShapeRadius,
+                mShadowQuality
+        );
+
+        final float scale = mask.getShapeRadius() / mShapeRadius;
+        final float maskCenter = mask.getSize() / 2f;
+        final float cos = (float) Math.cos(mShapeAngle);
+        final float sin = (float) Math.sin(mShapeAngle);
+
+        final float centerX = mShapeCenterX + mShadowOffsetX;
+        final float centerY = mShapeCenterY + mShadowOffsetY;
+        // Turned masks reach up to the corners of their square.
+        final float reach = maskCenter / scale * (mShapeAngle == 0f ? 1f : (float) Math.sqrt(2.0));
+
+        final int left = Math.max((int) Math.floor(centerX - reach), mClipLeft);
+        final int top = Math.max((int) Math.floor(centerY - reach), mClipTop);
+        final int right = Math.min((int) Math.ceil(centerX + reach), mClipRight);
+        final int bottom = Math.min((int) Math.ceil(centerY + reach), mClipBottom);
+
+        final int shadowAlpha = SHADOW_COLOR >>> 24;
+        final int shadowColor = toPixelOrder(SHADOW_COLOR, mPixelOrder) & 0x00FFFFFF;
+        final int solidShadow = premultiply(shadowColor | (shadowAlpha << 24));
+
+        final byte[] coverage = mask.getCoverage();
+        final int maskSize = mask.getSize();
+        // Mask coordinates move linearly along a row.
+        final float stepX = cos * scale;
+        final float stepY = -sin * scale;
+
+        for (int y = top; y < bottom; y++) {
+            final float distanceY = y + 0.5f - centerY;
+            final float distanceX = left + 0.5f - centerX;
+            final float rowMaskX = (distanceX * cos + distanceY * sin) * scale + maskCenter;
+            final float rowMaskY = (distanceY * cos - distanceX * sin) * scale + maskCenter;
+
+            // Only the columns that map into the mask can be covered.
+            final float[] span = mCachedShadowSpan;
+            span[0] = 0f;
+            span[1] = right - left - 1;
+            clipSpan(span, rowMaskX, stepX, maskSize);
+            clipSpan(span, rowMaskY, stepY, maskSize);
+            if (span[1] < span[0]) continue;
+
+            final int firstColumn = (int) Math.ceil(span[0]);
+            final int lastColumn = (int) Math.floor(span[1]);
+            final int pixelOffset = y * mImageSize + left;
+
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                if (skipsCoveredPixels && isCovered(left + column, y)) continue;
+
+                final float sampleX = rowMaskX + column * stepX - 0.5f;
+                final float sampleY = rowMaskY + column * stepY - 0.5f;
+                final int maskX = (int) Math.floor(sampleX);
+                final int maskY = (int) Math.floor(sampleY);
+
+                final float value;
+                if (maskX >= 0 && maskY >= 0 && maskX < maskSize - 1 && maskY < maskSize - 1) {
+                    final int index = maskY * maskSize + maskX;
+                    final int topLeft = coverage[index] & 0xFF;
+                    final int topRight = coverage[index + 1] & 0xFF;
+                    final int bottomLeft = coverage[index + maskSize] & 0xFF;
+                    final int bottomRight = coverage[index + maskSize + 1] & 0xFF;
+
+                    if ((topLeft & topRight & bottomLeft & bottomRight) == 0xFF) {
+                        mPixels[pixelOffset + column] =
+                                blend(mPixels[pixelOffset + column], solidShadow);
+                        continue;
+                    }
+
+                    final float fractionX = sampleX - maskX;
+                    final float topValue = topLeft + (topRight - topLeft) * fractionX;
+                    final float bottomValue = bottomLeft + (bottomRight - bottomLeft) * fractionX;
+                    value = topValue + (bottomValue - topValue) * (sampleY - maskY);
+                } else {
+                    value = mask.sample(sampleX + 0.5f, sampleY + 0.5f);
+                }
+                if (value <= 0f) continue;
+
+                final int sourceAlpha = (int) (value * shadowAlpha / 255f + 0.5f);
+                if (sourceAlpha == 0) continue;
+
+                mPixels[pixelOffset + column] = blend(
+                        mPixels[pixelOffset + column],
+                        premultiply(shadowColor | (sourceAlpha << 24))
+                );
+            }
+        }
+    }
+
+    private boolean isCovered(final int x, final int y) {
+        final int column = x - mMaskLeft;
+        final int row = y - mMaskTop;
+        return column >= 0 && row >= 0 && column < mMaskWidth && row < mMaskHeight
+                && mMask[row * mMaskWidth + column] >= 1f;
+    }
+
+    /**
+     * Narrows a span of columns to those where start + column * step lies inside the mask,
+     * including the half pixel border that bilinear sampling reaches into
+     */
+    private static void clipSpan(
+            final float[] span,
+            final float start,
+            final float step,
+            final int maskSize
+    ) {
+        final float min = -0.5f;
+        final float max = maskSize + 0.5f;
+
+        if (step == 0f) {
+            if (start < min || start > max) span[1] = -1f;
+            return;
+        }
+
+        final float first = (min - start) / step;
+        final float last = (max - start) / step;
+        span[0] = Math.max(span[0], Math.min(first, last));
+        span[1] = Math.min(span[1], Math.max(first, last));
+    }
+
+    private float getBlurSigma() {
+        return ShadowCache.toSigma(mShadowBlurRadius);
+    }
+
+    /**
+     * @return Distance in pixels that the shadow blur spreads a shape
+     */
+    private int getBlurExtent() {
+        int extent = 0;
+        for (final int boxRadius : getBoxRadii(getBlurSigma())) extent += boxRadius;
+        return extent;
+    }
+
+    /**
+     * @return Radii of the box blurs that approximate a Gaussian blur with the given sigma
+     */
+    static int[] getBoxRadii(final float sigma) {
+        final int[] radii = new int[BLUR_PASSES];
+        if (sigma <= 0f) return radii;
+
+        final double idealWidth = Math.sqrt((12.0 * sigma * sigma / BLUR_PASSES) + 1.0);
+        int lowerWidth = (int) Math.floor(idealWidth);
+        if (lowerWidth % 2 == 0) lowerWidth--;
+        final int upperWidth = lowerWidth + 2;
+
+        final double idealLowerPasses =
+                (12.0 * sigma * sigma
+                        - BLUR_PASSES * lowerWidth * lowerWidth
+                        - 4.0 * BLUR_PASSES * lowerWidth
+                        - 3.0 * BLUR_PASSES)
+                        / (-4.0 * lowerWidth - 4.0);
+        final long lowerPasses = Math.round(idealLowerPasses);
+
+        for (int i = 0; i < BLUR_PASSES; i++) {
+            radii[i] = ((i < lowerPasses ? lowerWidth : upperWidth) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * Applies one horizontal and one vertical box blur to the shadow mask;
+     * pixels outside of the mask count as uncovered.
+     * Integer sums are exact, so every blurred value only depends on the pixels around it,
+     * not on the position of the mask.
+     */
+    private void blurShadowMask(final int radius) {
+        final int lineLength = Math.max(mMaskWidth, mMaskHeight);
+        if (mBlurLine.length < lineLength) mBlurLine = new int[lineLength];
+        final int divisor = 2 * radius + 1;
+
+        for (int row = 0; row < mMaskHeight; row++) {
+            final int rowOffset = row * mMaskWidth;
+            System.arraycopy(mShadowMask, rowOffset, mBlurLine, 0, mMaskWidth);
+            blurLine(mBlurLine, mMaskWidth, radius, divisor, mShadowMask, rowOffset, 1);
+        }
+
+        for (int column = 0; column < mMaskWidth; column++) {
+            for (int row = 0; row < mMaskHeight; row++) {
+                mBlurLine[row] = mShadowMask[row * mMaskWidth + column];
+            }
+            blurLine(mBlurLine, mMaskHeight, radius, divisor, mShadowMask, column, mMaskWidth);
+        }
+    }
+
+    static void blurLine(
+            final int[] line,
+            final int length,
+            final int radius,
+            final int divisor,
+            final int[] destination,
+            final int offset,
+            final int stride
+    ) {
+        int sum = 0;
+        for (int i = 0; i < Math.min(radius, length); i++) sum += line[i];
+
+        for (int i = 0; i < length; i++) {
+            final int entering = i + radius;
+            final int leaving = i - radius - 1;
+            if (entering < length) sum += line[entering];
+            if (leaving >= 0) sum -= line[leaving];
+            destination[offset + i * stride] = (sum + divisor / 2) / divisor;
+        }
+    }
+
+    /*
+    Pixel arithmetic
+     */
+
+    /**
+     * @param argb Straight 0xAARRGGBB colour
+     * @return The same colour in the given channel order
+     */
+    static int toPixelOrder(final int argb, final PixelOrder order) {
+        if (order == PixelOrder.ARGB) return argb;
+        return (argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16);
+    }
+
+    static int premultiply(final int pixel) {
+        final int alpha = pixel >>> 24;
+        if (alpha == 0xFF) return pixel;
+        return scale(pixel | 0xFF000000, alpha);
+    }
+
+    /**
+     * @return Premultiplied pixel with all channels multiplied by alpha / 255
+     */
+    private static int scale(final int pixel, final int alpha) {
+        if (alpha == 0xFF) return pixel;
+        return (div255((pixel >>> 24) * alpha) << 24)
+                | (div255(((pixel >> 16) & 0xFF) * alpha) << 16)
+                | (div255(((pixel >> 8) & 0xFF) * alpha) << 8)
+                | div255((pixel & 0xFF) * alpha);
+    }
+
+    /**
+     * Source-over composition of two premultiplied pixels
+     */
+    private static int blend(final int destination, final int source) {
+        final int sourceAlpha = source >>> 24;
+        if (sourceAlpha == 0xFF) return source;
+        if (sourceAlpha == 0) return destination;
+
+        final int inverseAlpha = 0xFF - sourceAlpha;
+        return ((sourceAlpha + div255((destination >>> 24) * inverseAlpha)) << 24)
+                | (blendChannel(source, destination, 16, inverseAlpha) << 16)
+                | (blendChannel(source, destination, 8, inverseAlpha) << 8)
+                | blendChannel(source, destination, 0, inverseAlpha);
+    }
+
+    private static int blendChannel(
+            final int source,
+            final int destination,
+            final int shift,
+            final int inverseAlpha
+    ) {
+        return ((source >> shift) & 0xFF) + div255(((destination >> shift) & 0xFF) * inverseAlpha);
+    }
+
+    /**
+     * @return value / 255, rounded, for values up to 255 * 255
+     */
+    private static int div255(final int value) {
+        final int rounded = value + 128;
+        return (rounded + (rounded >> 8)) >> 8;
+    }
+}
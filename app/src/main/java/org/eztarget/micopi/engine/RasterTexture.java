@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Texture pixels in the premultiplied format of a RasterPainter framebuffer;
+ * sampled with mirrored tiling, like a BitmapShader with TileMode.MIRROR.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class RasterTexture {
+
+    /**
+     * Source of textures for RasterPainters; implementations have to be thread-safe
+     */
+    public interface Provider {
+
+        /**
+         * @return Texture in the given pixel order or null, if it is not available
+         */
+        RasterTexture getRasterTexture(Painter.Texture texture, RasterPainter.PixelOrder order);
+    }
+
+    private final int[] mPixels;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private RasterTexture(final int[] pixels, final int width, final int height) {
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Premultiplies and, if needed, reorders the given pixels in place
+     *
+     * @param argbPixels Non-premultiplied 0xAARRGGBB pixels, e.g. from Bitmap.getPixels();
+     *                   will be owned by the returned texture
+     */
+    public static RasterTexture fromArgb(
+            final int[] argbPixels,
+            final int width,
+            final int height,
+            final RasterPainter.PixelOrder order
+    ) {
+        for (int i = 0; i < width * height; i++) {
+            argbPixels[i] = RasterPainter.premultiply(
+                    RasterPainter.toPixelOrder(argbPixels[i], order)
+            );
+        }
+        return new RasterTexture(argbPixels, width, height);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return Premultiplied pixel at the given canvas coordinate, mirrored into the texture
+     */
+    public int sample(final int x, final int y) {
+        return mPixels[mirror(y, mHeight) * mWidth + mirror(x, mWidth)];
+    }
+
+    private static int mirror(final int coordinate, final int length) {
+        final int period = length * 2;
+        int position = coordinate % period;
+        if (position < 0) position += period;
+        return position < length ? position : period - 1 - position;
+    }
+}
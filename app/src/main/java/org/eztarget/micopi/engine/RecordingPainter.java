@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+/**
+ * Painter that does not paint anything but records all calls into a DisplayList.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class RecordingPainter implements Painter {
+
+    /**
+     * Number of different square sizes that are tried as the cell size of a grid
+     */
+    private static final int MAX_CELL_SIZE_CANDIDATES = 4;
+
+    private final DisplayList mDisplayList;
+
+    private final boolean mCanPaintRoundedSquares;
+
+    /**
+     * @param imageSize              Side length that the generators will calculate with
+     * @param canPaintRoundedSquares Capability of the targets that the recording is meant for;
+     *                               changes the decisions of the PlatesGenerator
+     */
+    public RecordingPainter(final int imageSize, final boolean canPaintRoundedSquares) {
+        mDisplayList = new DisplayList(imageSize);
+        mCanPaintRoundedSquares = canPaintRoundedSquares;
+    }
+
+    /**
+     * @return The recorded operations; recording must not continue afterwards
+     */
+    public DisplayList finish() {
+        mDisplayList.trimToSize();
+        return mDisplayList;
+    }
+
+    @Override
+    public int getImageSize() {
+        return mDisplayList.getImageSize();
+    }
+
+    @Override
+    public boolean canPaintRoundedSquares() {
+        return mCanPaintRoundedSquares;
+    }
+
+    @Override
+    public void paintBackground(final int color) {
+        mDisplayList.add(DisplayList.OP_BACKGROUND, color);
+    }
+
+    @Override
+    public void enableShadows() {
+        mDisplayList.add(DisplayList.OP_ENABLE_SHADOWS, 0);
+    }
+
+    @Override
+    public void setShadowLayer(
+            final float radiusScale,
+            final float offsetFactorX,
+            final float offsetFactorY
+    ) {
+        mDisplayList.add(DisplayList.OP_SHADOW_LAYER, 0);
+        mDisplayList.addFloat(radiusScale);
+        mDisplayList.addFloat(offsetFactorX);
+        mDisplayList.addFloat(offsetFactorY);
+    }
+
+    @Override
+    public void disableShadows() {
+        mDisplayList.add(DisplayList.OP_DISABLE_SHADOWS, 0);
+    }
+
+    @Override
+    public void paintSquare(
+            final int color,
+            final Texture texture,
+            final int alpha,
+            final float x,
+            final float y,
+            final float size
+    ) {
+        mDisplayList.add(DisplayList.OP_SQUARE, color, texture, alpha, 0, false);
+        mDisplayList.addFloat(x);
+        mDisplayList.addFloat(y);
+        mDisplayList.addFloat(size);
+    }
+
+    @Override
+    public void paintSquares(
+            final float[] rects,
+            final int[] colors,
+            final byte[] alphas,
+            final byte[] textures,
+            final int count
+    ) {
+        if (recordGrid(rects, colors, alphas, textures, count)) return;
+
+        mDisplayList.add(DisplayList.OP_SQUARES, 0);
+        mDisplayList.addInt(count);
+        for (int i = 0; i < count; i++) {
+            mDisplayList.addSquareStyle(colors[i], alphas[i], textures[i]);
+        }
+        for (int i = 0; i < count * 4; i++) mDisplayList.addFloat(rects[i]);
+    }
+
+    /**
+     * Records the batch as cells of a grid, if the replay can restore every square exactly
+     *
+     * @return False, if the squares are no cells of one grid
+     */
+    private boolean recordGrid(
+            final float[] rects,
+            final int[] colors,
+            final byte[] alphas,
+            final byte[] textures,
+            final int count
+    ) {
+        final float cellSize = findCellSize(rects, count);
+        if (cellSize <= 0f) return false;
+
+        mDisplayList.add(DisplayList.OP_SQUARE_GRID, 0);
+        mDisplayList.addFloat(cellSize);
+        mDisplayList.addInt(count);
+        for (int i = 0; i < count; i++) {
+            mDisplayList.addGridSquareStyle(
+                    colors[i],
+                    alphas[i],
+                    textures[i],
+                    getGridCell(rects[i * 4], rects[i * 4 + 2], cellSize),
+                    getGridCell(rects[i * 4 + 1], rects[i * 4 + 3], cellSize)
+            );
+        }
+        return true;
+    }
+
+    /**
+     * Squares that are not in the first column have widths that may be off by a rounding error,
+     * so the cell size is calculated back from their left edges
+     *
+     * @return Cell size of the grid of all squares or 0, if there is none
+     */
+    private static float findCellSize(final float[] rects, final int count) {
+        float triedSize = 0f;
+        int triedCount = 0;
+        for (int i = 0; i < count && triedCount < MAX_CELL_SIZE_CANDIDATES; i++) {
+            final float left = rects[i * 4];
+            final float width = rects[i * 4 + 2] - left;
+            if (width <= 0f) return 0f;
+
+            final int column = Math.round(left / width);
+            final float candidate = column == 0 ? rects[i * 4 + 2] : left / column;
+            if (candidate == triedSize) continue;
+
+            triedSize = candidate;
+            triedCount++;
+            if (isGrid(rects, count, candidate)) return candidate;
+        }
+        return 0f;
+    }
+
+    private static boolean isGrid(final float[] rects, final int count, final float cellSize) {
+        for (int i = 0; i < count; i++) {
+            if (getGridCell(rects[i * 4], rects[i * 4 + 2], cellSize) < 0
+                    || getGridCell(rects[i * 4 + 1], rects[i * 4 + 3], cellSize) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Column or row of the square edges in a grid that starts at 0
+     * or -1, if the replay would not calculate exactly the same edges
+     */
+    private static int getGridCell(final float start, final float end, final float cellSize) {
+        final int cell = Math.round(start / cellSize);
+        if (cell < 0 || cell > DisplayList.MAX_GRID_CELL) return -1;
+
+        final float gridStart = cell * cellSize;
+        return gridStart == start && gridStart + cellSize == end ? cell : -1;
+    }
+
+    @Override
+    public void paintPolygon(
+            final int color,
+            final Texture texture,
+            final float angleOffset,
+            final int numberOfEdges,
+            final boolean hasCurvedEdge,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        mDisplayList.add(
+                DisplayList.OP_POLYGON,
+                color,
+                texture,
+                0xFF,
+                numberOfEdges,
+                hasCurvedEdge
+        );
+        mDisplayList.addFloat(angleOffset);
+        mDisplayList.addFloat(centerX);
+        mDisplayList.addFloat(centerY);
+        mDisplayList.addFloat(radius);
+    }
+
+    @Override
+    public void paintCircle(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float radius
+    ) {
+        mDisplayList.add(DisplayList.OP_CIRCLE, color, texture, 0xFF, 0, false);
+        mDisplayList.addFloat(centerX);
+        mDisplayList.addFloat(centerY);
+        mDisplayList.addFloat(radius);
+    }
+
+    @Override
+    public void paintRoundedSquare(
+            final int color,
+            final Texture texture,
+            final float centerX,
+            final float centerY,
+            final float width
+    ) {
+        mDisplayList.add(DisplayList.OP_ROUNDED_SQUARE, color, texture, 0xFF, 0, false);
+        mDisplayList.addFloat(centerX);
+        mDisplayList.addFloat(centerY);
+        mDisplayList.addFloat(width);
+    }
+
+    @Override
+    public void paintChars(final String string, final int color) {
+        final int stringIndex = mDisplayList.addString(string);
+        mDisplayList.add(DisplayList.OP_CHARS, color, Texture.NONE, 0xFF, stringIndex, false);
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Entropy of one picture: the raw digest of the contact data
+ * and the symbols that the generators read, which are the characters of the hash string.
+ * Symbols are read by index like the characters of a String, or in sequence with a cursor;
+ * the raw digest can be read as bytes, ints and floats in the same two ways.
+ * <p/>
+ * A Seed can be derived again and again from different contact data without allocating,
+ * e.g. once per contact of a batch; digests are kept per thread.
+ * Seeds are not thread-safe.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class Seed {
+
+    /**
+     * Hash functions that a Seed can be derived with;
+     * the version is part of every key that identifies a picture
+     */
+    public enum Algorithm {
+        /**
+         * The hash string of all earlier versions:
+         * hexadecimal MD5 without leading zeros, padded with the full name to 32 characters
+         */
+        MD5(1),
+        /**
+         * MurmurHash3 x64 128, not cryptographic but a lot faster;
+         * always 32 hexadecimal symbols
+         */
+        MURMUR3(2);
+
+        private final int mVersion;
+
+        Algorithm(final int version) {
+            mVersion = version;
+        }
+
+        public int getVersion() {
+            return mVersion;
+        }
+    }
+
+    public static final int DIGEST_LENGTH = 16;
+
+    /**
+     * Number of symbols of a full hexadecimal digest
+     */
+    private static final int HEX_LENGTH = DIGEST_LENGTH * 2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Workspace> sWorkspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    private final byte[] mDigest = new byte[DIGEST_LENGTH];
+
+    private char[] mSymbols = new char[HEX_LENGTH];
+
+    private int mLength;
+
+    private Algorithm mAlgorithm = Algorithm.MD5;
+
+    private int mSymbolCursor;
+
+    private int mByteCursor;
+
+    /**
+     * Creates an empty Seed; see derive() and setHashString()
+     */
+    public Seed() {
+    }
+
+    /**
+     * Adapter for callers that still have a hash string, e.g. from
+     * Contact.getMD5EncryptedString(); the symbols are exactly its characters.
+     * The raw digest is not known and reads as zeros.
+     */
+    public static Seed fromHashString(final String hashString) {
+        final Seed seed = new Seed();
+        seed.setHashString(hashString);
+        return seed;
+    }
+
+    /**
+     * Replaces the symbols by the characters of a hash string, see fromHashString()
+     *
+     * @return This Seed
+     */
+    public Seed setHashString(final String hashString) {
+        final int length = hashString.length();
+        ensureCapacity(length);
+        hashString.getChars(0, length, mSymbols, 0);
+        mLength = length;
+        mAlgorithm = Algorithm.MD5;
+        for (int i = 0; i < DIGEST_LENGTH; i++) mDigest[i] = 0;
+        rewind();
+        return this;
+    }
+
+    /**
+     * Hashes the contact data into this Seed;
+     * does not allocate once the buffers are large enough for the data.
+     * The data are combined like they have always been:
+     * full name, email address, phone number, birthday and retry factor,
+     * encoded as ISO-8859-1.
+     *
+     * @return This Seed
+     */
+    public Seed derive(
+            final Algorithm algorithm,
+            final String fullName,
+            final String emailAddress,
+            final String phoneNumber,
+            final String birthday,
+            final int retryFactor
+    ) {
+        final Workspace workspace = sWorkspaces.get();
+        workspace.mInputLength = 0;
+        workspace.append(fullName);
+        workspace.append(emailAddress);
+        workspace.append(phoneNumber);
+        workspace.append(birthday);
+        workspace.append(retryFactor);
+
+        mAlgorithm = algorithm;
+        if (algorithm == Algorithm.MURMUR3) {
+            murmur3(workspace.mInput, workspace.mInputLength, mDigest);
+            setHexSymbols(0);
+        } else {
+            workspace.md5(mDigest);
+
+            // BigInteger.toString(16) of the digest drops all leading zeros.
+            int firstNibble = 0;
+            while (firstNibble < HEX_LENGTH - 1 && getNibble(firstNibble) == 0) firstNibble++;
+            setHexSymbols(firstNibble);
+
+            while (mLength < HEX_LENGTH) appendSymbols(fullName);
+        }
+
+        rewind();
+        return this;
+    }
+
+    public Algorithm getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * @return Number of symbols; the hash string length
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @param index 0 to length() - 1
+     * @return Symbol at the index; the same as charAt() of the hash string
+     */
+    public char getSymbol(final int index) {
+        return mSymbols[index];
+    }
+
+    /**
+     * @param index Any non-negative number; wraps around the digest
+     * @return Unsigned byte of the raw digest, 0 to 255
+     */
+    public int getByte(final int index) {
+        return mDigest[index % DIGEST_LENGTH] & 0xFF;
+    }
+
+    /**
+     * @param index Any non-negative number; wraps around the digest
+     * @return Four bytes of the raw digest, starting at the index, big-endian
+     */
+    public int getInt(final int index) {
+        return (getByte(index) << 24)
+                | (getByte(index + 1) << 16)
+                | (getByte(index + 2) << 8)
+                | getByte(index + 3);
+    }
+
+    /**
+     * @param index Any non-negative number; wraps around the digest
+     * @return Value from 0 (inclusive) to 1 (exclusive) of the int at the index
+     */
+    public float getFloat(final int index) {
+        return (getInt(index) >>> 8) / (float) (1 << 24);
+    }
+
+    /**
+     * Resets the cursors of the symbols and of the raw digest to their starts
+     */
+    public void rewind() {
+        mSymbolCursor = 0;
+        mByteCursor = 0;
+    }
+
+    /**
+     * @return Symbol at the symbol cursor, which moves on by one and wraps around
+     */
+    public char nextSymbol() {
+        final char symbol = mSymbols[mSymbolCursor];
+        mSymbolCursor = (mSymbolCursor + 1) % mLength;
+        return symbol;
+    }
+
+    /**
+     * @return Byte at the digest cursor, which moves on by one
+     */
+    public int nextByte() {
+        final int value = getByte(mByteCursor);
+        mByteCursor = (mByteCursor + 1) % DIGEST_LENGTH;
+        return value;
+    }
+
+    /**
+     * @return Int at the digest cursor, which moves on by four
+     */
+    public int nextInt() {
+        final int value = getInt(mByteCursor);
+        mByteCursor = (mByteCursor + 4) % DIGEST_LENGTH;
+        return value;
+    }
+
+    /**
+     * @return Float at the digest cursor, which moves on by four
+     */
+    public float nextFloat() {
+        final float value = getFloat(mByteCursor);
+        mByteCursor = (mByteCursor + 4) % DIGEST_LENGTH;
+        return value;
+    }
+
+    /**
+     * @return The hash string; allocates
+     */
+    @Override
+    public String toString() {
+        return new String(mSymbols, 0, mLength);
+    }
+
+    private int getNibble(final int index) {
+        final int value = mDigest[index >> 1] & 0xFF;
+        return (index & 1) == 0 ? value >> 4 : value & 0xF;
+    }
+
+    private void setHexSymbols(final int firstNibble) {
+        mLength = 0;
+        for (int i = firstNibble; i < HEX_LENGTH; i++) {
+            mSymbols[mLength++] = HEX_DIGITS[getNibble(i)];
+        }
+    }
+
+    private void appendSymbols(final String string) {
+        final int length = string.length();
+        if (length == 0) {
+            // Only reachable for invalid names, which the contact never has.
+            mSymbols[mLength++] = ' ';
+            return;
+        }
+
+        ensureCapacity(mLength + length);
+        string.getChars(0, length, mSymbols, mLength);
+        mLength += length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (mSymbols.length >= capacity) return;
+
+        final char[] symbols = new char[Math.max(capacity, mSymbols.length * 2)];
+        System.arraycopy(mSymbols, 0, symbols, 0, mLength);
+        mSymbols = symbols;
+    }
+
+    /*
+    HASH FUNCTIONS
+     */
+
+    /**
+     * Per-thread input buffer and MD5 digest
+     */
+    private static class Workspace {
+
+        private byte[] mInput = new byte[128];
+
+        private int mInputLength;
+
+        private final MessageDigest mMd5;
+
+        private final byte[] mDigits = new byte[11];
+
+        Workspace() {
+            try {
+                mMd5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform has to provide MD5.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Appends the string like String.valueOf() and getBytes("ISO-8859-1") would,
+         * including "null" for null; characters outside of ISO-8859-1 become '?'
+         */
+        void append(final String string) {
+            final String value = string == null ? "null" : string;
+            final int length = value.length();
+            ensureCapacity(mInputLength + length);
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                mInput[mInputLength++] = (byte) (c <= 0xFF ? c : '?');
+            }
+        }
+
+        /**
+         * Appends the decimal digits of the number like Integer.toString()
+         */
+        void append(final int number) {
+            long value = number;
+            if (value < 0) {
+                ensureCapacity(mInputLength + 1);
+                mInput[mInputLength++] = '-';
+                value = -value;
+            }
+
+            int count = 0;
+            do {
+                mDigits[count++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+
+            ensureCapacity(mInputLength + count);
+            while (count > 0) mInput[mInputLength++] = mDigits[--count];
+        }
+
+        void md5(final byte[] digest) {
+            mMd5.update(mInput, 0, mInputLength);
+            try {
+                mMd5.digest(digest, 0, DIGEST_LENGTH);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (mInput.length >= capacity) return;
+
+            final byte[] input = new byte[Math.max(capacity, mInput.length * 2)];
+            System.arraycopy(mInput, 0, input, 0, mInputLength);
+            mInput = input;
+        }
+    }
+
+    private static final long MURMUR3_C1 = 0x87c37b91114253d5L;
+
+    private static final long MURMUR3_C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * MurmurHash3_x64_128 with seed 0, written big-endian into the digest
+     */
+    private static void murmur3(final byte[] input, final int length, final byte[] digest) {
+        long h1 = 0L;
+        long h2 = 0L;
+
+        final int blockEnd = length & ~15;
+        for (int i = 0; i < blockEnd; i += 16) {
+            long k1 = getLittleEndianLong(input, i);
+            long k2 = getLittleEndianLong(input, i + 8);
+
+            k1 *= MURMUR3_C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= MURMUR3_C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= MURMUR3_C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= MURMUR3_C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0L;
+        long k2 = 0L;
+        final int tailLength = length & 15;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 ^= (input[blockEnd + i] & 0xFFL) << ((i - 8) * 8);
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 ^= (input[blockEnd + i] & 0xFFL) << (i * 8);
+        }
+        if (tailLength > 8) {
+            k2 *= MURMUR3_C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= MURMUR3_C1;
+            h2 ^= k2;
+        }
+        if (tailLength > 0) {
+            k1 *= MURMUR3_C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= MURMUR3_C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        for (int i = 0; i < 8; i++) {
+            digest[i] = (byte) (h1 >>> (56 - i * 8));
+            digest[i + 8] = (byte) (h2 >>> (56 - i * 8));
+        }
+    }
+
+    private static long getLittleEndianLong(final byte[] bytes, final int offset) {
+        long value = 0L;
+        for (int i = 7; i >= 0; i--) value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        return value;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
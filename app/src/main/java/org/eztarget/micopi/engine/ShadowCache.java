@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Approximate shape shadows that are blurred once at a reduced resolution
+ * and then only transformed onto the canvas.
+ * A blurred shape can be rotated, scaled and moved without changing its look,
+ * as long as the blur scales with it, so the masks are keyed by shape kind, number of edges
+ * and blur radius relative to the shape size only.
+ * Every shape of a picture and of all following pictures with similar shapes reuses them.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class ShadowCache {
+
+    /**
+     * Resolution of the cached shadows
+     */
+    public enum Quality {
+        /**
+         * No cache; every shadow is blurred at full resolution
+         */
+        EXACT(0),
+        HIGH(128),
+        MEDIUM(64),
+        LOW(32);
+
+        /**
+         * Radius of the shape in mask pixels
+         */
+        private final int mShapeRadius;
+
+        Quality(final int shapeRadius) {
+            mShapeRadius = shapeRadius;
+        }
+    }
+
+    static final int KIND_POLYGON = 0;
+
+    static final int KIND_CURVED_POLYGON = 1;
+
+    static final int KIND_CIRCLE = 2;
+
+    static final int KIND_ROUNDED_SQUARE = 3;
+
+    /**
+     * Number of sigma steps per mask pixel
+     */
+    private static final int SIGMA_STEPS = 2;
+
+    /**
+     * Blurs wider than this multiple of the shape radius are clamped
+     */
+    private static final float MAX_SIGMA_RATIO = 2f;
+
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+
+    private static ShadowCache sInstance;
+
+    /**
+     * Masks in access order; the least recently used ones are removed above MAX_BYTES
+     */
+    private final LinkedHashMap<Long, Mask> mMasks =
+            new LinkedHashMap<Long, Mask>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Mask> eldest) {
+                    if (mByteCount <= MAX_BYTES) return false;
+                    mByteCount -= eldest.getValue().getByteCount();
+                    return true;
+                }
+            };
+
+    private int mByteCount;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    public static synchronized ShadowCache getInstance() {
+        if (sInstance == null) sInstance = new ShadowCache();
+        return sInstance;
+    }
+
+    /**
+     * Blurred coverage of a shape around the centre of a square mask
+     */
+    public static class Mask {
+
+        private final byte[] mCoverage;
+
+        private final int mSize;
+
+        private final int mShapeRadius;
+
+        Mask(final byte[] coverage, final int size, final int shapeRadius) {
+            mCoverage = coverage;
+            mSize = size;
+            mShapeRadius = shapeRadius;
+        }
+
+        /**
+         * @return Coverage values, 0 to 255, of mSize * mSize pixels without row padding
+         */
+        public byte[] getCoverage() {
+            return mCoverage;
+        }
+
+        /**
+         * @return Side length of the mask
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return Radius of the shape in mask pixels; the shape is centred in the mask
+         */
+        public int getShapeRadius() {
+            return mShapeRadius;
+        }
+
+        int getByteCount() {
+            return mCoverage.length;
+        }
+
+        /**
+         * Bilinear sample with pixel centres at integer + 0.5
+         *
+         * @return Coverage, 0 to 255, at the given mask coordinate
+         */
+        float sample(final float x, final float y) {
+            final float sampleX = x - 0.5f;
+            final float sampleY = y - 0.5f;
+            final int left = (int) Math.floor(sampleX);
+            final int top = (int) Math.floor(sampleY);
+            final float fractionX = sampleX - left;
+            final float fractionY = sampleY - top;
+
+            final float topValue = getValue(left, top) * (1f - fractionX)
+                    + getValue(left + 1, top) * fractionX;
+            final float bottomValue = getValue(left, top + 1) * (1f - fractionX)
+                    + getValue(left + 1, top + 1) * fractionX;
+            return topValue * (1f - fractionY) + bottomValue * fractionY;
+        }
+
+        private int getValue(final int x, final int y) {
+            if (x < 0 || y < 0 || x >= mSize || y >= mSize) return 0;
+            return mCoverage[y * mSize + x] & 0xFF;
+        }
+    }
+
+    /**
+     * Same conversion that Skia uses for the radius of shadow layers
+     *
+     * @return Gaussian sigma for a shadow with the given radius
+     */
+    static float toSigma(final float blurRadius) {
+        return blurRadius > 0f ? 0.57735f * blurRadius + 0.5f : 0f;
+    }
+
+    /**
+     * @param kind          One of the KIND constants
+     * @param numberOfEdges Number of polygon edges; ignored for other kinds
+     * @param blurSigma     Gaussian sigma of the shadow in canvas pixels
+     * @param shapeRadius   Radius, or half width, of the shape in canvas pixels
+     * @param quality       Mask resolution; must not be EXACT
+     * @return Shared mask that must not be modified
+     */
+    public Mask getMask(
+            final int kind,
+            final int numberOfEdges,
+            final float blurSigma,
+            final float shapeRadius,
+            final Quality quality
+    ) {
+        final int maskShapeRadius = quality.mShapeRadius;
+        final float sigmaRatio = Math.min(blurSigma / shapeRadius, MAX_SIGMA_RATIO);
+        final int sigmaSteps = Math.round(sigmaRatio * maskShapeRadius * SIGMA_STEPS);
+
+        final long key = ((long) sigmaSteps << 24)
+                | (quality.ordinal() << 16)
+                | (numberOfEdges << 8)
+                | kind;
+
+        synchronized (mMasks) {
+            final Mask mask = mMasks.get(key);
+            if (mask != null) {
+                mHitCount++;
+                return mask;
+            }
+            mMissCount++;
+        }
+
+        final Mask mask = createMask(
+                kind,
+                numberOfEdges,
+                sigmaSteps / (float) SIGMA_STEPS,
+                maskShapeRadius
+        );
+
+        synchronized (mMasks) {
+            if (!mMasks.containsKey(key)) {
+                mByteCount += mask.getByteCount();
+                mMasks.put(key, mask);
+            }
+            return mMasks.get(key);
+        }
+    }
+
+    /**
+     * @return Share of getMask() calls that did not need to blur a new mask
+     */
+    public float getHitRate() {
+        synchronized (mMasks) {
+            final int requests = mHitCount + mMissCount;
+            return requests == 0 ? 0f : mHitCount / (float) requests;
+        }
+    }
+
+    public void clear() {
+        synchronized (mMasks) {
+            mMasks.clear();
+            mByteCount = 0;
+        }
+    }
+
+    private static Mask createMask(
+            final int kind,
+            final int numberOfEdges,
+            final float sigma,
+            final int shapeRadius
+    ) {
+        final int[] boxRadii = RasterPainter.getBoxRadii(sigma);
+        int extent = 0;
+        for (final int boxRadius : boxRadii) extent += boxRadius;
+
+        // All shapes fit into a square of twice their radius.
+        final int size = 2 * (shapeRadius + extent + 1);
+        final float center = size / 2f;
+
+        final int[] pixels = new int[size * size];
+        final RasterPainter painter =
+                new RasterPainter(pixels, size, RasterPainter.PixelOrder.ARGB, null, null);
+        switch (kind) {
+            case KIND_CIRCLE:
+                painter.paintCircle(0xFFFFFFFF, Painter.Texture.NONE, center, center, shapeRadius);
+                break;
+            case KIND_ROUNDED_SQUARE:
+                painter.paintRoundedSquare(
+                        0xFFFFFFFF,
+                        Painter.Texture.NONE,
+                        center,
+                        center,
+                        shapeRadius
+                );
+                break;
+            default:
+                painter.paintPolygon(
+                        0xFFFFFFFF,
+                        Painter.Texture.NONE,
+                        0f,
+                        numberOfEdges,
+                        kind == KIND_CURVED_POLYGON,
+                        center,
+                        center,
+                        shapeRadius
+                );
+        }
+
+        final int[] coverage = new int[size * size];
+        for (int i = 0; i < coverage.length; i++) coverage[i] = pixels[i] >>> 24;
+
+        final int[] line = new int[size];
+        for (final int boxRadius : boxRadii) {
+            if (boxRadius == 0) continue;
+            final int divisor = 2 * boxRadius + 1;
+            for (int row = 0; row < size; row++) {
+                System.arraycopy(coverage, row * size, line, 0, size);
+                RasterPainter.blurLine(line, size, boxRadius, divisor, coverage, row * size, 1);
+            }
+            for (int column = 0; column < size; column++) {
+                for (int row = 0; row < size; row++) line[row] = coverage[row * size + column];
+                RasterPainter.blurLine(line, size, boxRadius, divisor, coverage, column, size);
+            }
+        }
+
+        final byte[] bytes = new byte[size * size];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) coverage[i];
+        return new Mask(bytes, size, shapeRadius);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.util.Arrays;
+
+/**
+ * Sorts a batch of squares into groups that can each be painted with one call.
+ * Every square is put on the lowest layer above all earlier squares that it overlaps,
+ * so that overlapping squares keep their order and no group contains two overlapping squares.
+ * Within a layer, squares are sorted by texture, colour and alpha.
+ * Instances keep their buffers between calls and are not thread-safe.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+class SquareBatchOrder {
+
+    /**
+     * Number of low key bits that hold the index of the square
+     */
+    private static final int INDEX_BITS = 12;
+
+    static final int MAX_SQUARES = 1 << INDEX_BITS;
+
+    /**
+     * Layers are stored in the highest bits below the sign bit
+     */
+    private static final int LAYER_SHIFT = 54;
+
+    private static final int MAX_LAYERS = 1 << (63 - LAYER_SHIFT);
+
+    private long[] mKeys = new long[0];
+
+    private int[] mLayers = new int[0];
+
+    /**
+     * Determines the paint order of the given batch; see Painter.paintSquares()
+     */
+    void sort(
+            final float[] rects,
+            final int[] colors,
+            final byte[] alphas,
+            final byte[] textures,
+            final int count
+    ) {
+        if (count > MAX_SQUARES) {
+            throw new IllegalArgumentException(
+                    "Cannot sort more than " + MAX_SQUARES + " squares."
+            );
+        }
+
+        if (mKeys.length < count) {
+            mKeys = new long[count];
+            mLayers = new int[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            int layer = 0;
+            for (int j = 0; j < i; j++) {
+                if (mLayers[j] >= layer && overlap(rects, i, j)) layer = mLayers[j] + 1;
+            }
+            if (layer >= MAX_LAYERS) {
+                throw new IllegalArgumentException("Too many overlapping squares.");
+            }
+            mLayers[i] = layer;
+
+            mKeys[i] = ((long) layer << LAYER_SHIFT)
+                    | ((long) (textures[i] & 0x3) << 52)
+                    | ((colors[i] & 0xFFFFFFL) << 20)
+                    | ((long) (alphas[i] & 0xFF) << INDEX_BITS)
+                    | i;
+        }
+
+        Arrays.sort(mKeys, 0, count);
+    }
+
+    /**
+     * @return Index into the batch arrays of the square at the given paint position
+     */
+    int getIndex(final int position) {
+        return (int) (mKeys[position] & (MAX_SQUARES - 1));
+    }
+
+    /**
+     * @return True, if the square at the given paint position belongs to the same group
+     * as the one before it
+     */
+    boolean continuesGroup(final int position) {
+        return position > 0
+                && (mKeys[position] >>> INDEX_BITS) == (mKeys[position - 1] >>> INDEX_BITS);
+    }
+
+    /**
+     * @return True, if the interiors of the squares intersect; touching edges do not count
+     */
+    private static boolean overlap(final float[] rects, final int i, final int j) {
+        final int a = i * 4;
+        final int b = j * 4;
+        return rects[a] < rects[b + 2]
+                && rects[b] < rects[a + 2]
+                && rects[a + 1] < rects[b + 3]
+                && rects[b + 1] < rects[a + 3];
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Shader;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+
+/**
+ * Process-wide registry of the texture Bitmaps and their Shaders.
+ * Every texture asset is decoded at most once and shared by all Painters on all threads,
+ * as long as it fits into the memory budget.
+ * Registers itself for memory callbacks and drops all textures when the system asks for memory.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class TextureCache implements ComponentCallbacks2, RasterTexture.Provider {
+
+    private static final String TAG = TextureCache.class.getSimpleName();
+
+    /**
+     * Default number of bytes that decoded texture Bitmaps may occupy;
+     * large enough to hold all three textures at once
+     */
+    private static final int DEFAULT_BUDGET_BYTES = 16 * 1024 * 1024;
+
+    private static final Shader.TileMode[] TILE_MODES = Shader.TileMode.values();
+
+    private static final RasterPainter.PixelOrder[] PIXEL_ORDERS =
+            RasterPainter.PixelOrder.values();
+
+    private static TextureCache sInstance;
+
+    private final AssetManager mAssetManager;
+
+    private final LruCache<Painter.Texture, Bitmap> mBitmaps;
+
+    /**
+     * Pre-built Shaders, indexed by texture and tile mode ordinal;
+     * only contains Shaders for Bitmaps that are currently held by the LruCache
+     */
+    private final EnumMap<Painter.Texture, BitmapShader[]> mShaders =
+            new EnumMap<>(Painter.Texture.class);
+
+    /**
+     * Pixel copies for RasterPainters, indexed by texture and pixel order ordinal;
+     * like the Shaders, these are dropped together with their Bitmap
+     */
+    private final EnumMap<Painter.Texture, RasterTexture[]> mRasterTextures =
+            new EnumMap<>(Painter.Texture.class);
+
+    private TextureCache(final Context context, final int budgetBytes) {
+        mAssetManager = context.getAssets();
+        mBitmaps = new LruCache<Painter.Texture, Bitmap>(budgetBytes) {
+            @Override
+            protected int sizeOf(Painter.Texture key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(
+                    boolean evicted,
+                    Painter.Texture key,
+                    Bitmap oldValue,
+                    Bitmap newValue
+            ) {
+                // Bitmaps are not recycled here because another thread may still be painting
+                // with them. Dropping the Shaders is enough to let the GC reclaim them.
+                synchronized (mShaders) {
+                    mShaders.remove(key);
+                }
+                synchronized (mRasterTextures) {
+                    mRasterTextures.remove(key);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param context Any Context; only the Application Context is retained
+     * @return The process-wide instance
+     */
+    public static synchronized TextureCache getInstance(final Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new TextureCache(appContext, DEFAULT_BUDGET_BYTES);
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return The decoded texture or null, if it could not be loaded
+     */
+    public Bitmap getBitmap(final Painter.Texture texture) {
+        final String fileName = getAssetFileName(texture);
+        if (fileName == null) return null;
+
+        final Bitmap cachedBitmap = mBitmaps.get(texture);
+        if (cachedBitmap != null) return cachedBitmap;
+
+        // Decoding is serialised per cache, so that concurrent Painters do not decode
+        // the same asset in parallel.
+        synchronized (mAssetManager) {
+            final Bitmap bitmap = mBitmaps.get(texture);
+            if (bitmap != null) return bitmap;
+
+            final Bitmap decodedBitmap = decodeAsset(fileName);
+            if (decodedBitmap != null) mBitmaps.put(texture, decodedBitmap);
+            return decodedBitmap;
+        }
+    }
+
+    /**
+     * @return A Shader that tiles the given texture in both directions
+     * or null, if the texture could not be loaded
+     */
+    public BitmapShader getShader(final Painter.Texture texture, final Shader.TileMode tileMode) {
+        synchronized (mShaders) {
+            final BitmapShader[] shaders = mShaders.get(texture);
+            if (shaders != null && shaders[tileMode.ordinal()] != null) {
+                return shaders[tileMode.ordinal()];
+            }
+        }
+
+        final Bitmap bitmap = getBitmap(texture);
+        if (bitmap == null) return null;
+
+        synchronized (mShaders) {
+            BitmapShader[] shaders = mShaders.get(texture);
+            if (shaders == null) {
+                shaders = new BitmapShader[TILE_MODES.length];
+                mShaders.put(texture, shaders);
+            }
+
+            if (shaders[tileMode.ordinal()] == null) {
+                shaders[tileMode.ordinal()] = new BitmapShader(bitmap, tileMode, tileMode);
+            }
+            return shaders[tileMode.ordinal()];
+        }
+    }
+
+    @Override
+    public RasterTexture getRasterTexture(
+            final Painter.Texture texture,
+            final RasterPainter.PixelOrder order
+    ) {
+        synchronized (mRasterTextures) {
+            final RasterTexture[] rasterTextures = mRasterTextures.get(texture);
+            if (rasterTextures != null && rasterTextures[order.ordinal()] != null) {
+                return rasterTextures[order.ordinal()];
+            }
+        }
+
+        final Bitmap bitmap = getBitmap(texture);
+        if (bitmap == null) return null;
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        final RasterTexture rasterTexture = RasterTexture.fromArgb(pixels, width, height, order);
+
+        synchronized (mRasterTextures) {
+            RasterTexture[] rasterTextures = mRasterTextures.get(texture);
+            if (rasterTextures == null) {
+                rasterTextures = new RasterTexture[PIXEL_ORDERS.length];
+                mRasterTextures.put(texture, rasterTextures);
+            }
+
+            if (rasterTextures[order.ordinal()] == null) {
+                rasterTextures[order.ordinal()] = rasterTexture;
+            }
+            return rasterTextures[order.ordinal()];
+        }
+    }
+
+    /**
+     * Drops all decoded textures; they will be decoded again on the next request
+     */
+    public void release() {
+        Log.d(TAG, "Releasing " + mBitmaps.size() + " bytes of textures.");
+        mBitmaps.evictAll();
+    }
+
+    private static String getAssetFileName(final Painter.Texture texture) {
+        switch (texture) {
+            case GRAIN:
+                return "texture_noise.png";
+            case TOWEL:
+                return "texture_towel.png";
+            case MARBLE:
+                return "texture_marble.png";
+            default:
+                return null;
+        }
+    }
+
+    private Bitmap decodeAsset(final String fileName) {
+        Log.d(TAG, "Loading " + fileName + " from Assets.");
+
+        InputStream inputStream = null;
+        try {
+            inputStream = mAssetManager.open(fileName);
+            return BitmapFactory.decodeStream(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+    COMPONENT CALLBACKS
+     */
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            release();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        release();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a DisplayList into horizontal tiles of one framebuffer in parallel.
+ * Every tile has its own RasterPainter that is clipped to the tile;
+ * shapes and shadows that reach into a tile from its neighbours are painted in every tile
+ * that they touch, so the tiles join without seams.
+ * The result is pixel-identical to a single, unclipped RasterPainter.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class TiledRenderer {
+
+    /**
+     * Tiles should not become so flat that the shadow margins dominate the work
+     */
+    private static final int MIN_TILE_HEIGHT = 64;
+
+    private static TiledRenderer sInstance;
+
+    private final ExecutorService mExecutor;
+
+    private final int mNumberOfTiles;
+
+    /**
+     * @param executor      Runs the tiles; the calling thread waits for all of them
+     * @param numberOfTiles Maximum number of tiles that an image is split into
+     */
+    public TiledRenderer(final ExecutorService executor, final int numberOfTiles) {
+        mExecutor = executor;
+        mNumberOfTiles = numberOfTiles;
+    }
+
+    /**
+     * @return Renderer with one background thread per processor
+     */
+    public static synchronized TiledRenderer getInstance() {
+        if (sInstance == null) {
+            final int numberOfThreads = Runtime.getRuntime().availableProcessors();
+            sInstance = new TiledRenderer(
+                    Executors.newFixedThreadPool(numberOfThreads, new TileThreadFactory()),
+                    numberOfThreads
+            );
+        }
+        return sInstance;
+    }
+
+    /**
+     * Paints the display list into the framebuffer, scaled to the image size;
+     * blocks until all tiles are finished
+     *
+     * @param pixels          Framebuffer of imageSize * imageSize premultiplied pixels
+     * @param pixelOrder      Channel order of the framebuffer and of the provided textures
+     * @param textureProvider Source of textures; may be null to paint without textures
+     * @param glyphRasterizer Font renderer; may be null to paint without characters
+     * @param shadowQuality   Shadow quality of all tiles
+     * @throws IllegalStateException If the calling thread is interrupted;
+     *                               the framebuffer is incomplete then
+     */
+    public void render(
+            final DisplayList displayList,
+            final int[] pixels,
+            final int imageSize,
+            final RasterPainter.PixelOrder pixelOrder,
+            final RasterTexture.Provider textureProvider,
+            final GlyphRasterizer glyphRasterizer,
+            final ShadowCache.Quality shadowQuality
+    ) {
+        final int numberOfTiles = Math.max(
+                1,
+                Math.min(mNumberOfTiles, imageSize / MIN_TILE_HEIGHT)
+        );
+        final int tileHeight = (imageSize + numberOfTiles - 1) / numberOfTiles;
+
+        // All tiles paint the same characters.
+        final GlyphRasterizer sharedRasterizer =
+                glyphRasterizer == null ? null : new SharedGlyphRasterizer(glyphRasterizer);
+
+        final List<Callable<Void>> tiles = new ArrayList<>(numberOfTiles);
+        for (int top = 0; top < imageSize; top += tileHeight) {
+            final int tileTop = top;
+            final int tileBottom = Math.min(top + tileHeight, imageSize);
+
+            tiles.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final RasterPainter painter = new RasterPainter(
+                            pixels,
+                            imageSize,
+                            pixelOrder,
+                            textureProvider,
+                            sharedRasterizer
+                    );
+                    painter.setShadowQuality(shadowQuality);
+                    painter.clipRect(0, tileTop, imageSize, tileBottom);
+                    displayList.replay(painter);
+                    return null;
+                }
+            });
+        }
+
+        if (tiles.size() == 1) {
+            try {
+                tiles.get(0).call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        final List<Future<Void>> futures = new ArrayList<>(tiles.size());
+        for (final Callable<Void> tile : tiles) futures.add(mExecutor.submit(tile));
+
+        // Waits for every tile, even after a failure or an interruption,
+        // so that no tile paints into the framebuffer after this call.
+        boolean isInterrupted = false;
+        Throwable failure = null;
+        for (final Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                    break;
+                }
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while painting " + tiles.size() + " tiles"
+            );
+        }
+        if (failure != null) throw new RuntimeException(failure);
+    }
+
+    /**
+     * Rasterises every string only once and hands out copies to all tiles
+     */
+    private static class SharedGlyphRasterizer implements GlyphRasterizer {
+
+        private final GlyphRasterizer mRasterizer;
+
+        private String mString;
+
+        private int mImageSize;
+
+        private byte[] mCoverage;
+
+        SharedGlyphRasterizer(final GlyphRasterizer rasterizer) {
+            mRasterizer = rasterizer;
+        }
+
+        @Override
+        public synchronized void rasterize(
+                final String string,
+                final int imageSize,
+                final byte[] coverage
+        ) {
+            final int numberOfPixels = imageSize * imageSize;
+
+            if (!string.equals(mString) || imageSize != mImageSize) {
+                if (mCoverage == null || mCoverage.length < numberOfPixels) {
+                    mCoverage = new byte[numberOfPixels];
+                } else {
+                    Arrays.fill(mCoverage, 0, numberOfPixels, (byte) 0);
+                }
+                mRasterizer.rasterize(string, imageSize, mCoverage);
+                mString = string;
+                mImageSize = imageSize;
+            }
+
+            System.arraycopy(mCoverage, 0, coverage, 0, numberOfPixels);
+        }
+    }
+
+    private static class TileThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(
+                    runnable,
+                    TiledRenderer.class.getSimpleName() + " #" + mCount.incrementAndGet()
+            );
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
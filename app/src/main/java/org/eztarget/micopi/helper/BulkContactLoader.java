@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.helper;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import org.eztarget.micopi.Contact;
+
+/**
+ * Builds many contacts from a single query of the data table,
+ * instead of the four queries per contact of DatabaseHelper.buildContact().
+ * The name, phone, email and event rows of all visible contacts are sorted by contact ID,
+ * so that each contact is merged from one run of rows while the cursor moves forward.
+ * The contacts are equal to those of buildContact() and therefore have the same seeds,
+ * as long as the provider returns the rows of its unsorted single queries in _ID order;
+ * see SORT_ORDER.
+ * <p/>
+ * Not thread-safe; contacts have to be requested in ascending order of their IDs.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class BulkContactLoader {
+
+    private static final String TAG = BulkContactLoader.class.getSimpleName();
+
+    private static final String[] PROJECTION = new String[]{
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.DISPLAY_NAME,
+            ContactsContract.Data.HAS_PHONE_NUMBER,
+            ContactsContract.Data.MIMETYPE,
+            ContactsContract.Data.DATA1,
+            ContactsContract.Data.DATA2
+    };
+
+    private static final int COLUMN_CONTACT_ID = 0;
+
+    private static final int COLUMN_DISPLAY_NAME = 1;
+
+    private static final int COLUMN_HAS_PHONE_NUMBER = 2;
+
+    private static final int COLUMN_MIME_TYPE = 3;
+
+    /**
+     * Phone.NUMBER, Email.DATA and Event.START_DATE
+     */
+    private static final int COLUMN_DATA = 4;
+
+    /**
+     * Event.TYPE
+     */
+    private static final int COLUMN_TYPE = 5;
+
+    private static final String SELECTION = ContactsContract.Data.MIMETYPE + " IN (?,?,?,?) AND "
+            + ContactsContract.Data.IN_VISIBLE_GROUP + "=1";
+
+    /**
+     * The name rows make sure that contacts without any other data are part of the stream, too
+     */
+    private static final String[] SELECTION_ARGS = new String[]{
+            ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE
+    };
+
+    /**
+     * Within a contact, the first phone number, email address and birthday are the ones
+     * with the lowest _ID.
+     * The single queries of buildContact() are unsorted and pick the first row
+     * in whichever order the provider returns; this is the order of the underlying table
+     * in practice, but it is not guaranteed.
+     * A contact with several phone numbers, email addresses or birthdays
+     * may get a different seed if the provider returns them in another order.
+     */
+    private static final String SORT_ORDER = ContactsContract.Data.CONTACT_ID + " ASC, "
+            + ContactsContract.Data._ID + " ASC";
+
+    private final ContentResolver mContentResolver;
+
+    private Cursor mCursor;
+
+    /**
+     * True once the query has been run, even if it failed
+     */
+    private boolean mHasQueried = false;
+
+    /**
+     * True while the cursor points at a row that has not been merged yet
+     */
+    private boolean mHasRow = false;
+
+    private long mLastContactId = Long.MIN_VALUE;
+
+    public BulkContactLoader(final ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Builds the next contact; runs the query on the first call only,
+     * and if it fails, every contact is built with the single queries of buildContact()
+     *
+     * @param contactId Has to be greater than the ID of the previous call
+     * @return Contact or null, if it does not exist
+     */
+    public Contact load(final long contactId) {
+        if (contactId <= mLastContactId) {
+            throw new IllegalArgumentException(
+                    "Contact " + contactId + " requested after " + mLastContactId + "."
+            );
+        }
+        mLastContactId = contactId;
+
+        if (!mHasQueried) open();
+
+        // Skip the rows of contacts that are not part of the batch.
+        while (mHasRow && mCursor.getLong(COLUMN_CONTACT_ID) < contactId) {
+            mHasRow = mCursor.moveToNext();
+        }
+
+        if (!mHasRow || mCursor.getLong(COLUMN_CONTACT_ID) != contactId) {
+            // Neither a name nor any other data row; the single queries handle all special cases.
+            return DatabaseHelper.buildContact(mContentResolver, contactId);
+        }
+
+        final String fullName = mCursor.getString(COLUMN_DISPLAY_NAME);
+        final boolean hasPhoneNumber = mCursor.getInt(COLUMN_HAS_PHONE_NUMBER) == 1;
+
+        boolean hasPhoneRow = false;
+        String phoneNumber = null;
+        boolean hasEmailRow = false;
+        String emailAddress = null;
+        boolean hasBirthdayRow = false;
+        String birthday = null;
+
+        do {
+            final String mimeType = mCursor.getString(COLUMN_MIME_TYPE);
+
+            if (!hasPhoneRow
+                    && ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                hasPhoneRow = true;
+                phoneNumber = mCursor.getString(COLUMN_DATA);
+            } else if (!hasEmailRow
+                    && ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                hasEmailRow = true;
+                emailAddress = mCursor.getString(COLUMN_DATA);
+            } else if (!hasBirthdayRow
+                    && ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE.equals(mimeType)
+                    && mCursor.getInt(COLUMN_TYPE)
+                    == ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY) {
+                hasBirthdayRow = true;
+                birthday = mCursor.getString(COLUMN_DATA);
+            }
+
+            mHasRow = mCursor.moveToNext();
+        } while (mHasRow && mCursor.getLong(COLUMN_CONTACT_ID) == contactId);
+
+        // Same placeholders as buildContact() and getPhoneNumber().
+        if (!hasPhoneNumber) phoneNumber = "047";
+        else if (!hasPhoneRow) phoneNumber = "1234567891";
+
+        return new Contact(contactId, fullName, phoneNumber, emailAddress, birthday, null);
+    }
+
+    /**
+     * Closes the cursor; the loader cannot be used afterwards
+     */
+    public void close() {
+        if (mCursor != null) mCursor.close();
+        mHasRow = false;
+    }
+
+    private void open() {
+        mHasQueried = true;
+        try {
+            mCursor = mContentResolver.query(
+                    ContactsContract.Data.CONTENT_URI,
+                    PROJECTION,
+                    SELECTION,
+                    SELECTION_ARGS,
+                    SORT_ORDER
+            );
+        } catch (SecurityException e) {
+            Log.e(TAG, e.toString());
+        }
+
+        if (mCursor == null) {
+            // Every contact falls back to buildContact().
+            Log.e(TAG, "ERROR: dataCursor is null.");
+            return;
+        }
+
+        mHasRow = mCursor.moveToFirst();
+    }
+}
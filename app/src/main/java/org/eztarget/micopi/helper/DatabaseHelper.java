@@ -7,14 +7,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.provider.ContactsContract;
 import android.util.Log;
 
 import org.eztarget.micopi.Contact;
+import org.eztarget.micopi.engine.Metrics;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -201,15 +200,37 @@ public class DatabaseHelper {
     }
 
     /**
-     * Finds the contact's image entry and replaces it with the generated data.
+     * Finds the contact's image entry and replaces it with the generated, encoded pictures
+     *
+     * @param thumbnailPng    Small picture for the PHOTO column of the data table
+     * @param displayPhotoPng Full-size picture for the display photo file
      */
     public static boolean assignImageToContact(
             final Context context,
-            final Bitmap hiResBitmap,
+            final byte[] thumbnailPng,
+            final byte[] displayPhotoPng,
             final Contact contact
     ) {
-        final ContentResolver contentResolver = context.getContentResolver();
+        final long startTime = System.nanoTime();
+        final boolean didAssign = writePhotos(
+                context.getContentResolver(),
+                thumbnailPng,
+                displayPhotoPng,
+                contact
+        );
+        Metrics.PROVIDER_WRITE.recordSince(startTime);
+        return didAssign;
+    }
 
+    /**
+     * Writes both pictures of a contact with single queries, see assignImageToContact()
+     */
+    static boolean writePhotos(
+            final ContentResolver contentResolver,
+            final byte[] thumbnailPng,
+            final byte[] displayPhotoPng,
+            final Contact contact
+    ) {
         final Cursor rawContactCursor = contentResolver.query(
                 ContactsContract.RawContacts.CONTENT_URI,
                 new String[]{ContactsContract.RawContacts._ID},
@@ -269,18 +290,9 @@ public class DatabaseHelper {
                 1
         );
 
-        final Bitmap scaledBitmap = Bitmap.createScaledBitmap(
-                hiResBitmap,
-                256,
-                256,
-                true
-        );
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        scaledBitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
-
         values.put(
                 ContactsContract.CommonDataKinds.Photo.PHOTO,
-                outputStream.toByteArray()
+                thumbnailPng
         );
 
         values.put(
@@ -302,21 +314,18 @@ public class DatabaseHelper {
             );
         }
 
-        try {
-            outputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        overwriteHiResPhoto(contentResolver, rawContactUri, hiResBitmap);
-
-        return true;
+        return overwriteHiResPhoto(contentResolver, rawContactUri, displayPhotoPng);
     }
 
-    private static void overwriteHiResPhoto(
+    /**
+     * Writes the full-size picture into the display photo file of a raw contact
+     *
+     * @return False if the file could not be opened or written
+     */
+    static boolean overwriteHiResPhoto(
             final ContentResolver contentResolver,
             final Uri contactUri,
-            final Bitmap hiResBitmap
+            final byte[] hiResPng
     ) {
 
         final Uri displayPhotoUri;
@@ -325,20 +334,30 @@ public class DatabaseHelper {
                 ContactsContract.Contacts.Photo.DISPLAY_PHOTO
         );
         AssetFileDescriptor descriptor = null;
+        OutputStream os = null;
         try {
             descriptor = contentResolver.openAssetFileDescriptor(displayPhotoUri, "w");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+            if (descriptor == null) {
+                Log.e(TAG, "No display photo file for " + contactUri + ".");
+                return false;
+            }
 
-        if (descriptor != null) {
-            OutputStream os;
+            os = descriptor.createOutputStream();
+            os.write(hiResPng);
+            os.close();
+            os = null;
+            descriptor = null;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the display photo of " + contactUri + ": " + e);
+            return false;
+        } finally {
+            // Whatever is still open after a failure; not Closeable before API 19.
             try {
-                os = descriptor.createOutputStream();
-                hiResBitmap.compress(Bitmap.CompressFormat.PNG, 0, os);
-                os.close();
+                if (os != null) os.close();
+                if (descriptor != null) descriptor.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.w(TAG, "Could not close the display photo file of " + contactUri + ": " + e);
             }
         }
     }
@@ -10,6 +10,11 @@ import android.util.DisplayMetrics;
  */
 public class DeviceHelper {
 
+    /**
+     * All image side lengths that getBestImageSize() can return
+     */
+    public static final int[] IMAGE_SIZES = {640, 720, 960, 1080, 1440};
+
     public static int getBestImageSize(Context context) {
 
         final Configuration config = context.getResources().getConfiguration();
@@ -27,11 +32,11 @@ public class DeviceHelper {
         // Old devices should not be unnecessarily strained,
         // but if the user takes these account pictures to another device,
         // they shouldn't look too horribly pixelated.
-        if (screenWidthInPixels < 640) return 640;
-        else if (screenWidthInPixels < 720) return 720;
-        else if (screenWidthInPixels < 960) return 960;
-        else if (screenWidthInPixels < 1200) return 1080;
-        else return 1440;
+        if (screenWidthInPixels < 640) return IMAGE_SIZES[0];
+        else if (screenWidthInPixels < 720) return IMAGE_SIZES[1];
+        else if (screenWidthInPixels < 960) return IMAGE_SIZES[2];
+        else if (screenWidthInPixels < 1200) return IMAGE_SIZES[3];
+        else return IMAGE_SIZES[4];
 
     }
 }
@@ -1,7 +1,6 @@
 package org.eztarget.micopi.helper;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Environment;
@@ -11,6 +10,7 @@ import android.util.Log;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 /**
  * Created by michel on 27/10/14.
@@ -42,26 +42,58 @@ public class FileHelper implements MediaScannerConnection.MediaScannerConnection
 
     public String storeImage(
             final Context context,
-            final Bitmap bitmap,
+            final byte[] png,
             final String subFolder,
             final String fileName
     ) {
-        if (bitmap == null) {
-            Log.d(TAG, "storeImage: Bitmap is null.");
+        if (png == null) {
+            Log.d(TAG, "storeImage: PNG is null.");
             return null;
         }
 
         // Files will be stored in the /sdcard/micopi dir.
 
         final File outFile = new File(prepareMicopiDir(subFolder).getAbsolutePath(), fileName);
+        if (!writeFile(outFile, png)) return null;
 
+        if (SUB_FOLDER_NEW.equals(subFolder)) {
+            mFileName = outFile.getAbsolutePath();
+            mConnection = new MediaScannerConnection(context, this);
+            mConnection.connect();
+        }
+
+        return outFile.getAbsolutePath();
+    }
+
+    /**
+     * Stores UTF-8 text, e.g. a metrics export, replacing an existing file
+     *
+     * @param directory Created if it does not exist yet
+     * @return Path of the file or null, if it could not be written
+     */
+    public static String storeText(
+            final String text,
+            final File directory,
+            final String fileName
+    ) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create " + directory + ".");
+            return null;
+        }
+
+        final File outFile = new File(directory, fileName);
+        if (!writeFile(outFile, text.getBytes(Charset.forName("UTF-8")))) return null;
+        return outFile.getAbsolutePath();
+    }
+
+    private static boolean writeFile(final File outFile, final byte[] bytes) {
         FileOutputStream out = null;
         try {
             out = new FileOutputStream(outFile);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out); // bmp is your Bitmap instance
+            out.write(bytes);
         } catch (Exception e) {
             Log.e(TAG, e.toString());
-            return null;
+            return false;
         } finally {
             try {
                 if (out != null) {
@@ -71,14 +103,7 @@ public class FileHelper implements MediaScannerConnection.MediaScannerConnection
                 e.printStackTrace();
             }
         }
-
-        if (SUB_FOLDER_NEW.equals(subFolder)) {
-            mFileName = outFile.getAbsolutePath();
-            mConnection = new MediaScannerConnection(context, this);
-            mConnection.connect();
-        }
-
-        return outFile.getAbsolutePath();
+        return true;
     }
 
     @Override
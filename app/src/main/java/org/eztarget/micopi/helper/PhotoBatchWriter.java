@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.helper;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import org.eztarget.micopi.Contact;
+import org.eztarget.micopi.engine.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Assigns generated pictures to many contacts at once:
+ * the photo rows of a chunk of contacts are committed with a single applyBatch() call,
+ * after the raw contacts and existing photo rows of the whole chunk
+ * have been looked up with one query each,
+ * instead of the three round trips per contact of DatabaseHelper.assignImageToContact().
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class PhotoBatchWriter {
+
+    private static final String TAG = PhotoBatchWriter.class.getSimpleName();
+
+    /**
+     * Receives the outcome of every contact, in the order in which the contacts were added
+     */
+    public interface Callback {
+        void onPhotosWritten(Contact contact, boolean didWrite);
+    }
+
+    /**
+     * Contacts per applyBatch() call
+     */
+    private static final int MAX_CHUNK_SIZE = 25;
+
+    /**
+     * Thumbnails per applyBatch() call in bytes;
+     * the whole batch is sent in one Binder transaction, which is limited to 1 MB
+     */
+    private static final int MAX_CHUNK_BYTES = 512 * 1024;
+
+    private final ContentResolver mContentResolver;
+
+    private final Callback mCallback;
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>(MAX_CHUNK_SIZE);
+
+    private int mChunkBytes = 0;
+
+    public PhotoBatchWriter(final ContentResolver contentResolver, final Callback callback) {
+        mContentResolver = contentResolver;
+        mCallback = callback;
+    }
+
+    private static class Entry {
+
+        final Contact mContact;
+
+        final byte[] mThumbnailPng;
+
+        final byte[] mDisplayPhotoPng;
+
+        long mRawContactId = -1L;
+
+        int mOperationIndex = -1;
+
+        Entry(final Contact contact, final byte[] thumbnailPng, final byte[] displayPhotoPng) {
+            mContact = contact;
+            mThumbnailPng = thumbnailPng;
+            mDisplayPhotoPng = displayPhotoPng;
+        }
+    }
+
+    /**
+     * Queues the pictures of a contact and writes the current chunk, if it is full
+     *
+     * @param thumbnailPng    Small picture for the PHOTO column of the data table;
+     *                        if this or the display photo is null,
+     *                        the contact is reported as failed in its turn
+     * @param displayPhotoPng Full-size picture for the display photo file
+     */
+    public void add(
+            final Contact contact,
+            final byte[] thumbnailPng,
+            final byte[] displayPhotoPng
+    ) {
+        final int bytes = thumbnailPng == null ? 0 : thumbnailPng.length;
+        if (!mEntries.isEmpty() && mChunkBytes + bytes > MAX_CHUNK_BYTES) flush();
+
+        mEntries.add(new Entry(contact, thumbnailPng, displayPhotoPng));
+        mChunkBytes += bytes;
+
+        if (mEntries.size() >= MAX_CHUNK_SIZE) flush();
+    }
+
+    /**
+     * Drops all queued contacts without writing or reporting them
+     */
+    public void discard() {
+        mEntries.clear();
+        mChunkBytes = 0;
+    }
+
+    /**
+     * Writes all queued contacts and reports them to the Callback.
+     * If the chunk cannot be applied, some of its rows may have been committed
+     * before the failing operation, because every operation is a yield point;
+     * all contacts of the chunk are then written one by one, which overwrites those rows.
+     */
+    public void flush() {
+        if (mEntries.isEmpty()) return;
+
+        final long startTime = System.nanoTime();
+        ContentProviderResult[] results;
+        try {
+            results = applyChunk();
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Log.e(TAG, "Could not write " + mEntries.size() + " photos at once: " + e);
+            results = null;
+        }
+        final long chunkDuration = (System.nanoTime() - startTime) / mEntries.size();
+        Metrics.PROVIDER_BATCH.recordSince(startTime);
+
+        for (final Entry entry : mEntries) {
+            final long contactStartTime = System.nanoTime();
+            final boolean didWrite;
+            if (results == null) {
+                didWrite = writeSingle(entry);
+            } else {
+                didWrite = entry.mOperationIndex >= 0
+                        && entry.mOperationIndex < results.length
+                        && didSucceed(results[entry.mOperationIndex])
+                        && writeDisplayPhoto(entry);
+            }
+            Metrics.PROVIDER_WRITE.record(
+                    chunkDuration + System.nanoTime() - contactStartTime
+            );
+
+            mCallback.onPhotosWritten(entry.mContact, didWrite);
+        }
+
+        discard();
+    }
+
+    /**
+     * Writes the display photo of a contact whose photo row has been committed
+     */
+    private boolean writeDisplayPhoto(final Entry entry) {
+        final Uri rawContactUri = Uri.withAppendedPath(
+                ContactsContract.RawContacts.CONTENT_URI,
+                String.valueOf(entry.mRawContactId)
+        );
+        try {
+            return DatabaseHelper.overwriteHiResPhoto(
+                    mContentResolver,
+                    rawContactUri,
+                    entry.mDisplayPhotoPng
+            );
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not write the display photo of " + entry.mContact + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes both pictures of a contact the way DatabaseHelper.assignImageToContact() does
+     */
+    private boolean writeSingle(final Entry entry) {
+        if (entry.mThumbnailPng == null || entry.mDisplayPhotoPng == null) return false;
+
+        try {
+            return DatabaseHelper.writePhotos(
+                    mContentResolver,
+                    entry.mThumbnailPng,
+                    entry.mDisplayPhotoPng,
+                    entry.mContact
+            );
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not write the photos of " + entry.mContact + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Inserts or updates the photo rows of all queued contacts that have a raw contact
+     *
+     * @return Results of the operations, see Entry.mOperationIndex
+     */
+    private ContentProviderResult[] applyChunk()
+            throws RemoteException, OperationApplicationException {
+        final HashMap<Long, Long> rawContactIds = queryRawContactIds();
+        final HashMap<Long, Long> photoIds = queryPhotoIds(rawContactIds);
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(mEntries.size());
+        for (final Entry entry : mEntries) {
+            if (entry.mThumbnailPng == null || entry.mDisplayPhotoPng == null) continue;
+
+            final Long rawContactId = rawContactIds.get(entry.mContact.getId());
+            if (rawContactId == null) continue;
+
+            final ContentValues values = new ContentValues();
+            values.put(ContactsContract.Data.RAW_CONTACT_ID, rawContactId);
+            values.put(ContactsContract.Data.IS_SUPER_PRIMARY, 1);
+            values.put(ContactsContract.CommonDataKinds.Photo.PHOTO, entry.mThumbnailPng);
+            values.put(
+                    ContactsContract.Data.MIMETYPE,
+                    ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE
+            );
+
+            final Long photoId = photoIds.get(rawContactId);
+            final ContentProviderOperation.Builder builder;
+            if (photoId != null) {
+                builder = ContentProviderOperation
+                        .newUpdate(ContactsContract.Data.CONTENT_URI)
+                        .withSelection(ContactsContract.Data._ID + "=" + photoId, null);
+            } else {
+                builder = ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI);
+            }
+
+            // Every contact is a yield point,
+            // so that the provider does not hold its transaction for the whole chunk.
+            entry.mRawContactId = rawContactId;
+            entry.mOperationIndex = operations.size();
+            operations.add(builder.withValues(values).withYieldAllowed(true).build());
+        }
+
+        if (operations.isEmpty()) return new ContentProviderResult[0];
+
+        return mContentResolver.applyBatch(ContactsContract.AUTHORITY, operations);
+    }
+
+    private static boolean didSucceed(final ContentProviderResult result) {
+        if (result == null) return false;
+        if (result.uri != null) return true;
+        return result.count != null && result.count > 0;
+    }
+
+    /**
+     * @return First raw contact ID of every queued contact ID that has one
+     */
+    private HashMap<Long, Long> queryRawContactIds() {
+        final long[] contactIds = new long[mEntries.size()];
+        for (int i = 0; i < contactIds.length; i++) {
+            contactIds[i] = mEntries.get(i).mContact.getId();
+        }
+
+        final HashMap<Long, Long> rawContactIds = new HashMap<>(contactIds.length * 2);
+        final Cursor cursor = mContentResolver.query(
+                ContactsContract.RawContacts.CONTENT_URI,
+                new String[]{
+                        ContactsContract.RawContacts._ID,
+                        ContactsContract.RawContacts.CONTACT_ID
+                },
+                ContactsContract.RawContacts.CONTACT_ID + " IN " + toSqlList(contactIds),
+                null,
+                ContactsContract.RawContacts._ID + " ASC"
+        );
+
+        if (cursor == null) {
+            Log.e(TAG, "rawContactCursor is null.");
+            return rawContactIds;
+        }
+
+        while (cursor.moveToNext()) {
+            final long contactId = cursor.getLong(1);
+            if (!rawContactIds.containsKey(contactId)) {
+                rawContactIds.put(contactId, cursor.getLong(0));
+            }
+        }
+        cursor.close();
+
+        return rawContactIds;
+    }
+
+    /**
+     * @param rawContactIds Raw contact IDs by contact ID
+     * @return ID of the existing photo row of every raw contact that has one
+     */
+    private HashMap<Long, Long> queryPhotoIds(final HashMap<Long, Long> rawContactIds) {
+        final HashMap<Long, Long> photoIds = new HashMap<>(rawContactIds.size() * 2);
+        if (rawContactIds.isEmpty()) return photoIds;
+
+        final long[] ids = new long[rawContactIds.size()];
+        int i = 0;
+        for (final long rawContactId : rawContactIds.values()) ids[i++] = rawContactId;
+
+        final Cursor cursor = mContentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                new String[]{ContactsContract.Data._ID, ContactsContract.Data.RAW_CONTACT_ID},
+                ContactsContract.Data.RAW_CONTACT_ID + " IN " + toSqlList(ids)
+                        + " AND " + ContactsContract.Data.MIMETYPE + "='"
+                        + ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE + "'",
+                null,
+                null
+        );
+
+        if (cursor == null) return photoIds;
+
+        while (cursor.moveToNext()) {
+            final long rawContactId = cursor.getLong(1);
+            if (!photoIds.containsKey(rawContactId)) photoIds.put(rawContactId, cursor.getLong(0));
+        }
+        cursor.close();
+
+        return photoIds;
+    }
+
+    private static String toSqlList(final long[] ids) {
+        final StringBuilder builder = new StringBuilder(ids.length * 8);
+        builder.append('(');
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(ids[i]);
+        }
+        return builder.append(')').toString();
+    }
+}
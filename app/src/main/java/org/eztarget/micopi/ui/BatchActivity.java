@@ -9,6 +9,8 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.View;
@@ -21,6 +23,7 @@ import com.google.android.gms.ads.InterstitialAd;
 
 import org.eztarget.micopi.ImageService;
 import org.eztarget.micopi.R;
+import org.eztarget.micopi.engine.Metrics;
 import org.eztarget.micopi.helper.DeviceHelper;
 
 
@@ -42,10 +45,23 @@ public class BatchActivity extends TaskActivity {
 
     private static final String SAVED_PROGRESS = "progress";
 
+    /**
+     * Interval of the metrics updates while a batch is running
+     */
+    private static final long METRICS_INTERVAL_MILLIS = 1000L;
+
+    private static final double METRICS_PERCENTILE = 0.95;
+
     private String mContactName;
 
     private ImageService.CrawlMode mCrawlMode;
 
+    private final Handler mMetricsHandler = new Handler();
+
+    private long mLastMetricsTime;
+
+    private long mLastContactCount;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -91,14 +107,19 @@ public class BatchActivity extends TaskActivity {
         filter.addAction(ACTION_UPDATE_PROGRESS);
         registerReceiver(mReceiver, filter);
 
-        if (ImageService.isRunning()) showControl();
-        else setProgress(null, 0f);
+        if (ImageService.isRunning()) {
+            showControl();
+            startMetricsUpdates();
+        } else {
+            setProgress(null, 0f);
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         unregisterReceiver(mReceiver);
+        stopMetricsUpdates();
     }
 
     @Override
@@ -146,10 +167,67 @@ public class BatchActivity extends TaskActivity {
     }
 
     private void hideControl() {
+        stopMetricsUpdates();
         setProgress(null, 0f);
         fadeOutView(findViewById(R.id.group_batch_control));
     }
 
+    /*
+    METRICS
+     */
+
+    private final Runnable mMetricsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            mMetricsHandler.postDelayed(this, METRICS_INTERVAL_MILLIS);
+        }
+    };
+
+    private void startMetricsUpdates() {
+        stopMetricsUpdates();
+        mLastMetricsTime = 0L;
+        mMetricsHandler.post(mMetricsUpdater);
+    }
+
+    private void stopMetricsUpdates() {
+        mMetricsHandler.removeCallbacks(mMetricsUpdater);
+    }
+
+    /**
+     * Shows the contacts per second since the last update
+     * and the 95th percentile of every stage that has been measured in this batch
+     */
+    private void showMetrics() {
+        final StringBuilder text = new StringBuilder();
+
+        final long now = SystemClock.elapsedRealtime();
+        final long contactCount = Metrics.CONTACTS.getCount();
+        if (mLastMetricsTime > 0L && now > mLastMetricsTime) {
+            final float contactsPerSecond = Math.max(0L, contactCount - mLastContactCount)
+                    * 1000f / (now - mLastMetricsTime);
+            text.append(getString(R.string.metrics_contacts_per_second, contactsPerSecond));
+        }
+        mLastMetricsTime = now;
+        mLastContactCount = contactCount;
+
+        for (final Metrics.Instrument instrument : Metrics.getInstruments()) {
+            if (!(instrument instanceof Metrics.Histogram)) continue;
+
+            final Metrics.Histogram histogram = (Metrics.Histogram) instrument;
+            if (histogram.getCount() == 0L) continue;
+
+            if (text.length() > 0) text.append('\n');
+            text.append(getString(
+                    R.string.metrics_p95,
+                    histogram.getName(),
+                    histogram.getPercentile(METRICS_PERCENTILE) / 1e6f
+            ));
+        }
+
+        ((TextView) findViewById(R.id.text_batch_metrics)).setText(text);
+    }
+
     private void setProgress(final String contactName, final float progress) {
         mContactName = contactName;
         if (progress > 0f) showControl();
@@ -212,6 +290,7 @@ public class BatchActivity extends TaskActivity {
                 final int imageSize = DeviceHelper.getBestImageSize(this);
                 batchService.putExtra(ImageService.EXTRA_IMAGE_SIZE, imageSize);
                 startService(batchService);
+                startMetricsUpdates();
             } else {
                 requestWriteContactsPermission();
             }
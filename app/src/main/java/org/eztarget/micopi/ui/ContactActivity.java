@@ -23,6 +23,8 @@ import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
 import android.provider.ContactsContract;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -36,12 +38,17 @@ import com.google.android.gms.ads.InterstitialAd;
 
 import org.eztarget.micopi.Contact;
 import org.eztarget.micopi.R;
-import org.eztarget.micopi.engine.ColorUtilities;
+import org.eztarget.micopi.engine.ColorStatistics;
+import org.eztarget.micopi.engine.BitmapPool;
+import org.eztarget.micopi.engine.DisplayList;
 import org.eztarget.micopi.engine.ImageFactory;
 import org.eztarget.micopi.helper.DatabaseHelper;
 import org.eztarget.micopi.helper.DeviceHelper;
 import org.eztarget.micopi.helper.FileHelper;
 
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Activity that displays the generated image and all the options.
@@ -77,6 +84,56 @@ public class ContactActivity extends TaskActivity {
 
     private PhotoAction mAction;
 
+    /**
+     * True while a SaveImageTask may still read the preview
+     */
+    private boolean mIsSaving = false;
+
+    /**
+     * Previews that take longer than this show the progress overlay
+     */
+    private static final long PREVIEW_BUSY_DELAY_MILLIS = 200L;
+
+    /**
+     * Newest preview request; older ones are cancelled and their results dropped
+     */
+    private PreviewTask mPreviewTask;
+
+    private boolean mIsPreviewBusy = false;
+
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mShowPreviewBusyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mIsPreviewBusy = true;
+            setBusy();
+        }
+    };
+
+    /**
+     * Picture that is currently shown; returned to the BitmapPool when it is replaced
+     */
+    private Bitmap mPreviewBitmap;
+
+    /**
+     * Hash string of the contact that mPreviewBitmap was generated from
+     */
+    private String mPreviewSeed;
+
+    /**
+     * Finished previews of the current contact, keyed by retry factor
+     */
+    private VariantCache mVariantCache;
+
+    /**
+     * Renders neighbouring variants one after another,
+     * so that prefetching never competes with itself or with the PreviewTask executor
+     */
+    private static final Executor PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final ArrayList<PrefetchTask> mPrefetchTasks = new ArrayList<>();
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -84,6 +141,8 @@ public class ContactActivity extends TaskActivity {
 
         setContentView(R.layout.activity_contact);
 
+        mVariantCache = new VariantCache(BitmapPool.getInstance(this));
+
         // Check whether we're recreating a previously destroyed instance
         if (savedInstanceState != null && savedInstanceState.containsKey(KEY_CONTACT)) {
             setContact((Contact) savedInstanceState.getParcelable(KEY_CONTACT));
@@ -159,9 +218,49 @@ public class ContactActivity extends TaskActivity {
         super.onSaveInstanceState(savedInstanceState);
     }
 
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mShowPreviewBusyRunnable);
+        if (mPreviewTask != null) mPreviewTask.cancel(true);
+        cancelPrefetching();
+        mVariantCache.clear();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mVariantCache.trimMemory(level);
+        if (mVariantCache.isMemoryTight()) cancelPrefetching();
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mVariantCache.trimMemory(TRIM_MEMORY_COMPLETE);
+        cancelPrefetching();
+    }
+
     private void generateNew(final boolean moveForward) {
+        // The shown picture may still be stored.
+        if (mIsSaving) return;
+
         mContact.modifyRetryFactor(moveForward);
-        generateImage();
+
+        final VariantCache.Variant variant = mVariantCache.get(mContact.getRetryFactor());
+        if (variant == null) {
+            // The new preview gets the CPU to itself; neighbours are prefetched once it is shown.
+            cancelPrefetching();
+            generateImage();
+            return;
+        }
+
+        if (mPreviewTask != null) {
+            mPreviewTask.cancel(true);
+            mPreviewTask = null;
+        }
+        showPreview(variant.getBitmap(), variant.getSeed(), variant.getAverageColor(), 0L);
+        prefetchNeighbours();
     }
 
     /*
@@ -231,30 +330,254 @@ public class ContactActivity extends TaskActivity {
             descriptionView.setVisibility(View.VISIBLE);
         }
 
+        cancelPrefetching();
+        mVariantCache.clear();
+
         showInterstitialDelayed();
         generateImage();
     }
 
+    /**
+     * Starts rendering the preview of the current contact in the background;
+     * a preview that is still being rendered is cancelled
+     */
     private void generateImage() {
-        final ImageView imageView = (ImageView) findViewById(R.id.image_contact);
-        imageView.setImageDrawable(null);
+        if (mPreviewTask != null) mPreviewTask.cancel(true);
 
+        mHandler.removeCallbacks(mShowPreviewBusyRunnable);
+        if (!mIsPreviewBusy) {
+            mHandler.postDelayed(mShowPreviewBusyRunnable, PREVIEW_BUSY_DELAY_MILLIS);
+        }
 
-        final Bitmap generatedBitmap;
-        generatedBitmap = ImageFactory.bitmapFrom(
-                this,
-                mContact,
+        mPreviewTask = new PreviewTask(
+                new Contact(mContact),
                 DeviceHelper.getBestImageSize(this)
         );
-        imageView.setImageBitmap(generatedBitmap);
+        mPreviewTask.execute();
+    }
 
-        if (generatedBitmap == null) {
+    private void showPreview(
+            final Bitmap bitmap,
+            final String seed,
+            final int averageColor,
+            final long renderMillis
+    ) {
+        mHandler.removeCallbacks(mShowPreviewBusyRunnable);
+        if (mIsPreviewBusy) {
+            mIsPreviewBusy = false;
+            setReady();
+        }
+
+        final ImageView imageView = (ImageView) findViewById(R.id.image_contact);
+        imageView.setImageBitmap(bitmap);
+        mVariantCache.setShownBitmap(bitmap);
+        mPreviewBitmap = bitmap;
+        mPreviewSeed = seed;
+
+        if (bitmap == null) {
             Log.e(TAG, "Generated null bitmap.");
             setColor(getResources().getColor(R.color.primary));
         } else {
-            setColor(ColorUtilities.getAverageColor(generatedBitmap));
+            if (renderMillis > 0L) Log.d(TAG, "Rendered preview in " + renderMillis + "ms.");
+            setColor(averageColor);
+        }
+    }
+
+    /**
+     * Renders the previous and the next variant of the current contact at idle priority,
+     * unless they are stored or memory is tight
+     */
+    private void prefetchNeighbours() {
+        final int imageSize = DeviceHelper.getBestImageSize(this);
+        final int retryFactor = mContact.getRetryFactor();
+
+        // Prefetches of variants that are no longer next to the shown one are not needed.
+        for (int i = mPrefetchTasks.size() - 1; i >= 0; i--) {
+            final PrefetchTask task = mPrefetchTasks.get(i);
+            if (Math.abs(task.getRetryFactor() - retryFactor) > Contact.RETRY_STEP) {
+                task.cancel(true);
+                mPrefetchTasks.remove(i);
+            }
+        }
+
+        for (final boolean moveForward : new boolean[]{true, false}) {
+            final Contact neighbour = new Contact(mContact);
+            neighbour.modifyRetryFactor(moveForward);
+            final int neighbourFactor = neighbour.getRetryFactor();
+
+            if (mVariantCache.get(neighbourFactor) != null) continue;
+            if (!mVariantCache.canPrefetch(imageSize * imageSize * 4L)) return;
+
+            boolean isPrefetching = false;
+            for (final PrefetchTask task : mPrefetchTasks) {
+                if (task.getRetryFactor() == neighbourFactor) isPrefetching = true;
+            }
+            if (isPrefetching) continue;
+
+            final PrefetchTask task = new PrefetchTask(neighbour, imageSize);
+            mPrefetchTasks.add(task);
+            task.executeOnExecutor(PREFETCH_EXECUTOR);
+        }
+    }
+
+    private void cancelPrefetching() {
+        for (final PrefetchTask task : mPrefetchTasks) task.cancel(true);
+        mPrefetchTasks.clear();
+    }
+
+    /**
+     * Renders a variant that the user is likely to look at next and stores it in the VariantCache
+     */
+    private class PrefetchTask extends AsyncTask<Void, Void, Bitmap> {
+
+        private final Contact mTaskContact;
+
+        private final int mImageSize;
+
+        private String mSeed;
+
+        private int mAverageColor;
+
+        /**
+         * @param contact Copy of the contact, moved to the variant that is prefetched
+         */
+        PrefetchTask(final Contact contact, final int imageSize) {
+            mTaskContact = contact;
+            mImageSize = imageSize;
+        }
+
+        int getRetryFactor() {
+            return mTaskContact.getRetryFactor();
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            if (isCancelled()) return null;
+
+            mSeed = mTaskContact.getMD5EncryptedString();
+            final Bitmap bitmap =
+                    ImageFactory.bitmapFrom(ContactActivity.this, mTaskContact, mImageSize);
+            if (bitmap == null || isCancelled()) return bitmap;
+
+            mAverageColor = ColorStatistics.getInstance().measure(bitmap).getAverageColor();
+            return bitmap;
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            BitmapPool.getInstance(ContactActivity.this).release(bitmap);
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            mPrefetchTasks.remove(this);
+            if (bitmap == null) return;
+
+            if (mVariantCache.get(getRetryFactor()) != null) {
+                BitmapPool.getInstance(ContactActivity.this).release(bitmap);
+                return;
+            }
+            mVariantCache.put(
+                    getRetryFactor(),
+                    new VariantCache.Variant(bitmap, mSeed, mAverageColor)
+            );
+        }
+    }
+
+    /**
+     * Renders a preview and its average colour off the main thread;
+     * only the results of the newest task are shown.
+     * A small draft without shadows is shown first, unless the picture is in the AvatarCache;
+     * both renderings are painted from the same recording.
+     */
+    private class PreviewTask extends AsyncTask<Void, Bitmap, Bitmap> {
+
+        private final Contact mTaskContact;
+
+        private final int mImageSize;
+
+        private String mSeed;
+
+        private int mAverageColor;
+
+        private long mRenderMillis;
+
+        /**
+         * @param contact Copy of the contact that is not modified while rendering
+         */
+        PreviewTask(final Contact contact, final int imageSize) {
+            mTaskContact = contact;
+            mImageSize = imageSize;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            final long startTime = System.nanoTime();
+
+            mSeed = mTaskContact.getMD5EncryptedString();
+            final ColorStatistics statistics = ColorStatistics.getInstance();
+            Bitmap bitmap =
+                    ImageFactory.cachedBitmapFrom(ContactActivity.this, mTaskContact, mImageSize);
+
+            if (bitmap == null) {
+                final DisplayList displayList =
+                        ImageFactory.displayListFrom(mTaskContact, mImageSize);
+                if (displayList == null) return null;
+
+                // Known before any pixels are painted; the draft and the picture share it.
+                mAverageColor =
+                        statistics.measure(ContactActivity.this, displayList).getAverageColor();
+
+                publishProgress(ImageFactory.draftBitmapFrom(ContactActivity.this, displayList));
+                if (isCancelled()) return null;
+
+                bitmap = ImageFactory.bitmapFrom(ContactActivity.this, displayList, mImageSize);
+            } else {
+                mAverageColor = statistics.measure(bitmap).getAverageColor();
+            }
+
+            mRenderMillis = (System.nanoTime() - startTime) / 1000000L;
+            return bitmap;
         }
 
+        @Override
+        protected void onProgressUpdate(Bitmap... draftBitmaps) {
+            if (this != mPreviewTask || isCancelled()) {
+                BitmapPool.getInstance(ContactActivity.this).release(draftBitmaps[0]);
+                return;
+            }
+
+            // Drafts are never saved, so they are not tagged with the seed.
+            showPreview(draftBitmaps[0], null, mAverageColor, 0L);
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            // Cancelled renderings may be incomplete.
+            BitmapPool.getInstance(ContactActivity.this).release(bitmap);
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            if (this != mPreviewTask) {
+                BitmapPool.getInstance(ContactActivity.this).release(bitmap);
+                return;
+            }
+
+            mPreviewTask = null;
+            if (bitmap == null) {
+                showPreview(null, null, mAverageColor, mRenderMillis);
+                return;
+            }
+
+            mVariantCache.put(
+                    mTaskContact.getRetryFactor(),
+                    new VariantCache.Variant(bitmap, mSeed, mAverageColor)
+            );
+            showPreview(bitmap, mSeed, mAverageColor, mRenderMillis);
+            prefetchNeighbours();
+        }
     }
 
     /**
@@ -299,6 +622,19 @@ public class ContactActivity extends TaskActivity {
         }
     }
 
+    /**
+     * @return The encoded preview, if it still shows the current seed of the contact;
+     * otherwise a new picture
+     */
+    private byte[] getDisplayPhotoPng(final int imageSize) {
+        if (mPreviewBitmap != null
+                && mPreviewBitmap.getWidth() == imageSize
+                && mContact.getMD5EncryptedString().equals(mPreviewSeed)) {
+            return ImageFactory.pngFrom(this, mContact, mPreviewBitmap);
+        }
+        return ImageFactory.pngFrom(this, mContact, imageSize, imageSize);
+    }
+
     private class SaveImageTask extends AsyncTask<Void, Void, Boolean> {
 
         String mFileName;
@@ -306,27 +642,35 @@ public class ContactActivity extends TaskActivity {
         @Override
         protected void onPreExecute() {
             super.onPreExecute();
+            mIsSaving = true;
             setBusy();
         }
 
         @Override
         protected Boolean doInBackground(Void... params) {
-            final Bitmap bitmap = ImageFactory.bitmapFrom(
-                    ContactActivity.this,
-                    mContact,
-                    DeviceHelper.getBestImageSize(ContactActivity.this)
-            );
+            final int imageSize = DeviceHelper.getBestImageSize(ContactActivity.this);
             if (mAction == PhotoAction.Assign) {
+                final byte[] thumbnailPng = ImageFactory.pngFrom(
+                        ContactActivity.this,
+                        mContact,
+                        imageSize,
+                        ImageFactory.THUMBNAIL_SIZE
+                );
+                final byte[] displayPhotoPng = getDisplayPhotoPng(imageSize);
+                if (thumbnailPng == null || displayPhotoPng == null) return false;
+
                 return DatabaseHelper.assignImageToContact(
                         ContactActivity.this,
-                        bitmap,
+                        thumbnailPng,
+                        displayPhotoPng,
                         mContact
                 );
             } else if (mAction == PhotoAction.Store) {
+                final byte[] png = getDisplayPhotoPng(imageSize);
                 mFileName = mContact.getFileName();
                 return new FileHelper().storeImage(
                         ContactActivity.this,
-                        bitmap,
+                        png,
                         FileHelper.SUB_FOLDER_NEW,
                         mFileName
                 ) != null;
@@ -338,6 +682,7 @@ public class ContactActivity extends TaskActivity {
 
         @Override
         protected void onPostExecute(Boolean succeeded) {
+            mIsSaving = false;
             setReady();
 
             if (mAction == PhotoAction.Assign) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.ui;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.eztarget.micopi.engine.BitmapPool;
+
+/**
+ * Recently shown and prefetched previews of one contact, keyed by retry factor,
+ * so that going back and forth between variants only has to show a stored Bitmap.
+ * The cache owns its Bitmaps and returns them to the BitmapPool when they are dropped;
+ * the Bitmap that is currently shown is only returned once it has been replaced.
+ * Only used on the main thread.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+class VariantCache {
+
+    private static final String TAG = VariantCache.class.getSimpleName();
+
+    /**
+     * Prefetching stops if a new picture would leave less than this many times its size
+     * of free heap
+     */
+    private static final int PREFETCH_HEADROOM_FACTOR = 4;
+
+    private final BitmapPool mBitmapPool;
+
+    private final LruCache<Integer, Variant> mVariants;
+
+    private Bitmap mShownBitmap;
+
+    private boolean mIsMemoryTight = false;
+
+    VariantCache(final BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+
+        final long maxBytes = Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8L);
+        mVariants = new LruCache<Integer, Variant>((int) maxBytes) {
+            @Override
+            protected int sizeOf(Integer key, Variant value) {
+                return value.getBitmap().getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(
+                    boolean evicted,
+                    Integer key,
+                    Variant oldValue,
+                    Variant newValue
+            ) {
+                final Bitmap bitmap = oldValue.getBitmap();
+                if (bitmap != mShownBitmap) mBitmapPool.release(bitmap);
+            }
+        };
+    }
+
+    /**
+     * Finished preview of one retry factor
+     */
+    static class Variant {
+
+        private final Bitmap mBitmap;
+
+        private final String mSeed;
+
+        private final int mAverageColor;
+
+        Variant(final Bitmap bitmap, final String seed, final int averageColor) {
+            mBitmap = bitmap;
+            mSeed = seed;
+            mAverageColor = averageColor;
+        }
+
+        Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * @return Hash string of the contact that the Bitmap was generated from
+         */
+        String getSeed() {
+            return mSeed;
+        }
+
+        int getAverageColor() {
+            return mAverageColor;
+        }
+    }
+
+    /**
+     * @return Stored variant or null
+     */
+    Variant get(final int retryFactor) {
+        return mVariants.get(retryFactor);
+    }
+
+    /**
+     * Takes over the Bitmap of the variant; a variant that is already stored
+     * under the same retry factor is replaced
+     */
+    void put(final int retryFactor, final Variant variant) {
+        mVariants.put(retryFactor, variant);
+    }
+
+    /**
+     * Hands the Bitmap that was shown before back to the pool, unless it is still stored
+     *
+     * @param bitmap Bitmap that is now shown; it may be stored or not
+     */
+    void setShownBitmap(final Bitmap bitmap) {
+        final Bitmap previousBitmap = mShownBitmap;
+        mShownBitmap = bitmap;
+        if (previousBitmap == null || previousBitmap == bitmap) return;
+
+        for (final Variant variant : mVariants.snapshot().values()) {
+            if (variant.getBitmap() == previousBitmap) return;
+        }
+        mBitmapPool.release(previousBitmap);
+    }
+
+    /**
+     * @param byteCount Size of the picture that would be prefetched
+     * @return False once the system has asked for memory or if the heap is nearly full
+     */
+    boolean canPrefetch(final long byteCount) {
+        if (mIsMemoryTight) return false;
+
+        final Runtime runtime = Runtime.getRuntime();
+        final long usedBytes = runtime.totalMemory() - runtime.freeMemory();
+        return runtime.maxMemory() - usedBytes > byteCount * PREFETCH_HEADROOM_FACTOR;
+    }
+
+    /**
+     * Drops all variants, e.g. when another contact is shown
+     */
+    void clear() {
+        mVariants.evictAll();
+    }
+
+    /**
+     * Drops all variants if the app is hidden or memory is running low;
+     * in the latter case no more variants should be prefetched
+     *
+     * @param level Level from ComponentCallbacks2.onTrimMemory()
+     */
+    void trimMemory(final int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return;
+
+        if (level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            Log.d(TAG, "Memory is running low; stopping prefetching.");
+            mIsMemoryTight = true;
+        }
+        clear();
+    }
+
+    /**
+     * @return True if trimMemory() has been called with a level that indicates memory pressure
+     */
+    boolean isMemoryTight() {
+        return mIsMemoryTight;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.Painter;
+import org.eztarget.micopi.engine.RasterPainter;
+import org.eztarget.micopi.engine.RasterTexture;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Textures of the app, read from its assets directory;
+ * the directory is given by the system property micopi.assets.
+ * Missing textures are painted as plain colours.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class AssetTextures implements RasterTexture.Provider {
+
+    private static final String DEFAULT_ASSETS_PATH = "../app/src/main/assets";
+
+    private final RasterTexture[] mTextures = new RasterTexture[Painter.Texture.values().length];
+
+    public AssetTextures() {
+        final File directory =
+                new File(System.getProperty("micopi.assets", DEFAULT_ASSETS_PATH));
+
+        for (final Painter.Texture texture : Painter.Texture.values()) {
+            final String fileName = getFileName(texture);
+            if (fileName == null) continue;
+
+            try {
+                final BufferedImage image = ImageIO.read(new File(directory, fileName));
+                final int width = image.getWidth();
+                final int height = image.getHeight();
+                final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+                mTextures[texture.ordinal()] = RasterTexture.fromArgb(
+                        pixels,
+                        width,
+                        height,
+                        RasterPainter.PixelOrder.ARGB
+                );
+            } catch (IOException | NullPointerException e) {
+                System.err.println("Could not read " + fileName + " from " + directory + ".");
+            }
+        }
+    }
+
+    /**
+     * Only provides ARGB textures, which the benchmarks use
+     */
+    @Override
+    public RasterTexture getRasterTexture(
+            final Painter.Texture texture,
+            final RasterPainter.PixelOrder order
+    ) {
+        return order == RasterPainter.PixelOrder.ARGB ? mTextures[texture.ordinal()] : null;
+    }
+
+    /**
+     * Same files as the TextureCache of the app
+     */
+    private static String getFileName(final Painter.Texture texture) {
+        switch (texture) {
+            case GRAIN:
+                return "texture_noise.png";
+            case TOWEL:
+                return "texture_towel.png";
+            case MARBLE:
+                return "texture_marble.png";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.GlyphRasterizer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+ * Renders the characters of a RasterPainter with the font engine of the JVM,
+ * laid out like GlyphLayerCache does on Android;
+ * the font differs, so initials look similar but not identical to the ones on a phone.
+ * Works in headless mode. Not thread-safe; every thread needs its own instance.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class AwtGlyphRasterizer implements GlyphRasterizer {
+
+    private static final Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 1);
+
+    private static final FontRenderContext FONT_RENDER_CONTEXT =
+            new FontRenderContext(null, true, true);
+
+    private BufferedImage mMask;
+
+    @Override
+    public void rasterize(final String string, final int imageSize, final byte[] coverage) {
+        final int count = Math.min(string.length(), MAX_CHARS);
+        if (count == 0) return;
+        final String chars = string.substring(0, count);
+
+        if (mMask == null || mMask.getWidth() != imageSize) {
+            mMask = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_BYTE_GRAY);
+        }
+
+        final Font font =
+                FONT.deriveFont((66f / (float) Math.sqrt(string.length())) * (imageSize / 100f));
+
+        final float imageSizeHalf = imageSize * 0.5f;
+
+        final Rectangle firstCharBounds = font
+                .createGlyphVector(FONT_RENDER_CONTEXT, string.substring(0, 1))
+                .getPixelBounds(FONT_RENDER_CONTEXT, 0f, 0f);
+        final float baseline = imageSizeHalf + firstCharBounds.height * 0.5f;
+        final float originX = imageSizeHalf
+                - (float) font.getStringBounds(chars, FONT_RENDER_CONTEXT).getWidth() * 0.5f;
+
+        final Graphics2D graphics = mMask.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, imageSize, imageSize);
+        graphics.setRenderingHint(
+                RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON
+        );
+        graphics.setRenderingHint(
+                RenderingHints.KEY_FRACTIONALMETRICS,
+                RenderingHints.VALUE_FRACTIONALMETRICS_ON
+        );
+        graphics.setColor(Color.WHITE);
+        graphics.setFont(font);
+        graphics.drawString(chars, originX, baseline);
+        graphics.dispose();
+
+        final byte[] mask = ((DataBufferByte) mMask.getRaster().getDataBuffer()).getData();
+        System.arraycopy(mask, 0, coverage, 0, imageSize * imageSize);
+    }
+}
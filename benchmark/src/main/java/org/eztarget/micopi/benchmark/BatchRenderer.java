@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.GeneratorRegistry;
+import org.eztarget.micopi.engine.ImageComposer;
+import org.eztarget.micopi.engine.RasterPainter;
+import org.eztarget.micopi.engine.Seed;
+import org.eztarget.micopi.engine.ShadowCache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command-line tool that renders the pictures of all contacts of a directory file
+ * into PNG files, on all cores and without an Android device,
+ * and reports throughput, render latencies and peak heap usage.
+ * Pictures are painted by the RasterPainter, like ImageFactory with the RASTER backend;
+ * initials are drawn with the JVM font engine.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class BatchRenderer {
+
+    private static final String USAGE = "Usage: BatchRenderer <contacts.csv|contacts.json>"
+            + " <output directory> [--size 1080] [--threads <cores>] [--initials 1]"
+            + " [--shadows MEDIUM] [--seed MD5]";
+
+    private final File mOutputDirectory;
+
+    private final int mImageSize;
+
+    private final int mNumberOfInitials;
+
+    private final ShadowCache.Quality mShadowQuality;
+
+    private final Seed.Algorithm mSeedAlgorithm;
+
+    /**
+     * Framebuffer, Seed and glyph renderer of every render thread
+     */
+    private final ThreadLocal<Worker> mWorkers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker(mImageSize);
+        }
+    };
+
+    public BatchRenderer(
+            final File outputDirectory,
+            final int imageSize,
+            final int numberOfInitials,
+            final ShadowCache.Quality shadowQuality,
+            final Seed.Algorithm seedAlgorithm
+    ) {
+        mOutputDirectory = outputDirectory;
+        mImageSize = imageSize;
+        mNumberOfInitials = numberOfInitials;
+        mShadowQuality = shadowQuality;
+        mSeedAlgorithm = seedAlgorithm;
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 2) exitWithUsage(null);
+        final File inputFile = new File(args[0]);
+        final File outputDirectory = new File(args[1]);
+
+        int imageSize = 1080;
+        int numberOfThreads = Runtime.getRuntime().availableProcessors();
+        int numberOfInitials = 1;
+        ShadowCache.Quality shadowQuality = ShadowCache.Quality.MEDIUM;
+        Seed.Algorithm seedAlgorithm = Seed.Algorithm.MD5;
+        try {
+            for (int i = 2; i < args.length; i += 2) {
+                if (i + 1 >= args.length) exitWithUsage("Missing value of " + args[i] + ".");
+                final String value = args[i + 1];
+                switch (args[i]) {
+                    case "--size":
+                        imageSize = Integer.parseInt(value);
+                        break;
+                    case "--threads":
+                        numberOfThreads = Integer.parseInt(value);
+                        break;
+                    case "--initials":
+                        numberOfInitials = Integer.parseInt(value);
+                        break;
+                    case "--shadows":
+                        shadowQuality = ShadowCache.Quality.valueOf(value.toUpperCase());
+                        break;
+                    case "--seed":
+                        seedAlgorithm = Seed.Algorithm.valueOf(value.toUpperCase());
+                        break;
+                    default:
+                        exitWithUsage("Unknown option " + args[i] + ".");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            exitWithUsage("Invalid option value: " + e.getMessage());
+        }
+        if (imageSize < 1 || numberOfThreads < 1) exitWithUsage("Invalid size or threads.");
+
+        final List<DirectoryContact> contacts;
+        try {
+            contacts = DirectoryReader.read(inputFile);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Could not read " + inputFile + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("Could not create " + outputDirectory + ".");
+            System.exit(1);
+        }
+
+        final BatchRenderer renderer = new BatchRenderer(
+                outputDirectory,
+                imageSize,
+                numberOfInitials,
+                shadowQuality,
+                seedAlgorithm
+        );
+        final boolean didRenderAll = renderer.render(contacts, numberOfThreads);
+        System.exit(didRenderAll ? 0 : 1);
+    }
+
+    private static void exitWithUsage(final String message) {
+        if (message != null) System.err.println(message);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Renders and writes all pictures, the most expensive ones first, and prints a report
+     *
+     * @return False if any picture could not be written
+     */
+    public boolean render(
+            final List<DirectoryContact> contacts,
+            final int numberOfThreads
+    ) throws InterruptedException {
+        ImageIO.setUseCache(false);
+        final List<DirectoryContact> sortedContacts = sortByCost(contacts);
+
+        final int count = sortedContacts.size();
+        final long[] renderTimes = new long[count];
+        final long[] totalTimes = new long[count];
+
+        resetPeakHeapUsage();
+        final long startTime = System.nanoTime();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        final List<Future<Void>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    renderContact(sortedContacts.get(index), index, renderTimes, totalTimes);
+                    return null;
+                }
+            }));
+        }
+
+        int numberOfFailures = 0;
+        for (int i = 0; i < count; i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                System.err.println("Could not render " + sortedContacts.get(i) + ": "
+                        + e.getCause());
+                renderTimes[i] = -1L;
+                numberOfFailures++;
+            }
+        }
+        executor.shutdown();
+
+        final long duration = System.nanoTime() - startTime;
+        printReport(count - numberOfFailures, count, numberOfThreads, duration, renderTimes,
+                totalTimes);
+        return numberOfFailures == 0;
+    }
+
+    private void renderContact(
+            final DirectoryContact contact,
+            final int index,
+            final long[] renderTimes,
+            final long[] totalTimes
+    ) throws IOException {
+        final long startTime = System.nanoTime();
+        final Worker worker = mWorkers.get();
+
+        final ImageComposer composer = new ImageComposer(
+                contact.getFullName(),
+                contact.getFirstNameWord(),
+                contact.deriveSeed(mSeedAlgorithm, worker.mSeed)
+        );
+        composer.setNumberOfInitials(mNumberOfInitials);
+
+        final RasterPainter painter = new RasterPainter(
+                worker.mPixels,
+                mImageSize,
+                RasterPainter.PixelOrder.ARGB,
+                worker.mTextures,
+                worker.mGlyphRasterizer
+        );
+        painter.setShadowQuality(mShadowQuality);
+        composer.paint(painter);
+        final long renderTime = System.nanoTime() - startTime;
+
+        final File file = new File(mOutputDirectory, contact.getFileName());
+        if (!ImageIO.write(worker.mImage, "png", file)) {
+            throw new IOException("No PNG encoder available.");
+        }
+
+        renderTimes[index] = renderTime;
+        totalTimes[index] = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Orders the contacts like ImageService does,
+     * so that the last pictures of the batch are short ones
+     */
+    private List<DirectoryContact> sortByCost(final List<DirectoryContact> contacts) {
+        final Seed seed = new Seed();
+        final float[] costs = new float[contacts.size()];
+        final List<Integer> indices = new ArrayList<>(contacts.size());
+        for (int i = 0; i < contacts.size(); i++) {
+            final DirectoryContact contact = contacts.get(i);
+            costs[i] = GeneratorRegistry.estimateCost(
+                    contact.deriveSeed(mSeedAlgorithm, seed),
+                    contact.getFirstNameWord(),
+                    mImageSize
+            );
+            indices.add(i);
+        }
+
+        Collections.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer lhs, final Integer rhs) {
+                return Float.compare(costs[rhs], costs[lhs]);
+            }
+        });
+
+        final List<DirectoryContact> sortedContacts = new ArrayList<>(contacts.size());
+        for (final int index : indices) sortedContacts.add(contacts.get(index));
+        return sortedContacts;
+    }
+
+    /*
+    REPORT
+     */
+
+    private void printReport(
+            final int numberOfRendered,
+            final int count,
+            final int numberOfThreads,
+            final long duration,
+            final long[] renderTimes,
+            final long[] totalTimes
+    ) {
+        System.out.println("Rendered " + numberOfRendered + " of " + count + " contacts at "
+                + mImageSize + "px on " + numberOfThreads + " threads in "
+                + String.format("%.2f", duration / 1e9) + "s");
+        System.out.println("Throughput: "
+                + String.format("%.1f", numberOfRendered / (duration / 1e9)) + " contacts/s");
+
+        final long[] sortedRenderTimes = getSuccessfulTimes(renderTimes, renderTimes);
+        final long[] sortedTotalTimes = getSuccessfulTimes(renderTimes, totalTimes);
+        System.out.println("Render latency: p50 " + formatPercentile(sortedRenderTimes, 0.5)
+                + ", p99 " + formatPercentile(sortedRenderTimes, 0.99));
+        System.out.println("Render and PNG latency: p50 " + formatPercentile(sortedTotalTimes, 0.5)
+                + ", p99 " + formatPercentile(sortedTotalTimes, 0.99));
+        System.out.println("Peak heap: " + getPeakHeapUsage() / (1024L * 1024L) + " MB");
+    }
+
+    /**
+     * @param renderTimes Render times; negative for failed contacts
+     * @return Sorted times of all successful contacts
+     */
+    private static long[] getSuccessfulTimes(final long[] renderTimes, final long[] times) {
+        int count = 0;
+        final long[] successfulTimes = new long[times.length];
+        for (int i = 0; i < times.length; i++) {
+            if (renderTimes[i] >= 0L) successfulTimes[count++] = times[i];
+        }
+        final long[] sortedTimes = Arrays.copyOf(successfulTimes, count);
+        Arrays.sort(sortedTimes);
+        return sortedTimes;
+    }
+
+    /**
+     * Nearest-rank percentile
+     */
+    private static String formatPercentile(final long[] sortedTimes, final double percentile) {
+        if (sortedTimes.length == 0) return "-";
+        final int rank = (int) Math.ceil(percentile * sortedTimes.length) - 1;
+        return String.format("%.1fms", sortedTimes[Math.max(0, rank)] / 1e6);
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return Sum of the peak usages of all heap pools since resetPeakHeapUsage(),
+     * i.e. an upper bound of the peak heap usage
+     */
+    private static long getPeakHeapUsage() {
+        long bytes = 0L;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) bytes += pool.getPeakUsage().getUsed();
+        }
+        return bytes;
+    }
+
+    /*
+    WORKER
+     */
+
+    /**
+     * Buffers of one render thread; the framebuffer of the RasterPainter is the pixel array
+     * of the image that is encoded, so that pictures are never copied
+     */
+    private static class Worker {
+
+        /**
+         * Shared by all workers; textures are immutable
+         */
+        private static AssetTextures sTextures;
+
+        private final BufferedImage mImage;
+
+        private final int[] mPixels;
+
+        private final Seed mSeed = new Seed();
+
+        private final AssetTextures mTextures;
+
+        private final AwtGlyphRasterizer mGlyphRasterizer = new AwtGlyphRasterizer();
+
+        Worker(final int imageSize) {
+            mImage = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+            mPixels = ((DataBufferInt) mImage.getRaster().getDataBuffer()).getData();
+            mTextures = getTextures();
+        }
+
+        private static synchronized AssetTextures getTextures() {
+            if (sTextures == null) sTextures = new AssetTextures();
+            return sTextures;
+        }
+    }
+}
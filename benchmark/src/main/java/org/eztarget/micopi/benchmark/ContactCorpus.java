@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.Seed;
+
+import java.util.Random;
+
+/**
+ * Fixed set of synthetic contacts, so that every run and every commit measures the same seeds.
+ * The data have the shapes of real contacts, including the placeholders that Contact uses
+ * for missing values, names with umlauts and retried pictures.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class ContactCorpus {
+
+    public static final int SIZE = 256;
+
+    private static final long RANDOM_SEED = 20161018L;
+
+    private static final String[] FIRST_NAMES = {
+            "Anna", "Bob", "Carla", "Dieter", "Eve", "Frank", "Gina", "Hank", "Ida", "Jon",
+            "Kim", "Lou", "Mia", "Nils", "Olga", "Paul", "Quinn", "Rosa", "Sven", "Tanja",
+            "Ulrich", "Vera", "Wim", "Xenia", "Yusuf", "Zoë", "Jürgen", "Renée", "Łukasz", "Al"
+    };
+
+    private static final String[] LAST_NAMES = {
+            "Smith", "Jones", "Diaz", "Bohlen", "Zappa", "Lollo", "Moody", "Wells", "Snow",
+            "Park", "Reed", "Müller", "Schmidt", "O'Neill", "van der Berg", "Nguyen", "Kowalski",
+            "García", "Ivanova", "Tanaka"
+    };
+
+    private static final String NO_EMAIL = "NE";
+
+    private static final String NO_PHONE = "555";
+
+    private static final String NO_BIRTHDAY = "NB";
+
+    private final String[] mFullNames = new String[SIZE];
+
+    private final String[] mFirstNameWords = new String[SIZE];
+
+    private final String[] mEmailAddresses = new String[SIZE];
+
+    private final String[] mPhoneNumbers = new String[SIZE];
+
+    private final String[] mBirthdays = new String[SIZE];
+
+    private final int[] mRetryFactors = new int[SIZE];
+
+    public ContactCorpus() {
+        final Random random = new Random(RANDOM_SEED);
+
+        for (int i = 0; i < SIZE; i++) {
+            final String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            final int nameForm = random.nextInt(10);
+            if (nameForm == 0) {
+                mFullNames[i] = firstName;
+            } else if (nameForm == 1) {
+                mFullNames[i] = firstName + " " + FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]
+                        + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            } else {
+                mFullNames[i] = firstName + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            }
+            mFirstNameWords[i] = firstName;
+
+            mEmailAddresses[i] = random.nextInt(3) == 0 ? NO_EMAIL
+                    : mFullNames[i].toLowerCase().replace(' ', '.') + "@example.org";
+            mPhoneNumbers[i] = random.nextInt(4) == 0 ? NO_PHONE
+                    : "+49 " + (100 + random.nextInt(900)) + " " + random.nextInt(10000000);
+            mBirthdays[i] = random.nextInt(2) == 0 ? NO_BIRTHDAY
+                    : (1940 + random.nextInt(70)) + "-0" + (1 + random.nextInt(9)) + "-1"
+                    + random.nextInt(10);
+
+            // Contact.RETRY_STEP is 9.
+            mRetryFactors[i] = random.nextInt(4) == 0 ? (random.nextInt(7) - 3) * 9 : 0;
+        }
+    }
+
+    public String getFullName(final int index) {
+        return mFullNames[index];
+    }
+
+    public String getFirstNameWord(final int index) {
+        return mFirstNameWords[index];
+    }
+
+    public String getEmailAddress(final int index) {
+        return mEmailAddresses[index];
+    }
+
+    public String getPhoneNumber(final int index) {
+        return mPhoneNumbers[index];
+    }
+
+    public String getBirthday(final int index) {
+        return mBirthdays[index];
+    }
+
+    public int getRetryFactor(final int index) {
+        return mRetryFactors[index];
+    }
+
+    /**
+     * Derives the seed of a contact like Contact.deriveSeed() does
+     *
+     * @return The given Seed
+     */
+    public Seed deriveSeed(final int index, final Seed.Algorithm algorithm, final Seed seed) {
+        return seed.derive(
+                algorithm,
+                mFullNames[index],
+                mEmailAddresses[index],
+                mPhoneNumbers[index],
+                mBirthdays[index],
+                mRetryFactors[index]
+        );
+    }
+
+    /**
+     * @return New Seeds of all contacts
+     */
+    public Seed[] createSeeds(final Seed.Algorithm algorithm) {
+        final Seed[] seeds = new Seed[SIZE];
+        for (int i = 0; i < SIZE; i++) seeds[i] = deriveSeed(i, algorithm, new Seed());
+        return seeds;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.Seed;
+
+/**
+ * Contact of a directory file with the same picture-relevant values as Contact,
+ * which cannot be used outside of Android.
+ * Missing values are replaced like DatabaseHelper.buildContact() does,
+ * so that a contact results in the same picture as on a phone.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class DirectoryContact {
+
+    /**
+     * Phone number of contacts without one, see DatabaseHelper.buildContact()
+     */
+    private static final String NO_PHONE_NUMBER = "047";
+
+    private final long mId;
+
+    private final String mFullName;
+
+    private final String[] mNameParts;
+
+    private final String mPhoneNumber;
+
+    private final String mEmailAddress;
+
+    private final String mBirthday;
+
+    private final int mRetryFactor;
+
+    /**
+     * @param phoneNumber  Null or empty if the contact does not have one
+     * @param emailAddress Null or empty if the contact does not have one
+     * @param birthday     Null or empty if the contact does not have one
+     * @param retryFactor  Multiple of Contact.RETRY_STEP; 0 for the original picture
+     */
+    public DirectoryContact(
+            final long id,
+            final String fullName,
+            final String phoneNumber,
+            final String emailAddress,
+            final String birthday,
+            final int retryFactor
+    ) {
+        mId = id;
+
+        // Same as Contact.setName().
+        if (fullName == null || fullName.length() == 0) {
+            mFullName = " ";
+            mNameParts = new String[]{" "};
+        } else {
+            mFullName = fullName;
+            final String[] nameParts = fullName.split(" ");
+            mNameParts = nameParts.length == 0 ? new String[]{fullName} : nameParts;
+        }
+
+        mPhoneNumber = isEmpty(phoneNumber) ? NO_PHONE_NUMBER : phoneNumber;
+        mEmailAddress = isEmpty(emailAddress) ? null : emailAddress;
+        mBirthday = isEmpty(birthday) ? null : birthday;
+        mRetryFactor = retryFactor;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getFullName() {
+        return mFullName;
+    }
+
+    /**
+     * @return First word of the name, see Contact.getNameWord(0)
+     */
+    public String getFirstNameWord() {
+        return mNameParts[0];
+    }
+
+    /**
+     * Hashes the data of this contact like Contact.deriveSeed()
+     *
+     * @param seed Seed that is overwritten
+     * @return The given Seed
+     */
+    public Seed deriveSeed(final Seed.Algorithm algorithm, final Seed seed) {
+        return seed.derive(
+                algorithm,
+                mFullName,
+                mEmailAddress,
+                mPhoneNumber,
+                mBirthday,
+                mRetryFactor
+        );
+    }
+
+    /**
+     * @return Same name as Contact.getFileName()
+     */
+    public String getFileName() {
+        return mId + "___" + mFullName
+                .replace(" - ", "-")
+                .replace(' ', '_')
+                .replace('\'', '_')
+                .replace('\"', '_')
+                .replace('/', '-')
+                .replace('.', '_') + ".png";
+    }
+
+    @Override
+    public String toString() {
+        return mId + ": " + mFullName;
+    }
+
+    private static boolean isEmpty(final String value) {
+        return value == null || value.length() == 0;
+    }
+}
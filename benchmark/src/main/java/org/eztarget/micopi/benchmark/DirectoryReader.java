@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the contacts of a directory file, either CSV with a header row
+ * or JSON, i.e. an array of flat objects.
+ * Both use the keys id, name, phone, email, birthday and retry;
+ * only name is required and ids default to the position in the file, starting at 1.
+ * Files are read as UTF-8.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class DirectoryReader {
+
+    private static final String KEY_ID = "id";
+
+    private static final String KEY_NAME = "name";
+
+    private static final String KEY_PHONE = "phone";
+
+    private static final String KEY_EMAIL = "email";
+
+    private static final String KEY_BIRTHDAY = "birthday";
+
+    private static final String KEY_RETRY = "retry";
+
+    private DirectoryReader() {
+    }
+
+    /**
+     * @param file File whose name ends with .json or .csv
+     * @throws IllegalArgumentException If the file cannot be parsed
+     */
+    public static List<DirectoryContact> read(final File file) throws IOException {
+        final String text =
+                new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+
+        final List<Map<String, String>> records;
+        if (file.getName().toLowerCase().endsWith(".json")) {
+            records = new JsonParser(text).parse();
+        } else {
+            records = parseCsv(text);
+        }
+
+        final List<DirectoryContact> contacts = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            contacts.add(toContact(records.get(i), i + 1));
+        }
+        return contacts;
+    }
+
+    private static DirectoryContact toContact(
+            final Map<String, String> record,
+            final int position
+    ) {
+        final String name = record.get(KEY_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Contact " + position + " does not have a name.");
+        }
+
+        final String id = record.get(KEY_ID);
+        final String retry = record.get(KEY_RETRY);
+        try {
+            return new DirectoryContact(
+                    id == null || id.length() == 0 ? position : Long.parseLong(id.trim()),
+                    name,
+                    record.get(KEY_PHONE),
+                    record.get(KEY_EMAIL),
+                    record.get(KEY_BIRTHDAY),
+                    retry == null || retry.length() == 0 ? 0 : Integer.parseInt(retry.trim())
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid id or retry of contact " + position + ".");
+        }
+    }
+
+    /*
+    CSV
+     */
+
+    /**
+     * RFC 4180: fields may be quoted, quotes inside quoted fields are doubled;
+     * quotes inside unquoted fields are kept and empty lines are skipped
+     */
+    private static List<Map<String, String>> parseCsv(final String text) {
+        final List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean isQuoted = false;
+        boolean isFieldStarted = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (isQuoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    isQuoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                isQuoted = true;
+                isFieldStarted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+                isFieldStarted = true;
+            } else if (c == '\n' || c == '\r') {
+                if (isFieldStarted || field.length() > 0) {
+                    row.add(field.toString());
+                    rows.add(row);
+                    row = new ArrayList<>();
+                }
+                field.setLength(0);
+                isFieldStarted = false;
+            } else if (c != '\uFEFF' || i > 0) {
+                field.append(c);
+            }
+        }
+        if (isQuoted) throw new IllegalArgumentException("Unterminated quote in CSV.");
+        if (isFieldStarted || field.length() > 0) {
+            row.add(field.toString());
+            rows.add(row);
+        }
+
+        if (rows.isEmpty()) return new ArrayList<>();
+
+        final List<String> header = rows.get(0);
+        final List<Map<String, String>> records = new ArrayList<>(rows.size() - 1);
+        for (int r = 1; r < rows.size(); r++) {
+            final Map<String, String> record = new HashMap<>();
+            final List<String> fields = rows.get(r);
+            for (int column = 0; column < header.size() && column < fields.size(); column++) {
+                record.put(header.get(column).trim().toLowerCase(), fields.get(column));
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /*
+    JSON
+     */
+
+    /**
+     * Parser of exactly the subset that directory files use:
+     * one array of objects whose values are strings, numbers, booleans or null
+     */
+    private static class JsonParser {
+
+        private final String mText;
+
+        private int mPosition = 0;
+
+        JsonParser(final String text) {
+            mText = text;
+        }
+
+        List<Map<String, String>> parse() {
+            final List<Map<String, String>> records = new ArrayList<>();
+            expect('[');
+            if (!consume(']')) {
+                do {
+                    records.add(parseObject());
+                } while (consume(','));
+                expect(']');
+            }
+            skipWhitespace();
+            if (mPosition < mText.length()) throw error("Unexpected content");
+            return records;
+        }
+
+        private Map<String, String> parseObject() {
+            final Map<String, String> record = new HashMap<>();
+            expect('{');
+            if (consume('}')) return record;
+            do {
+                skipWhitespace();
+                final String key = parseString();
+                expect(':');
+                record.put(key.toLowerCase(), parseValue());
+            } while (consume(','));
+            expect('}');
+            return record;
+        }
+
+        /**
+         * @return Text of the value; null for null
+         */
+        private String parseValue() {
+            skipWhitespace();
+            if (mPosition >= mText.length()) throw error("Missing value");
+
+            final char c = mText.charAt(mPosition);
+            if (c == '"') return parseString();
+            if (c == '{' || c == '[') throw error("Nested values are not supported");
+
+            final int start = mPosition;
+            while (mPosition < mText.length() && "-+.eE0123456789nulltrfas".indexOf(
+                    mText.charAt(mPosition)) >= 0) {
+                mPosition++;
+            }
+            final String literal = mText.substring(start, mPosition);
+            if (literal.equals("null")) return null;
+            if (literal.length() == 0) throw error("Invalid value");
+            return literal;
+        }
+
+        private String parseString() {
+            if (mPosition >= mText.length() || mText.charAt(mPosition) != '"') {
+                throw error("Expected a string");
+            }
+            mPosition++;
+
+            final StringBuilder string = new StringBuilder();
+            while (mPosition < mText.length()) {
+                final char c = mText.charAt(mPosition++);
+                if (c == '"') return string.toString();
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+
+                if (mPosition >= mText.length()) break;
+                final char escaped = mText.charAt(mPosition++);
+                switch (escaped) {
+                    case 'b':
+                        string.append('\b');
+                        break;
+                    case 'f':
+                        string.append('\f');
+                        break;
+                    case 'n':
+                        string.append('\n');
+                        break;
+                    case 'r':
+                        string.append('\r');
+                        break;
+                    case 't':
+                        string.append('\t');
+                        break;
+                    case 'u':
+                        if (mPosition + 4 > mText.length()) throw error("Invalid escape");
+                        try {
+                            string.append((char) Integer.parseInt(
+                                    mText.substring(mPosition, mPosition + 4),
+                                    16
+                            ));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid escape");
+                        }
+                        mPosition += 4;
+                        break;
+                    default:
+                        string.append(escaped);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void expect(final char c) {
+            if (!consume(c)) throw error("Expected '" + c + "'");
+        }
+
+        private boolean consume(final char c) {
+            skipWhitespace();
+            if (mPosition < mText.length() && mText.charAt(mPosition) == c) {
+                mPosition++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (mPosition < mText.length()
+                    && (Character.isWhitespace(mText.charAt(mPosition))
+                    || mText.charAt(mPosition) == '\uFEFF')) {
+                mPosition++;
+            }
+        }
+
+        private IllegalArgumentException error(final String message) {
+            return new IllegalArgumentException(
+                    message + " in JSON at position " + mPosition + "."
+            );
+        }
+    }
+}
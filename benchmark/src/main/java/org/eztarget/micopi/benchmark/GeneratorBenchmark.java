@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.DisplayList;
+import org.eztarget.micopi.engine.GeneratorRegistry;
+import org.eztarget.micopi.engine.RecordingPainter;
+import org.eztarget.micopi.engine.Seed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shape generation of one contact per call, recorded instead of painted,
+ * so that only the generators and the recording are measured;
+ * every generator is run with every seed, regardless of the one that the seed selects.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+
+    private static final int IMAGE_SIZE = 1080;
+
+    private final ContactCorpus mCorpus = new ContactCorpus();
+
+    private final Seed[] mSeeds = mCorpus.createSeeds(Seed.Algorithm.MD5);
+
+    private int mIndex;
+
+    @Benchmark
+    public DisplayList plates() {
+        final int index = nextIndex();
+        final RecordingPainter recorder = new RecordingPainter(IMAGE_SIZE, true);
+        GeneratorRegistry.PLATES.paint(recorder, mSeeds[index], mCorpus.getFirstNameWord(index));
+        return recorder.finish();
+    }
+
+    @Benchmark
+    public DisplayList pixels() {
+        final int index = nextIndex();
+        final RecordingPainter recorder = new RecordingPainter(IMAGE_SIZE, true);
+        GeneratorRegistry.PIXELS.paint(recorder, mSeeds[index], mCorpus.getFirstNameWord(index));
+        return recorder.finish();
+    }
+
+    @Benchmark
+    public float estimateCost() {
+        final int index = nextIndex();
+        return GeneratorRegistry.estimateCost(
+                mSeeds[index],
+                mCorpus.getFirstNameWord(index),
+                IMAGE_SIZE
+        );
+    }
+
+    private int nextIndex() {
+        mIndex = (mIndex + 1) % ContactCorpus.SIZE;
+        return mIndex;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Contact.getMD5EncryptedString() before the Seed existed;
+ * the reference that Seed.Algorithm.MD5 has to match symbol by symbol.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class LegacyHashString {
+
+    private LegacyHashString() {
+    }
+
+    public static String of(
+            final String fullName,
+            final String emailAddress,
+            final String phoneNumber,
+            final String birthday,
+            final int retryFactor
+    ) throws NoSuchAlgorithmException {
+        final String combinedInfo = fullName + emailAddress + phoneNumber + birthday + retryFactor;
+
+        final MessageDigest digest = MessageDigest.getInstance("MD5");
+        final byte[] combinedBytes = combinedInfo.getBytes(Charset.forName("ISO-8859-1"));
+        digest.update(combinedBytes, 0, combinedInfo.length());
+        String md5String = new BigInteger(1, digest.digest()).toString(16);
+
+        while (md5String.length() < 32) md5String += fullName;
+        return md5String;
+    }
+}
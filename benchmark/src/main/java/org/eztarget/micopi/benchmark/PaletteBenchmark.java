@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.ColorCollection;
+import org.eztarget.micopi.engine.Palette;
+import org.eztarget.micopi.engine.Seed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Colours of all symbols of one seed per call;
+ * run with "-prof gc" to see that lookups do not allocate.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaletteBenchmark {
+
+    private final Seed[] mSeeds = new ContactCorpus().createSeeds(Seed.Algorithm.MD5);
+
+    /**
+     * Same colours as the candy palette, but loaded as data
+     */
+    private final Palette mDataPalette =
+            Palette.parse("data", paletteText(ColorCollection.PALETTE));
+
+    private int mIndex;
+
+    @Benchmark
+    public int getColor() {
+        final Seed seed = nextSeed();
+        int colors = 0;
+        for (int i = 0; i < seed.length(); i++) {
+            colors ^= ColorCollection.getColor(seed.getSymbol(i));
+        }
+        return colors;
+    }
+
+    @Benchmark
+    public int dataPaletteGetColor() {
+        final Seed seed = nextSeed();
+        int colors = 0;
+        for (int i = 0; i < seed.length(); i++) {
+            colors ^= mDataPalette.getColor(seed.getSymbol(i));
+        }
+        return colors;
+    }
+
+    private Seed nextSeed() {
+        mIndex = (mIndex + 1) % mSeeds.length;
+        return mSeeds[mIndex];
+    }
+
+    private static String paletteText(final int[] colors) {
+        final StringBuilder text = new StringBuilder("// Candy palette\n");
+        for (final int color : colors) text.append(String.format("#%08X\n", color));
+        return text.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.DisplayList;
+import org.eztarget.micopi.engine.ImageComposer;
+import org.eztarget.micopi.engine.RasterPainter;
+import org.eztarget.micopi.engine.RecordingPainter;
+import org.eztarget.micopi.engine.Seed;
+import org.eztarget.micopi.engine.ShadowCache;
+import org.eztarget.micopi.engine.TiledRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full pictures of one contact per call, painted by the RasterPainter with textures,
+ * at every image size that DeviceHelper chooses from.
+ * Initials are not painted, because glyphs need an Android Canvas.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    /**
+     * DeviceHelper.IMAGE_SIZES
+     */
+    @Param({"640", "720", "960", "1080", "1440"})
+    public int imageSize;
+
+    private final ContactCorpus mCorpus = new ContactCorpus();
+
+    private final Seed[] mSeeds = mCorpus.createSeeds(Seed.Algorithm.MD5);
+
+    private final AssetTextures mTextures = new AssetTextures();
+
+    private DisplayList[] mDisplayLists;
+
+    private int[] mPixels;
+
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mPixels = new int[imageSize * imageSize];
+
+        mDisplayLists = new DisplayList[ContactCorpus.SIZE];
+        for (int i = 0; i < ContactCorpus.SIZE; i++) {
+            final RecordingPainter recorder = new RecordingPainter(imageSize, true);
+            createComposer(i).paint(recorder);
+            mDisplayLists[i] = recorder.finish();
+        }
+    }
+
+    /**
+     * Generation and painting, like a picture that is not in any cache
+     */
+    @Benchmark
+    public int[] render() {
+        final RasterPainter painter = createPainter();
+        createComposer(nextIndex()).paint(painter);
+        return mPixels;
+    }
+
+    /**
+     * Painting of a recording, like a picture whose DisplayList is cached
+     */
+    @Benchmark
+    public int[] replay() {
+        final RasterPainter painter = createPainter();
+        mDisplayLists[nextIndex()].replay(painter);
+        return mPixels;
+    }
+
+    /**
+     * Painting of a recording in parallel tiles, like the TILED render mode;
+     * compare with replay()
+     */
+    @Benchmark
+    public int[] replayTiled() {
+        TiledRenderer.getInstance().render(
+                mDisplayLists[nextIndex()],
+                mPixels,
+                imageSize,
+                RasterPainter.PixelOrder.ARGB,
+                mTextures,
+                null,
+                ShadowCache.Quality.EXACT
+        );
+        return mPixels;
+    }
+
+    private RasterPainter createPainter() {
+        return new RasterPainter(
+                mPixels,
+                imageSize,
+                RasterPainter.PixelOrder.ARGB,
+                mTextures,
+                null
+        );
+    }
+
+    private ImageComposer createComposer(final int index) {
+        return new ImageComposer(
+                mCorpus.getFullName(index),
+                mCorpus.getFirstNameWord(index),
+                mSeeds[index]
+        );
+    }
+
+    private int nextIndex() {
+        mIndex = (mIndex + 1) % ContactCorpus.SIZE;
+        return mIndex;
+    }
+}
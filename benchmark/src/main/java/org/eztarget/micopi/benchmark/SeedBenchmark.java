@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.Seed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seed derivation of one contact of the corpus per call;
+ * Contact.getMD5EncryptedString() itself needs Android classes and is measured as md5HashString.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SeedBenchmark {
+
+    private final ContactCorpus mCorpus = new ContactCorpus();
+
+    private final Seed mSeed = new Seed();
+
+    private int mIndex;
+
+    /**
+     * Contact.getMD5EncryptedString() before the Seed existed, for comparison
+     */
+    @Benchmark
+    public String legacyHashString() throws NoSuchAlgorithmException {
+        final int index = nextIndex();
+        return LegacyHashString.of(
+                mCorpus.getFullName(index),
+                mCorpus.getEmailAddress(index),
+                mCorpus.getPhoneNumber(index),
+                mCorpus.getBirthday(index),
+                mCorpus.getRetryFactor(index)
+        );
+    }
+
+    /**
+     * Contact.getMD5EncryptedString()
+     */
+    @Benchmark
+    public String md5HashString() {
+        return mCorpus.deriveSeed(nextIndex(), Seed.Algorithm.MD5, mSeed).toString();
+    }
+
+    @Benchmark
+    public Seed md5Seed() {
+        return mCorpus.deriveSeed(nextIndex(), Seed.Algorithm.MD5, mSeed);
+    }
+
+    @Benchmark
+    public Seed murmur3Seed() {
+        return mCorpus.deriveSeed(nextIndex(), Seed.Algorithm.MURMUR3, mSeed);
+    }
+
+    private int nextIndex() {
+        mIndex = (mIndex + 1) % ContactCorpus.SIZE;
+        return mIndex;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.DisplayList;
+import org.eztarget.micopi.engine.ImageComposer;
+import org.eztarget.micopi.engine.RasterPainter;
+import org.eztarget.micopi.engine.RecordingPainter;
+import org.eztarget.micopi.engine.Seed;
+import org.eztarget.micopi.engine.ShadowCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recorded pictures of one contact per call, painted by the RasterPainter
+ * with every shadow quality; EXACT blurs every shadow, the others use the ShadowCache.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ShadowBenchmark {
+
+    private static final int IMAGE_SIZE = 1080;
+
+    @Param({"EXACT", "HIGH", "MEDIUM", "LOW"})
+    public ShadowCache.Quality shadowQuality;
+
+    private final ContactCorpus mCorpus = new ContactCorpus();
+
+    private final AssetTextures mTextures = new AssetTextures();
+
+    private final int[] mPixels = new int[IMAGE_SIZE * IMAGE_SIZE];
+
+    private DisplayList[] mDisplayLists;
+
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        final Seed[] seeds = mCorpus.createSeeds(Seed.Algorithm.MD5);
+
+        mDisplayLists = new DisplayList[ContactCorpus.SIZE];
+        for (int i = 0; i < ContactCorpus.SIZE; i++) {
+            final RecordingPainter recorder = new RecordingPainter(IMAGE_SIZE, true);
+            new ImageComposer(
+                    mCorpus.getFullName(i),
+                    mCorpus.getFirstNameWord(i),
+                    seeds[i]
+            ).paint(recorder);
+            mDisplayLists[i] = recorder.finish();
+        }
+        ShadowCache.getInstance().clear();
+    }
+
+    /**
+     * Painting with a warm ShadowCache, like most pictures of a batch
+     */
+    @Benchmark
+    public int[] replay() {
+        return paint();
+    }
+
+    /**
+     * Painting with an empty ShadowCache, like the first pictures of a batch
+     */
+    @Benchmark
+    public int[] replayColdCache() {
+        ShadowCache.getInstance().clear();
+        return paint();
+    }
+
+    private int[] paint() {
+        final RasterPainter painter = new RasterPainter(
+                mPixels,
+                IMAGE_SIZE,
+                RasterPainter.PixelOrder.ARGB,
+                mTextures,
+                null
+        );
+        painter.setShadowQuality(shadowQuality);
+        mIndex = (mIndex + 1) % ContactCorpus.SIZE;
+        mDisplayLists[mIndex].replay(painter);
+        return mPixels;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vertices of one polygon per call, calculated with two trigonometric calls per vertex
+ * or placed from the PolygonTemplates like in the painters.
+ * Lives in the engine package, because the templates are package-private.
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PolygonBenchmark {
+
+    private static final float CENTER = 320f;
+
+    private final float[] mVertices = new float[PolygonTemplates.MAX_EDGES * 2];
+
+    private int mIndex;
+
+    /**
+     * Like every polygon of earlier versions
+     */
+    @Benchmark
+    public float[] construction() {
+        final int index = mIndex++;
+        final int numberOfEdges = getNumberOfEdges(index);
+        final float angleOffset = index * 0.01f;
+        final float radius = getRadius(index);
+
+        for (int edge = 1; edge <= numberOfEdges; edge++) {
+            final double angle = Painter.TWO_PI * edge / numberOfEdges;
+            mVertices[(edge - 1) * 2] = (float) (CENTER + radius * Math.cos(angle + angleOffset));
+            mVertices[(edge - 1) * 2 + 1] =
+                    (float) (CENTER + radius * Math.sin(angle + angleOffset));
+        }
+        return mVertices;
+    }
+
+    /**
+     * Like RasterPainter.paintPolygon(): one rotation of the unit vertices per polygon
+     */
+    @Benchmark
+    public float[] template() {
+        final int index = mIndex++;
+        final int numberOfEdges = getNumberOfEdges(index);
+        final float angleOffset = index * 0.01f;
+        final float radius = getRadius(index);
+
+        final double[] unitVertices = PolygonTemplates.getUnitVertices(numberOfEdges);
+        final double offsetCos = Math.cos(angleOffset);
+        final double offsetSin = Math.sin(angleOffset);
+        for (int edge = 1; edge <= numberOfEdges; edge++) {
+            final double unitX = unitVertices[(edge - 1) * 2];
+            final double unitY = unitVertices[(edge - 1) * 2 + 1];
+            mVertices[(edge - 1) * 2] =
+                    (float) (CENTER + radius * (unitX * offsetCos - unitY * offsetSin));
+            mVertices[(edge - 1) * 2 + 1] =
+                    (float) (CENTER + radius * (unitY * offsetCos + unitX * offsetSin));
+        }
+        return mVertices;
+    }
+
+    private static int getNumberOfEdges(final int index) {
+        return PolygonTemplates.MIN_EDGES + (index & Integer.MAX_VALUE) % 8;
+    }
+
+    private static float getRadius(final int index) {
+        return 100f + (index & Integer.MAX_VALUE) % 50;
+    }
+}
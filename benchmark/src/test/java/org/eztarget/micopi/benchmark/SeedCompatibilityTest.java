@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Easy Target
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eztarget.micopi.benchmark;
+
+import org.eztarget.micopi.engine.Seed;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The hash strings of Seed.Algorithm.MD5 are the ones that all existing pictures were drawn from;
+ * they have to stay equal to the ones of the old Contact.getMD5EncryptedString().
+ * <p/>
+ * Created by michel on 18/10/16.
+ */
+public class SeedCompatibilityTest {
+
+    /**
+     * Names with characters inside and outside of ISO-8859-1;
+     * names with characters outside of the BMP are not here
+     * because the old implementation threw an exception for them.
+     */
+    private static final String[] NAMES = {
+            "Al", "Anna Smith", "Zoë Nguyen", "Renée García", "Łukasz Kowalski",
+            "Иван Петров", "山田 太郎", "محمد علي", "O'Neill-Müller"
+    };
+
+    private static final int RETRY_STEP = 9;
+
+    private static final int RETRY_COUNT = 1000;
+
+    @Test
+    public void corpusMatchesLegacyHashString() throws Exception {
+        final ContactCorpus corpus = new ContactCorpus();
+        final Seed seed = new Seed();
+        for (int i = 0; i < ContactCorpus.SIZE; i++) {
+            assertEquals(
+                    LegacyHashString.of(
+                            corpus.getFullName(i),
+                            corpus.getEmailAddress(i),
+                            corpus.getPhoneNumber(i),
+                            corpus.getBirthday(i),
+                            corpus.getRetryFactor(i)
+                    ),
+                    corpus.deriveSeed(i, Seed.Algorithm.MD5, seed).toString()
+            );
+        }
+    }
+
+    /**
+     * Retries of every name until a fair number of digests starts with one or two zero nibbles,
+     * which BigInteger.toString(16) dropped and the name pads
+     */
+    @Test
+    public void leadingZerosMatchLegacyHashString() throws Exception {
+        final Seed seed = new Seed();
+        int oneZeroCount = 0;
+        int twoZerosCount = 0;
+
+        for (final String name : NAMES) {
+            for (int i = -RETRY_COUNT / 2; i < RETRY_COUNT / 2; i++) {
+                final int retryFactor = i * RETRY_STEP;
+                final String expected = LegacyHashString.of(name, "NE", "555", "NB", retryFactor);
+                seed.derive(Seed.Algorithm.MD5, name, "NE", "555", "NB", retryFactor);
+                assertEquals(expected, seed.toString());
+
+                if (seed.getByte(0) == 0) {
+                    twoZerosCount++;
+                } else if (seed.getByte(0) < 0x10) {
+                    oneZeroCount++;
+                }
+            }
+        }
+
+        assertTrue(oneZeroCount > NAMES.length * 16);
+        assertTrue(twoZerosCount > 0);
+    }
+
+    @Test
+    public void missingValuesMatchLegacyHashString() throws Exception {
+        final Seed seed = new Seed();
+        for (final String name : NAMES) {
+            assertEquals(
+                    LegacyHashString.of(name, null, null, null, 0),
+                    seed.derive(Seed.Algorithm.MD5, name, null, null, null, 0).toString()
+            );
+            assertEquals(
+                    LegacyHashString.of(name, "", "", "", -RETRY_STEP),
+                    seed.derive(Seed.Algorithm.MD5, name, "", "", "", -RETRY_STEP).toString()
+            );
+        }
+    }
+
+    /**
+     * Fixed hash strings, so that the old implementation cannot drift together with the Seed
+     */
+    @Test
+    public void knownHashStrings() {
+        assertHashString("e6a1c160d0fa34412fe78e10f80950d", "Łukasz Kowalski", 126);
+        assertHashString("905b5f0c1f1aa3c2912b78a6029ceb", "Łukasz Kowalski", 2421);
+        assertHashString("b00a488b12e62a8c9795d49d0651d59", "Иван Петров", 54);
+        assertHashString("168750ca9125f95785236780500764", "Иван Петров", 306);
+        assertHashString("6d814c15d4cf8a7169c0fd5e50021c9", "山田 太郎", 63);
+        assertHashString("b221141897757cd2cca6a2234162ecd", "Zoë Nguyen", 90);
+    }
+
+    private static void assertHashString(
+            final String hexDigits,
+            final String fullName,
+            final int retryFactor
+    ) {
+        final Seed seed = new Seed().derive(
+                Seed.Algorithm.MD5,
+                fullName,
+                "NE",
+                "555",
+                "NB",
+                retryFactor
+        );
+        assertEquals(hexDigits + fullName, seed.toString());
+    }
+}